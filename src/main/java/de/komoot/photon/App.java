@@ -2,18 +2,23 @@ package de.komoot.photon;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
+import de.komoot.photon.elasticsearch.BulkSettings;
 import de.komoot.photon.elasticsearch.ElasticsearchServer;
 import de.komoot.photon.elasticsearch.IndexMapping;
 import de.komoot.photon.elasticsearch.IndexSettings;
+import de.komoot.photon.nominatim.HstoreDataAdapter;
 import de.komoot.photon.nominatim.NominatimConnector;
 import de.komoot.photon.nominatim.NominatimUpdater;
+import de.komoot.photon.nominatim.NotificationListener;
+import de.komoot.photon.nominatim.UpdateScheduler;
 import de.komoot.photon.utils.CorsFilter;
 import lombok.extern.slf4j.Slf4j;
 import spark.Request;
 import spark.Response;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 
 import static spark.Spark.*;
 
@@ -29,6 +34,11 @@ public class App {
             return;
         }
 
+        if (args.isNominatimInstallTriggers()) {
+            createNotificationListener(args, null, null).installTriggers();
+            return;
+        }
+
         final ElasticsearchServer esServer = new ElasticsearchServer(args.getServerUrl())
                 .apiKey(args.getApiKey())
                 .start();
@@ -42,6 +52,12 @@ public class App {
             return;
         }
 
+        if (args.getImportDump() != null) {
+            log.info("ES cluster is now ready for import.");
+            startDumpImport(args, esServer);
+            return;
+        }
+
         // Working on an existing installation.
         // Update the index settings in case there are any changes.
         if (args.isRefreshIndexSettings()) {
@@ -101,12 +117,24 @@ public class App {
     private static void startJsonDump(CommandLineArgs args) {
         try {
             final String filename = args.getJsonDump();
-            final JsonDumper jsonDumper = new JsonDumper(filename, args.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames());
-            NominatimConnector nominatimConnector = new NominatimConnector(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword());
+            final JsonDumper jsonDumper = new JsonDumper(filename, args.getJsonShardSize(), args.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames());
+            NominatimConnector nominatimConnector = new NominatimConnector(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword(),
+                    new HstoreDataAdapter(args.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames()));
             nominatimConnector.setImporter(jsonDumper);
-            nominatimConnector.readEntireDatabase(args.getCountryCodes());
+            nominatimConnector.setReaderThreads(args.getReaderThreads());
+            nominatimConnector.setConverterThreads(args.getConverterThreads());
+            nominatimConnector.setImportQueueSize(args.getImportQueueSize());
+            nominatimConnector.setAddressCacheSize(args.getAddressCacheSize());
+            nominatimConnector.setCopyExport(args.isCopyExport());
+            final ImportMetrics metrics = startMetrics(args);
+            nominatimConnector.setMetrics(metrics);
+            try {
+                nominatimConnector.readEntireDatabase(args.getCountryCodes());
+            } finally {
+                metrics.stop();
+            }
             log.info("json dump was created: " + filename);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             log.error("cannot create dump", e);
         }
     }
@@ -116,6 +144,76 @@ public class App {
      * Read all data from a Nominatim database and import it into a Photon database.
      */
     private static void startNominatimImport(CommandLineArgs args, ElasticsearchServer esServer) {
+        prepareIndex(args, esServer);
+
+        log.info("starting import from nominatim to photon with languages: " + String.join(",", args.getLanguages()));
+        NominatimConnector nominatimConnector = new NominatimConnector(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword(),
+                new HstoreDataAdapter(args.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames()));
+        nominatimConnector.setImporter(esServer.createImporter(args.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames(), buildBulkSettings(args)));
+        nominatimConnector.setReaderThreads(args.getReaderThreads());
+        nominatimConnector.setConverterThreads(args.getConverterThreads());
+        nominatimConnector.setImportQueueSize(args.getImportQueueSize());
+        nominatimConnector.setAddressCacheSize(args.getAddressCacheSize());
+        nominatimConnector.setCopyExport(args.isCopyExport());
+        nominatimConnector.setCheckpointStore(esServer.createCheckpointStore(), args.isContinueImport());
+        final ImportMetrics metrics = startMetrics(args);
+        nominatimConnector.setMetrics(metrics);
+        boolean complete = false;
+        try {
+            nominatimConnector.readEntireDatabase(args.getCountryCodes());
+            complete = true;
+        } finally {
+            metrics.stop();
+            finishIndex(args, esServer, complete);
+        }
+
+        log.info("imported data from nominatim to photon with languages: " + String.join(",", args.getLanguages()));
+    }
+
+    /**
+     * Read documents from json dump files and import them into a Photon database.
+     */
+    private static void startDumpImport(CommandLineArgs args, ElasticsearchServer esServer) {
+        prepareIndex(args, esServer);
+
+        log.info("starting import from dump " + args.getImportDump() + " to photon with languages: " + String.join(",", args.getLanguages()));
+        Importer importer = esServer.createImporter(args.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames(), buildBulkSettings(args));
+        final ImportMetrics metrics = startMetrics(args);
+        importer.setMetrics(metrics);
+        JsonDumpReader reader = new JsonDumpReader(importer, args.getReaderThreads());
+        boolean complete = false;
+        try {
+            reader.importDump(Paths.get(args.getImportDump()));
+            complete = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot import dump", e);
+        } finally {
+            metrics.stop();
+            finishIndex(args, esServer, complete);
+        }
+
+        log.info("imported data from dump to photon with languages: " + String.join(",", args.getLanguages()));
+    }
+
+    /**
+     * Publish the metrics of an import via JMX and in the log.
+     */
+    private static ImportMetrics startMetrics(CommandLineArgs args) {
+        return new ImportMetrics().registerMBean().startReporting(args.getMetricsInterval());
+    }
+
+    private static BulkSettings buildBulkSettings(CommandLineArgs args) {
+        return new BulkSettings()
+                .setMaxSizeBytes(args.getBulkSizeMb() * 1024L * 1024L)
+                .setMaxConcurrentRequests(args.getBulkConcurrency())
+                .setMaxRetries(args.getBulkRetries())
+                .setDeadLetterFile(args.getBulkDeadLetterFile());
+    }
+
+    /**
+     * Create the index for a new import, unless an existing import should be continued.
+     */
+    private static void prepareIndex(CommandLineArgs args, ElasticsearchServer esServer) {
         try {
             if (args.isFreshCluster()) {
                 esServer.createIndex(
@@ -135,12 +233,39 @@ public class App {
             throw new RuntimeException("cannot setup index, elastic search config files not readable", e);
         }
 
-        log.info("starting import from nominatim to photon with languages: " + String.join(",", args.getLanguages()));
-        NominatimConnector nominatimConnector = new NominatimConnector(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword());
-        nominatimConnector.setImporter(esServer.createImporter(args.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames()));
-        nominatimConnector.readEntireDatabase(args.getCountryCodes());
+        try {
+            esServer.updateDynamicSettings(IndexSettings.buildBulkLoadSettings(args.isAsyncTranslog()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot switch index to bulk loading", e);
+        }
+    }
 
-        log.info("imported data from nominatim to photon with languages: " + String.join(",", args.getLanguages()));
+    /**
+     * Switch the index back to serving search requests after an import and compact it.
+     * An import that failed is not compacted, only the serving settings are restored.
+     * A continued import switches to the bulk load settings again.
+     */
+    private static void finishIndex(CommandLineArgs args, ElasticsearchServer esServer, boolean complete) {
+        if (!complete) {
+            log.warn("Import did not finish, restoring the serving settings of the incomplete index."
+                    + " Use -continue-import to resume a Nominatim import.");
+            try {
+                esServer.updateDynamicSettings(IndexSettings.buildServingSettings());
+            } catch (IOException | RuntimeException e) {
+                // Do not hide the error that stopped the import.
+                log.error("Cannot restore index settings after failed import.", e);
+            }
+            return;
+        }
+
+        try {
+            if (args.getImportMaxSegments() > 0) {
+                esServer.forceMerge(args.getImportMaxSegments());
+            }
+            esServer.updateDynamicSettings(IndexSettings.buildServingSettings());
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot restore index settings after import", e);
+        }
     }
 
     /**
@@ -152,9 +277,18 @@ public class App {
 
         NominatimUpdater nominatimUpdater = new NominatimUpdater(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword());
         nominatimUpdater.setUpdater(server.createUpdater(dbProperties.getLanguages(), args.getExtraTags(), args.isAllExtraTags(), args.isIncludeExtraNames()));
+        nominatimUpdater.setAddressCacheSize(args.getAddressCacheSize());
+        nominatimUpdater.setUpdateThreads(args.getUpdateThreads());
+        nominatimUpdater.setCascadeLimit(args.getUpdateCascadeLimit());
         return nominatimUpdater;
     }
 
+    private static NotificationListener createNotificationListener(CommandLineArgs args, NominatimUpdater nominatimUpdater,
+                                                                   UpdateScheduler scheduler) {
+        return new NotificationListener(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword(),
+                nominatimUpdater, scheduler, args.getNotifyBatchSize(), args.getNotifyBatchMillis());
+    }
+
     /**
      * Start API server to accept search requests via http.
      */
@@ -187,13 +321,21 @@ public class App {
         get("lookup", new LookupSearchRequestHandler("lookup", server.createLookupHandler(), dbProperties.getLanguages(), args.getDefaultLanguage()));
         get("lookup/", new LookupSearchRequestHandler("lookup/", server.createLookupHandler(), dbProperties.getLanguages(), args.getDefaultLanguage()));
 
-        if (args.isEnableUpdateApi()) {
-            // setup update API
+        if (args.isEnableUpdateApi() || args.getUpdateInterval() > 0 || args.isNominatimListen()) {
             final NominatimUpdater nominatimUpdater = setupNominatimUpdater(args, server);
-            get("/nominatim-update", (Request request, Response response) -> {
-                new Thread(nominatimUpdater::update).start();
-                return "nominatim update started (more information in console output) ...";
-            });
+            final UpdateScheduler scheduler = new UpdateScheduler(nominatimUpdater)
+                    .startInterval(args.getUpdateInterval());
+
+            if (args.isNominatimListen()) {
+                createNotificationListener(args, nominatimUpdater, scheduler).start();
+            }
+
+            if (args.isEnableUpdateApi()) {
+                // setup update API
+                get("/nominatim-update", (Request request, Response response) -> scheduler.trigger().toString());
+                get("/nominatim-update/status", (Request request, Response response) -> scheduler.getStatus().toString());
+                get("/nominatim-update/cancel", (Request request, Response response) -> scheduler.cancel().toString());
+            }
         }
     }
 }
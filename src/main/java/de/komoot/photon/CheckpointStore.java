@@ -0,0 +1,26 @@
+package de.komoot.photon;
+
+import java.io.IOException;
+
+/**
+ * interface for saving the progress of a running import, so that an
+ * interrupted import can be continued later
+ */
+public interface CheckpointStore {
+    /**
+     * Load the last saved checkpoint.
+     *
+     * @return The checkpoint or null if none was saved.
+     */
+    public ImportCheckpoint load() throws IOException;
+
+    /**
+     * Save the checkpoint, replacing any previously saved one.
+     */
+    public void save(ImportCheckpoint checkpoint) throws IOException;
+
+    /**
+     * Remove the saved checkpoint after the import has completed.
+     */
+    public void clear() throws IOException;
+}
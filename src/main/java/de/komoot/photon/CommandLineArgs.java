@@ -5,6 +5,9 @@ package de.komoot.photon;
  */
 
 import com.beust.jcommander.Parameter;
+import de.komoot.photon.elasticsearch.BulkSettings;
+import de.komoot.photon.nominatim.NominatimConnector;
+import de.komoot.photon.nominatim.NominatimUpdater;
 import de.komoot.photon.utils.StringArrayConverter;
 import lombok.Data;
 
@@ -32,12 +35,15 @@ public class CommandLineArgs {
     @Parameter(names = "-fresh-cluster", description = "use when importing to a cluster with no indexes, skips past deletion to creation")
     private boolean freshCluster = false;
 
-    @Parameter(names = "-continue-import", description = "use to skip the index recreation entirely")
+    @Parameter(names = "-continue-import", description = "use to skip the index recreation entirely; a nominatim import continues from its last checkpoint")
     private boolean continueImport = false;
 
     @Parameter(names = "-nominatim-import", description = "import nominatim database into photon (this will delete previous index by default)")
     private boolean nominatimImport = false;
 
+    @Parameter(names = "-import-dump", description = "import a json dump file or a directory of dump files into photon instead of reading from nominatim (this will delete previous index by default)")
+    private String importDump = null;
+
     @Parameter(names = "-nominatim-update", description = "fetch updates from nominatim database into photon and exit (this updates the index only without offering an API)")
     private boolean nominatimUpdate = false;
 
@@ -59,12 +65,57 @@ public class CommandLineArgs {
     @Parameter(names = "-include-extra-names", description = "includes all extra name data from nominatim")
     private boolean includeExtraNames = false;
 
+    @Parameter(names = "-reader-threads", description = "number of threads reading from the nominatim database or from dump files in parallel during import (default 1)")
+    private int readerThreads = 1;
+
+    @Parameter(names = "-copy-export", description = "read the nominatim database with COPY in binary format during import, which is faster than normal queries")
+    private boolean copyExport = false;
+
+    @Parameter(names = "-converter-threads", description = "number of threads converting documents for the index during import (default 1)")
+    private int converterThreads = 1;
+
+    @Parameter(names = "-import-queue-size", description = "maximum number of documents waiting for conversion during import (default 10000)")
+    private int importQueueSize = 10000;
+
+    @Parameter(names = "-bulk-size", description = "maximum size of a bulk request to elasticsearch during import in megabytes (default 10)")
+    private int bulkSizeMb = BulkSettings.DEFAULT_MAX_SIZE_MB;
+
+    @Parameter(names = "-bulk-concurrency", description = "maximum number of bulk requests sent to elasticsearch in parallel during import; the actual number adapts to the load of the cluster (default 32)")
+    private int bulkConcurrency = BulkSettings.DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+    @Parameter(names = "-bulk-retries", description = "number of times a document rejected by elasticsearch is sent again during import (default 5)")
+    private int bulkRetries = BulkSettings.DEFAULT_MAX_RETRIES;
+
+    @Parameter(names = "-bulk-dead-letter", description = "file to write documents to that could not be imported, in json dump format for use with -import-dump (default: only log them)")
+    private String bulkDeadLetterFile = null;
+
+    @Parameter(names = "-async-translog", description = "write the elasticsearch translog asynchronously during import; faster, but the last seconds of data may be lost on a crash")
+    private boolean asyncTranslog = false;
+
+    @Parameter(names = "-import-max-segments", description = "merge the index down to this many segments per shard after the import (default 5, 0 = no merge)")
+    private int importMaxSegments = 5;
+
+    @Parameter(names = "-metrics-interval", description = "seconds between two log lines with throughput metrics of the import stages (default 60, 0 = only at the end)")
+    private int metricsInterval = 60;
+
+    @Parameter(names = "-update-threads", description = "number of threads processing the sectors of a rank in parallel during updates (default 1)")
+    private int updateThreads = 1;
+
+    @Parameter(names = "-update-cascade-limit", description = "maximum number of places re-indexed per update because their address parents changed, more are left to the next update (default 100000, 0 = none)")
+    private int updateCascadeLimit = NominatimUpdater.DEFAULT_CASCADE_LIMIT;
+
+    @Parameter(names = "-address-cache-size", description = "number of parent places whose address is kept in memory during import and update (default 10000)")
+    private int addressCacheSize = NominatimConnector.DEFAULT_ADDRESS_CACHE_SIZE;
+
     @Parameter(names = "-synonym-file", description = "file with synonym and classification terms")
     private String synonymFile = null;
 
-    @Parameter(names = "-json", description = "import nominatim database and dump it to a json like files in (useful for developing)")
+    @Parameter(names = "-json", description = "import nominatim database and dump it to a json like files in (useful for developing); compressed with gzip when the file name ends in .gz")
     private String jsonDump = null;
 
+    @Parameter(names = "-json-shard-size", description = "split the json dump into files with at most this many documents each, written in parallel (default 0 = single file)")
+    private int jsonShardSize = 0;
+
     @Parameter(names = "-host", description = "postgres host (default 127.0.0.1)")
     private String host = "127.0.0.1";
 
@@ -98,6 +149,21 @@ public class CommandLineArgs {
     @Parameter(names = "-enable-update-api", description = "Enable the additional endpoint /nominatim-update, which allows to trigger updates from a nominatim database")
     private boolean enableUpdateApi = false;
 
+    @Parameter(names = "-nominatim-listen", description = "while serving the API, update places as soon as the nominatim database announces their changes (needs the triggers from -nominatim-install-triggers)")
+    private boolean nominatimListen = false;
+
+    @Parameter(names = "-notify-batch-size", description = "maximum number of changed places processed together with -nominatim-listen (default 1000)")
+    private int notifyBatchSize = 1000;
+
+    @Parameter(names = "-notify-batch-millis", description = "maximum time in milliseconds a change waits for further changes with -nominatim-listen (default 1000)")
+    private int notifyBatchMillis = 1000;
+
+    @Parameter(names = "-nominatim-install-triggers", description = "install the triggers in the nominatim database that announce changes for -nominatim-listen and exit")
+    private boolean nominatimInstallTriggers = false;
+
+    @Parameter(names = "-update-interval", description = "while serving the API, update from the nominatim database every this many seconds (default 0 = only when triggered via /nominatim-update)")
+    private int updateInterval = 0;
+
     @Parameter(names = "-h", description = "show help / usage")
     private boolean usage = false;
 
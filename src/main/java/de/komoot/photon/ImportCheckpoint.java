@@ -0,0 +1,80 @@
+package de.komoot.photon;
+
+import java.util.*;
+
+/**
+ * Progress of an import from Nominatim.
+ *
+ * The export is split into sector ranges, each of which is exported in
+ * two phases: placex and interpolations. The checkpoint records which
+ * of these tasks have been completely written to the index.
+ */
+public class ImportCheckpoint {
+    public static final String PHASE_PLACEX = "placex";
+    public static final String PHASE_OSMLINE = "osmline";
+
+    private String countryCodes = "";
+    private List<SectorRange> sectorRanges = new ArrayList<>();
+    private final Set<String> completed = new HashSet<>();
+
+    /**
+     * Return the country code filter the import was started with.
+     */
+    public String getCountryCodes() {
+        return countryCodes;
+    }
+
+    public ImportCheckpoint setCountryCodes(String countryCodes) {
+        this.countryCodes = countryCodes == null ? "" : countryCodes;
+        return this;
+    }
+
+    /**
+     * Return the sector ranges the import was split into.
+     */
+    public List<SectorRange> getSectorRanges() {
+        return sectorRanges;
+    }
+
+    public ImportCheckpoint setSectorRanges(List<SectorRange> sectorRanges) {
+        this.sectorRanges = new ArrayList<>(sectorRanges);
+        return this;
+    }
+
+    public synchronized boolean isCompleted(String phase, SectorRange sectorRange) {
+        return completed.contains(taskName(phase, sectorRange));
+    }
+
+    /**
+     * Mark tasks as completed.
+     *
+     * @param tasks Task names as returned by {@link #taskName}.
+     */
+    public synchronized void markCompleted(Collection<String> tasks) {
+        completed.addAll(tasks);
+    }
+
+    /**
+     * Return the names of all completed tasks.
+     */
+    public synchronized Set<String> getCompleted() {
+        return new HashSet<>(completed);
+    }
+
+    /**
+     * Return the number of sector ranges where at least one phase still needs to be done.
+     */
+    public synchronized int countPendingRanges() {
+        int pending = 0;
+        for (SectorRange range : sectorRanges) {
+            if (!completed.contains(taskName(PHASE_PLACEX, range)) || !completed.contains(taskName(PHASE_OSMLINE, range))) {
+                ++pending;
+            }
+        }
+        return pending;
+    }
+
+    public static String taskName(String phase, SectorRange sectorRange) {
+        return phase + ":" + sectorRange.getName();
+    }
+}
@@ -0,0 +1,280 @@
+package de.komoot.photon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Collects metrics for the stages of an import: reading rows from the database,
+ * looking up addresses, waiting in the queue, converting documents and sending
+ * them to Elasticsearch in bulk requests.
+ *
+ * The metrics can be published via JMX and written to the log in regular
+ * intervals. All methods may be called from several threads at the same time.
+ */
+@Slf4j
+public class ImportMetrics implements ImportMetricsMXBean {
+    public static final String OBJECT_NAME = "de.komoot.photon:type=ImportMetrics";
+
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder addressQueries = new LongAdder();
+    private final LongAdder addressQueryNanos = new LongAdder();
+    private final LongAdder documentsConverted = new LongAdder();
+    private final LongAdder conversionNanos = new LongAdder();
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder bulkRequestMillis = new LongAdder();
+    private final LongAdder bulkDocuments = new LongAdder();
+    private final LongAdder bulkBytes = new LongAdder();
+    private final LongAdder retriedDocuments = new LongAdder();
+    private final LongAdder failedDocuments = new LongAdder();
+    private volatile IntSupplier queueDepth = () -> 0;
+    private volatile int queueCapacity = 0;
+    private final long startMillis = System.currentTimeMillis();
+
+    private ObjectName registeredName = null;
+    private ScheduledExecutorService reporter = null;
+    private Snapshot lastReport = null;
+
+    public void rowsRead(long count) {
+        rowsRead.add(count);
+    }
+
+    public void addressQuery(long nanos) {
+        addressQueries.increment();
+        addressQueryNanos.add(nanos);
+    }
+
+    public void documentConverted(long nanos) {
+        documentsConverted.increment();
+        conversionNanos.add(nanos);
+    }
+
+    public void bulkRequest(int documents, long bytes, long millis) {
+        bulkRequests.increment();
+        bulkDocuments.add(documents);
+        bulkBytes.add(bytes);
+        bulkRequestMillis.add(millis);
+    }
+
+    public void documentsRetried(long count) {
+        retriedDocuments.add(count);
+    }
+
+    public void documentFailed() {
+        failedDocuments.increment();
+    }
+
+    /**
+     * Set where to get the current number of batches waiting in the import queue from.
+     */
+    public void setQueue(IntSupplier depth, int capacity) {
+        this.queueDepth = depth;
+        this.queueCapacity = capacity;
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    @Override
+    public long getAddressQueries() {
+        return addressQueries.sum();
+    }
+
+    @Override
+    public long getAddressQueryMillis() {
+        return addressQueryNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getDocumentsConverted() {
+        return documentsConverted.sum();
+    }
+
+    @Override
+    public long getConversionMillis() {
+        return conversionNanos.sum() / 1000000;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public long getBulkRequests() {
+        return bulkRequests.sum();
+    }
+
+    @Override
+    public long getBulkRequestMillis() {
+        return bulkRequestMillis.sum();
+    }
+
+    @Override
+    public long getBulkDocuments() {
+        return bulkDocuments.sum();
+    }
+
+    @Override
+    public long getBulkBytes() {
+        return bulkBytes.sum();
+    }
+
+    @Override
+    public long getRetriedDocuments() {
+        return retriedDocuments.sum();
+    }
+
+    @Override
+    public long getFailedDocuments() {
+        return failedDocuments.sum();
+    }
+
+    /**
+     * Publish the metrics via JMX. Replaces metrics registered by an earlier import.
+     */
+    public ImportMetrics registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            log.warn("Cannot register import metrics with JMX.", e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Write the metrics to the log in regular intervals.
+     *
+     * @param intervalSeconds Seconds between two reports. 0 disables the reports.
+     */
+    public synchronized ImportMetrics startReporting(long intervalSeconds) {
+        if (intervalSeconds > 0 && reporter == null) {
+            lastReport = new Snapshot(this);
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "photon-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> log.info(report()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+
+        return this;
+    }
+
+    /**
+     * Stop reporting and unregister from JMX. Writes a final report covering the whole import.
+     */
+    public synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                log.debug("Cannot unregister import metrics.", e);
+            }
+            registeredName = null;
+        }
+
+        lastReport = null;
+        log.info(report());
+    }
+
+    /**
+     * Describe the metrics as a single line of key=value pairs. Rates and
+     * averages cover the time since the previous report or, for the first
+     * report, the whole import.
+     */
+    synchronized String report() {
+        final Snapshot now = new Snapshot(this);
+        final Snapshot last = lastReport == null ? new Snapshot(startMillis) : lastReport;
+        lastReport = now;
+
+        final double seconds = Math.max(0.001, (now.millis - last.millis) / 1000.0);
+        final long rows = now.rowsRead - last.rowsRead;
+        final long addressQueries = now.addressQueries - last.addressQueries;
+        final long converted = now.documentsConverted - last.documentsConverted;
+        final long bulks = now.bulkRequests - last.bulkRequests;
+        final long bulkDocs = now.bulkDocuments - last.bulkDocuments;
+
+        return String.format("import metrics: rows=%d rows_per_s=%.1f address_queries=%d address_query_ms_avg=%.1f"
+                        + " queue=%d/%d converted=%d convert_us_avg=%.1f"
+                        + " bulk_requests=%d bulk_ms_avg=%.1f bulk_docs_avg=%.1f bulk_kb_avg=%.1f indexed_per_s=%.1f"
+                        + " retried=%d failed=%d",
+                now.rowsRead, rows / seconds,
+                now.addressQueries, average(now.addressQueryMillis - last.addressQueryMillis, addressQueries),
+                getQueueDepth(), queueCapacity,
+                now.documentsConverted, average((now.conversionMillis - last.conversionMillis) * 1000, converted),
+                now.bulkRequests, average(now.bulkRequestMillis - last.bulkRequestMillis, bulks),
+                average(bulkDocs, bulks), average((now.bulkBytes - last.bulkBytes) / 1024.0, bulks), bulkDocs / seconds,
+                now.retriedDocuments, now.failedDocuments);
+    }
+
+    private static double average(double total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * State of the counters at a given time.
+     */
+    private static class Snapshot {
+        final long millis;
+        final long rowsRead;
+        final long addressQueries;
+        final long addressQueryMillis;
+        final long documentsConverted;
+        final long conversionMillis;
+        final long bulkRequests;
+        final long bulkRequestMillis;
+        final long bulkDocuments;
+        final long bulkBytes;
+        final long retriedDocuments;
+        final long failedDocuments;
+
+        Snapshot(long startMillis) {
+            millis = startMillis;
+            rowsRead = addressQueries = addressQueryMillis = documentsConverted = conversionMillis = 0;
+            bulkRequests = bulkRequestMillis = bulkDocuments = bulkBytes = retriedDocuments = failedDocuments = 0;
+        }
+
+        Snapshot(ImportMetrics metrics) {
+            millis = System.currentTimeMillis();
+            rowsRead = metrics.getRowsRead();
+            addressQueries = metrics.getAddressQueries();
+            addressQueryMillis = metrics.getAddressQueryMillis();
+            documentsConverted = metrics.getDocumentsConverted();
+            conversionMillis = metrics.getConversionMillis();
+            bulkRequests = metrics.getBulkRequests();
+            bulkRequestMillis = metrics.getBulkRequestMillis();
+            bulkDocuments = metrics.getBulkDocuments();
+            bulkBytes = metrics.getBulkBytes();
+            retriedDocuments = metrics.getRetriedDocuments();
+            failedDocuments = metrics.getFailedDocuments();
+        }
+    }
+}
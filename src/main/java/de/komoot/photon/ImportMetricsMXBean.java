@@ -0,0 +1,34 @@
+package de.komoot.photon;
+
+/**
+ * Counters of the import pipeline as exposed via JMX.
+ *
+ * Times are summed up over all threads.
+ */
+public interface ImportMetricsMXBean {
+    long getRowsRead();
+
+    long getAddressQueries();
+
+    long getAddressQueryMillis();
+
+    long getDocumentsConverted();
+
+    long getConversionMillis();
+
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    long getBulkRequests();
+
+    long getBulkRequestMillis();
+
+    long getBulkDocuments();
+
+    long getBulkBytes();
+
+    long getRetriedDocuments();
+
+    long getFailedDocuments();
+}
@@ -3,6 +3,9 @@ package de.komoot.photon;
 /**
  * interface for bulk imports from a data source like nominatim
  *
+ * {@link #add} may be called from several threads at the same time,
+ * when the import is run with more than one converter thread.
+ *
  * @author felix
  */
 public interface Importer {
@@ -13,6 +16,27 @@ public interface Importer {
      */
     public void add(PhotonDoc doc);
 
+    /**
+     * a document was imported that has already been serialized to JSON
+     *
+     * @param id   id of the document in the index
+     * @param json UTF-8 encoded JSON of the document
+     */
+    public void addSerialized(String id, byte[] json);
+
+    /**
+     * wait until all documents added so far have been written
+     *
+     * Only called while no documents are added at the same time.
+     */
+    public void flush();
+
+    /**
+     * record throughput and latency of the import in the given metrics
+     */
+    default void setMetrics(ImportMetrics metrics) {
+    }
+
     /**
      * import is finished
      */
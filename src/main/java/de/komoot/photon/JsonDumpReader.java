@@ -0,0 +1,254 @@
+package de.komoot.photon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads dump files created by {@link JsonDumper} back into an importer.
+ *
+ * The documents are handed on as they are found in the dump, without
+ * converting them back into photon documents. Several files are read in parallel.
+ */
+@Slf4j
+public class JsonDumpReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int PROGRESS_INTERVAL = 50000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Importer importer;
+    private final int numThreads;
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * @param importer   Importer to hand the documents to. Must be thread-safe when more than one thread is used.
+     * @param numThreads Number of files to read in parallel.
+     */
+    public JsonDumpReader(Importer importer, int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of reader threads must be at least 1.");
+        }
+        this.importer = importer;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Import the given dump file or all files in the given directory
+     * and finish the importer, also when the import fails.
+     *
+     * Files ending in '.gz' are decompressed on the fly.
+     *
+     * @return Number of documents imported.
+     */
+    public long importDump(Path path) throws IOException {
+        // The importer must be finished even when the import fails, or its threads keep the JVM alive.
+        try {
+            readAllFiles(path);
+        } finally {
+            importer.finish();
+        }
+
+        return counter.get();
+    }
+
+    private void readAllFiles(Path path) throws IOException {
+        final List<Path> files = listDumpFiles(path);
+        final Queue<Path> pending = new ConcurrentLinkedQueue<>(files);
+        final long startMillis = System.currentTimeMillis();
+        final int threads = Math.min(numThreads, Math.max(1, files.size()));
+
+        log.info(String.format("importing %d dump files with %d reader threads", files.size(), threads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            workers.add(executor.submit(() -> {
+                Path file;
+                while ((file = pending.poll()) != null) {
+                    try {
+                        final long documents = readFile(file);
+                        log.info(String.format("finished %s, %d documents, %d files left", file, documents, pending.size()));
+                    } catch (IOException | RuntimeException e) {
+                        // Stop the other readers as well, the import is incomplete anyway.
+                        pending.clear();
+                        throw new IOException("Cannot read dump file " + file, e);
+                    }
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for reader threads.", e);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Reading the dump failed.", e.getCause());
+        } finally {
+            awaitReaders(executor);
+        }
+
+        final double documentsPerSecond = 1000d * counter.get() / Math.max(1, System.currentTimeMillis() - startMillis);
+        log.info(String.format("finished import of %d documents from dump [%.1f/second]", counter.get(), documentsPerSecond));
+    }
+
+    /**
+     * Wait for readers that are still busy after a failure, so that none of
+     * them hands documents to the importer after it has been finished.
+     */
+    private static void awaitReaders(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("waiting for the remaining reader threads to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the dump files to import, sorted by name.
+     */
+    static List<Path> listDumpFiles(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            if (!Files.isReadable(path)) {
+                throw new FileNotFoundException("Dump file not found: " + path);
+            }
+            return Collections.singletonList(path);
+        }
+
+        try (Stream<Path> files = Files.list(path)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith("."))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private long readFile(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+
+        long documents = 0;
+        try (LineReader reader = new LineReader(in)) {
+            byte[] line;
+            while ((line = reader.readLine()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Reading of " + file + " was stopped.");
+                }
+                if (line.length == 0) {
+                    continue;
+                }
+
+                final String id = parseDocumentId(line);
+                final byte[] json = reader.readLine();
+                if (json == null || json.length == 0) {
+                    throw new IOException(String.format("Document for id %s missing at end of file.", id));
+                }
+
+                importer.addSerialized(id, json);
+                ++documents;
+
+                final long total = counter.incrementAndGet();
+                if (total % PROGRESS_INTERVAL == 0) {
+                    log.info(String.format("imported %d documents from dump", total));
+                }
+            }
+        }
+
+        return documents;
+    }
+
+    private String parseDocumentId(byte[] line) throws IOException {
+        final JsonNode action = mapper.readTree(line);
+        JsonNode meta = action.get("index");
+        if (meta == null) {
+            meta = action.get("create");
+        }
+        if (meta == null || meta.get("_id") == null) {
+            throw new IOException("Expected index action with document id, got: " + action);
+        }
+
+        return meta.get("_id").asText();
+    }
+
+    /**
+     * Splits a byte stream into lines without decoding it.
+     */
+    private static class LineReader implements Closeable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private int pos = 0;
+        private int limit = 0;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return The next line without the line terminator or null at the end of the stream.
+         */
+        byte[] readLine() throws IOException {
+            line.reset();
+            boolean found = false;
+            while (true) {
+                if (pos >= limit) {
+                    limit = in.read(buffer);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        break;
+                    }
+                }
+                final int start = pos;
+                while (pos < limit && buffer[pos] != '\n') {
+                    ++pos;
+                }
+                line.write(buffer, start, pos - start);
+                found = true;
+                if (pos < limit) {
+                    ++pos; // skip the newline
+                    break;
+                }
+            }
+
+            if (!found) {
+                return null;
+            }
+
+            byte[] result = line.toByteArray();
+            if (result.length > 0 && result[result.length - 1] == '\r') {
+                result = Arrays.copyOf(result, result.length - 1);
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
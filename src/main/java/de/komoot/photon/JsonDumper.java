@@ -1,42 +1,203 @@
 package de.komoot.photon;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * useful to create json files that can be used for fast re imports
  *
+ * The dump is written in the newline-delimited format of the Elasticsearch
+ * bulk API: an index action with the document id followed by the document.
+ * When the file name ends in '.gz', the output is gzip-compressed.
+ *
+ * With a shard size set, the dump is split into several files with at most
+ * that many documents each. Every importing thread then writes to its own
+ * shard, so that compression runs in parallel.
+ *
  * @author christoph
  */
 @Slf4j
 public class JsonDumper implements Importer {
-    private PrintWriter writer;
-    private final String[] languages;
-    private final String[] extraTags;
-    private final boolean allExtraTags;
-    private final boolean includeExtraNames;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] ACTION_START = "{\"index\":{\"_id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACTION_END = "\"}}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final String filename;
+    private final int shardSize;
+    private final PhotonDocSerializer serializer;
 
-    public JsonDumper(String filename, String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) throws FileNotFoundException {
-        this.writer = new PrintWriter(filename);
-        this.languages = languages;
-        this.extraTags = extraTags;
-        this.allExtraTags = allExtraTags;
-        this.includeExtraNames = includeExtraNames;
+    private final Shard singleShard;
+    private final ThreadLocal<Shard> threadShard = new ThreadLocal<>();
+    private final List<Shard> openShards = new ArrayList<>();
+    private final AtomicInteger shardCounter = new AtomicInteger();
+    private ImportMetrics metrics = new ImportMetrics();
+
+    public JsonDumper(String filename, String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) throws IOException {
+        this(filename, 0, languages, extraTags, allExtraTags, includeExtraNames);
+    }
+
+    /**
+     * @param filename  Name of the output file. For a sharded dump, the shard number is
+     *                  inserted before the file extension.
+     * @param shardSize Maximum number of documents per output file. 0 writes a single file.
+     */
+    public JsonDumper(String filename, int shardSize, String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) throws IOException {
+        if (shardSize < 0) {
+            throw new IllegalArgumentException("Shard size must not be negative.");
+        }
+        this.filename = filename;
+        this.shardSize = shardSize;
+        this.serializer = new PhotonDocSerializer(languages, extraTags, allExtraTags, includeExtraNames);
+        this.singleShard = shardSize == 0 ? new Shard(filename) : null;
     }
 
     @Override
     public void add(PhotonDoc doc) {
-        writer.println("{\"index\": {}}");
-        writer.println(Utils.convert(doc, languages, extraTags, allExtraTags, includeExtraNames).asText());
+        final long start = System.nanoTime();
+        final byte[] json = serializer.serialize(doc);
+        metrics.documentConverted(System.nanoTime() - start);
+        write(doc.getUid(), json);
+    }
+
+    @Override
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void addSerialized(String id, byte[] json) {
+        write(id, json);
+    }
+
+    private void write(String uid, byte[] json) {
+        final byte[] id = JsonStringEncoder.getInstance().quoteAsUTF8(uid);
+
+        try {
+            if (singleShard != null) {
+                synchronized (singleShard) {
+                    singleShard.write(id, json);
+                }
+            } else {
+                Shard shard = threadShard.get();
+                if (shard == null || shard.documents >= shardSize) {
+                    if (shard != null) {
+                        closeShard(shard);
+                    }
+                    shard = openShard();
+                    threadShard.set(shard);
+                }
+                shard.write(id, json);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to dump file", e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            if (singleShard != null) {
+                synchronized (singleShard) {
+                    singleShard.output.flush();
+                }
+            } else {
+                synchronized (openShards) {
+                    for (Shard shard : openShards) {
+                        shard.output.flush();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to dump file", e);
+        }
     }
 
     @Override
     public void finish() {
-        if (writer != null) {
-            writer.close();
+        if (singleShard != null) {
+            closeQuietly(singleShard);
+        } else {
+            synchronized (openShards) {
+                for (Shard shard : openShards) {
+                    closeQuietly(shard);
+                }
+                openShards.clear();
+            }
+            log.info(String.format("Dump written to %d files.", shardCounter.get()));
+        }
+    }
+
+    /**
+     * Get the file name for the shard with the given number.
+     *
+     * The number is inserted before the first extension of the file name,
+     * so that 'dump.json.gz' becomes 'dump-00003.json.gz'.
+     */
+    static String shardFilename(String filename, int shardNumber) {
+        final int nameStart = filename.lastIndexOf(File.separatorChar) + 1;
+        int extensionStart = filename.indexOf('.', nameStart);
+        if (extensionStart <= nameStart) {
+            extensionStart = filename.length();
+        }
+
+        return String.format("%s-%05d%s", filename.substring(0, extensionStart), shardNumber, filename.substring(extensionStart));
+    }
+
+    private Shard openShard() throws IOException {
+        final Shard shard = new Shard(shardFilename(filename, shardCounter.getAndIncrement()));
+        synchronized (openShards) {
+            openShards.add(shard);
+        }
+        return shard;
+    }
+
+    private void closeShard(Shard shard) throws IOException {
+        synchronized (openShards) {
+            openShards.remove(shard);
+        }
+        shard.close();
+    }
+
+    private void closeQuietly(Shard shard) {
+        try {
+            shard.close();
+        } catch (IOException e) {
+            log.error("Error while closing dump file " + shard.filename, e);
+        }
+    }
+
+    private static class Shard {
+        private final String filename;
+        private final OutputStream output;
+        private int documents = 0;
+
+        Shard(String filename) throws IOException {
+            this.filename = filename;
+            OutputStream out = new FileOutputStream(filename);
+            if (filename.endsWith(".gz")) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            this.output = new BufferedOutputStream(out, BUFFER_SIZE);
+        }
+
+        void write(byte[] id, byte[] json) throws IOException {
+            output.write(ACTION_START);
+            output.write(id);
+            output.write(ACTION_END);
+            output.write(json);
+            output.write('\n');
+            ++documents;
+        }
+
+        void close() throws IOException {
+            output.close();
         }
     }
 }
@@ -1,7 +1,9 @@
 package de.komoot.photon;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 import de.komoot.photon.nominatim.model.AddressType;
 import lombok.Getter;
@@ -12,11 +14,15 @@ import java.util.*;
 /**
  * denormalized doc with all information needed be dumped to elasticsearch
  *
+ * Centroid and bounding box are kept as plain coordinates. NaN means unset.
+ *
  * @author christoph
  */
 @Getter
 @Slf4j
 public class PhotonDoc {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
     private final long placeId;
     private final String osmType;
     private final long osmId;
@@ -26,7 +32,10 @@ public class PhotonDoc {
     private Map<String, String> name = Collections.emptyMap();
     private String postcode = null;
     private Map<String, String> extratags = Collections.emptyMap();
-    private Envelope bbox = null;
+    private double bboxMinX = Double.NaN;
+    private double bboxMinY = Double.NaN;
+    private double bboxMaxX = Double.NaN;
+    private double bboxMaxY = Double.NaN;
     private long parentPlaceId = 0; // 0 if unset
     private double importance = 0;
     private String countryCode = null;
@@ -36,7 +45,8 @@ public class PhotonDoc {
     private Map<AddressType, Map<String, String>> addressParts = new EnumMap<>(AddressType.class);
     private Set<Map<String, String>> context = new HashSet<>();
     private String houseNumber = null;
-    private Point centroid = null;
+    private double centroidX = Double.NaN;
+    private double centroidY = Double.NaN;
 
     public PhotonDoc(long placeId, String osmType, long osmId, String tagKey, String tagValue) {
         this.placeId = placeId;
@@ -56,11 +66,15 @@ public class PhotonDoc {
         this.houseNumber = other.houseNumber;
         this.postcode = other.postcode;
         this.extratags = other.extratags;
-        this.bbox = other.bbox;
+        this.bboxMinX = other.bboxMinX;
+        this.bboxMinY = other.bboxMinY;
+        this.bboxMaxX = other.bboxMaxX;
+        this.bboxMaxY = other.bboxMaxY;
         this.parentPlaceId = other.parentPlaceId;
         this.importance = other.importance;
         this.countryCode = other.countryCode;
-        this.centroid = other.centroid;
+        this.centroidX = other.centroidX;
+        this.centroidY = other.centroidY;
         this.linkedPlaceId = other.linkedPlaceId;
         this.rankAddress = other.rankAddress;
         this.addressParts = other.addressParts;
@@ -79,16 +93,64 @@ public class PhotonDoc {
 
     public PhotonDoc bbox(Geometry geom) {
         if (geom != null) {
-            this.bbox = geom.getEnvelopeInternal();
+            Envelope envelope = geom.getEnvelopeInternal();
+            if (!envelope.isNull()) {
+                bbox(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY());
+            }
         }
         return this;
     }
 
+    public PhotonDoc bbox(double minX, double minY, double maxX, double maxY) {
+        this.bboxMinX = minX;
+        this.bboxMinY = minY;
+        this.bboxMaxX = maxX;
+        this.bboxMaxY = maxY;
+        return this;
+    }
+
     public PhotonDoc centroid(Geometry centroid) {
-        this.centroid = (Point) centroid;
+        if (centroid == null) {
+            this.centroidX = Double.NaN;
+            this.centroidY = Double.NaN;
+        } else {
+            Point point = (Point) centroid;
+            this.centroidX = point.getX();
+            this.centroidY = point.getY();
+        }
+        return this;
+    }
+
+    public PhotonDoc centroid(double x, double y) {
+        this.centroidX = x;
+        this.centroidY = y;
         return this;
     }
 
+    public boolean hasCentroid() {
+        return !Double.isNaN(centroidX);
+    }
+
+    public boolean hasBbox() {
+        return !Double.isNaN(bboxMinX);
+    }
+
+    /**
+     * Create the centroid as a point geometry.
+     *
+     * @return The centroid or null, if the document has none.
+     */
+    public Point getCentroid() {
+        return hasCentroid() ? FACTORY.createPoint(new Coordinate(centroidX, centroidY)) : null;
+    }
+
+    /**
+     * @return The bounding box or null, if the document has none.
+     */
+    public Envelope getBbox() {
+        return hasBbox() ? new Envelope(bboxMinX, bboxMaxX, bboxMinY, bboxMaxY) : null;
+    }
+
     public PhotonDoc countryCode(String countryCode) {
         if (countryCode != null) {
             this.countryCode = countryCode.toUpperCase();
@@ -219,9 +281,10 @@ public class PhotonDoc {
         String field = address.get(addressFieldName);
 
         if (field != null) {
-            Map<String, String> map = addressParts.computeIfAbsent(addressType, k -> new HashMap<>());
+            // Address part maps may be shared with other documents, so never change them in place.
+            Map<String, String> existing = addressParts.get(addressType);
 
-            String existingName = map.get("name");
+            String existingName = existing == null ? null : existing.get("name");
             if (!field.equals(existingName)) {
                 if (log.isDebugEnabled()) {
                     log.debug("Replacing " + addressFieldName + " name '" + existingName + "' with '" + field + "' for osmId #" + osmId);
@@ -230,7 +293,9 @@ public class PhotonDoc {
                 if (!Objects.isNull(existingName)) {
                     context.add(Collections.singletonMap("formerName", existingName));
                 }
+                Map<String, String> map = existing == null ? new HashMap<>() : new HashMap<>(existing);
                 map.put("name", field);
+                addressParts.put(addressType, map);
             }
         }
     }
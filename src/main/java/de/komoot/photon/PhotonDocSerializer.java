@@ -0,0 +1,308 @@
+package de.komoot.photon;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import de.komoot.photon.nominatim.model.AddressType;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes a photon document as JSON in the format expected by the index.
+ *
+ * The JSON is streamed directly into a byte buffer without building
+ * an intermediate tree. Instances may be shared between threads.
+ *
+ * Serialized documents end with a hash over their content, so that updates
+ * can find out cheaply whether a document in the index has changed.
+ */
+public class PhotonDocSerializer {
+    private static final JsonFactory factory = new JsonFactory();
+    private static final int HASH_LENGTH = 16;
+    private static final byte[] HASH_FIELD_START = ("\"" + Constants.CONTENT_HASH + "\":\"").getBytes(StandardCharsets.US_ASCII);
+
+    private final String[] languages;
+    private final String[] extraTags;
+    private final boolean allExtraTags;
+    private final boolean includeExtraNames;
+
+    private final ThreadLocal<ByteArrayBuilder> buffer = ThreadLocal.withInitial(ByteArrayBuilder::new);
+
+    public PhotonDocSerializer(String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) {
+        this.languages = languages;
+        this.extraTags = extraTags;
+        this.allExtraTags = allExtraTags;
+        this.includeExtraNames = includeExtraNames;
+    }
+
+    /**
+     * Serialize the document into a JSON object.
+     *
+     * @return UTF-8 encoded JSON.
+     */
+    public byte[] serialize(PhotonDoc doc) {
+        final ByteArrayBuilder out = buffer.get();
+        out.reset();
+
+        final HashingOutputStream hashingOut = new HashingOutputStream(out);
+        try (JsonGenerator gen = factory.createGenerator(hashingOut)) {
+            gen.writeStartObject();
+            writeFields(doc, gen);
+            gen.flush();
+            gen.writeStringField(Constants.CONTENT_HASH, hashingOut.getHash());
+            gen.writeEndObject();
+        } catch (IOException e) {
+            // Only thrown by the output, which is in memory.
+            throw new UncheckedIOException("Cannot serialize document " + doc.getUid(), e);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the content hash from a document created by {@link #serialize}.
+     *
+     * @return The hash or null, when the JSON does not end with a hash.
+     */
+    public static String getContentHash(byte[] json) {
+        final int start = json.length - 2 - HASH_LENGTH;
+        final int fieldStart = start - HASH_FIELD_START.length;
+        if (fieldStart < 0 || json[json.length - 1] != '}' || json[json.length - 2] != '"') {
+            return null;
+        }
+        for (int i = 0; i < HASH_FIELD_START.length; ++i) {
+            if (json[fieldStart + i] != HASH_FIELD_START[i]) {
+                return null;
+            }
+        }
+
+        return new String(json, start, HASH_LENGTH, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Write the document as a JSON object to the given generator.
+     *
+     * The object does not contain a content hash.
+     */
+    public void write(PhotonDoc doc, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        writeFields(doc, gen);
+        gen.writeEndObject();
+    }
+
+    private void writeFields(PhotonDoc doc, JsonGenerator gen) throws IOException {
+        final AddressType addressType = doc.getAddressType();
+
+        gen.writeNumberField(Constants.OSM_ID, doc.getOsmId());
+        gen.writeStringField(Constants.OSM_TYPE, doc.getOsmType());
+        gen.writeStringField(Constants.OSM_KEY, doc.getTagKey());
+        gen.writeStringField(Constants.OSM_VALUE, doc.getTagValue());
+        gen.writeNumberField(Constants.PLACE_ID, doc.getPlaceId());
+        gen.writeNumberField(Constants.PARENT_PLACE_ID, doc.getParentPlaceId());
+        gen.writeStringField(Constants.OBJECT_TYPE, addressType == null ? "locality" : addressType.getName());
+        gen.writeNumberField(Constants.IMPORTANCE, doc.getImportance());
+        gen.writeNumberField(Constants.RANK_ADDRESS, doc.getRankAddress());
+
+        String classification = Utils.buildClassificationString(doc.getTagKey(), doc.getTagValue());
+        if (classification != null) {
+            gen.writeStringField(Constants.CLASSIFICATION, classification);
+        }
+
+        if (doc.hasCentroid()) {
+            gen.writeObjectFieldStart("coordinate");
+            gen.writeNumberField("lat", doc.getCentroidY());
+            gen.writeNumberField("lon", doc.getCentroidX());
+            gen.writeEndObject();
+        }
+
+        if (doc.getHouseNumber() != null) {
+            gen.writeStringField("housenumber", doc.getHouseNumber());
+        }
+
+        if (doc.getPostcode() != null) {
+            gen.writeStringField("postcode", doc.getPostcode());
+        }
+
+        writeName(gen, doc);
+
+        for (AddressType entry : doc.getAddressParts().keySet()) {
+            Map<String, String> fNames = new HashMap<>();
+
+            doc.copyAddressName(fNames, "default", entry, "name");
+
+            for (String language : languages) {
+                doc.copyAddressName(fNames, language, entry, "name:" + language);
+            }
+
+            writeMap(gen, fNames, entry.getName());
+        }
+
+        String countryCode = doc.getCountryCode();
+        if (countryCode != null) {
+            gen.writeStringField(Constants.COUNTRYCODE, countryCode);
+        }
+
+        writeContext(gen, doc.getContext());
+        writeExtraTags(gen, doc.getExtratags());
+        writeExtraNames(gen, doc.getName());
+        writeExtent(gen, doc);
+    }
+
+    private void writeName(JsonGenerator gen, PhotonDoc doc) throws IOException {
+        Map<String, String> fNames = new HashMap<>();
+
+        doc.copyName(fNames, "default", "name");
+
+        for (String language : languages) {
+            doc.copyName(fNames, language, "name:" + language);
+        }
+
+        doc.copyName(fNames, "alt", "alt_name");
+        doc.copyName(fNames, "int", "int_name");
+        doc.copyName(fNames, "loc", "loc_name");
+        doc.copyName(fNames, "old", "old_name");
+        doc.copyName(fNames, "reg", "reg_name");
+        doc.copyName(fNames, "housename", "addr:housename");
+
+        writeMap(gen, fNames, "name");
+    }
+
+    private void writeContext(JsonGenerator gen, Set<Map<String, String>> contexts) throws IOException {
+        // Sorted, so that the order of the contexts does not change the content hash.
+        final Set<String> names = new TreeSet<>();
+
+        for (Map<String, String> context : contexts) {
+            if (context.get("name") != null) {
+                names.add(context.get("name"));
+            }
+
+            for (String language : languages) {
+                if (context.get("name:" + language) != null) {
+                    names.add(context.get("name:" + language));
+                }
+            }
+        }
+
+        if (!names.isEmpty()) {
+            gen.writeObjectFieldStart("context");
+            gen.writeStringField("default", String.join(", ", names));
+            gen.writeEndObject();
+        }
+    }
+
+    private void writeExtraTags(JsonGenerator gen, Map<String, String> docTags) throws IOException {
+        if (allExtraTags) {
+            writeNonNullEntries(gen, docTags, "extra");
+        } else {
+            boolean started = false;
+            for (String tag : extraTags) {
+                String value = docTags.get(tag);
+                if (value != null) {
+                    if (!started) {
+                        gen.writeObjectFieldStart("extra");
+                        started = true;
+                    }
+                    gen.writeStringField(tag, value);
+                }
+            }
+            if (started) {
+                gen.writeEndObject();
+            }
+        }
+    }
+
+    private void writeExtraNames(JsonGenerator gen, Map<String, String> docNames) throws IOException {
+        if (includeExtraNames) {
+            writeNonNullEntries(gen, docNames, "names");
+        }
+    }
+
+    private static void writeExtent(JsonGenerator gen, PhotonDoc doc) throws IOException {
+        if (!doc.hasBbox()) return;
+
+        if ((doc.getBboxMaxX() - doc.getBboxMinX()) * (doc.getBboxMaxY() - doc.getBboxMinY()) == 0.) return;
+
+        // http://www.elasticsearch.org/guide/en/elasticsearch/reference/current/mapping-geo-shape-type.html#_envelope
+        gen.writeObjectFieldStart("extent");
+        gen.writeStringField("type", "envelope");
+        gen.writeArrayFieldStart("coordinates");
+        gen.writeStartArray();
+        gen.writeNumber(doc.getBboxMinX());
+        gen.writeNumber(doc.getBboxMaxY());
+        gen.writeEndArray();
+        gen.writeStartArray();
+        gen.writeNumber(doc.getBboxMaxX());
+        gen.writeNumber(doc.getBboxMinY());
+        gen.writeEndArray();
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    private static void writeMap(JsonGenerator gen, Map<String, String> fNames, String name) throws IOException {
+        if (fNames.isEmpty()) return;
+
+        gen.writeObjectFieldStart(name);
+        for (Map.Entry<String, String> entry : fNames.entrySet()) {
+            gen.writeStringField(entry.getKey(), entry.getValue());
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Write the entries with a value, sorted by key. The import and the updater
+     * read the same tags in different orders, which must not change the content hash.
+     */
+    private static void writeNonNullEntries(JsonGenerator gen, Map<String, String> map, String name) throws IOException {
+        final List<String> keys = new ArrayList<>(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (entry.getValue() != null) {
+                keys.add(entry.getKey());
+            }
+        }
+        if (keys.isEmpty()) return;
+
+        Collections.sort(keys);
+        gen.writeObjectFieldStart(name);
+        for (String key : keys) {
+            gen.writeStringField(key, map.get(key));
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Computes a 64-bit FNV-1a hash over everything written to it.
+     */
+    private static class HashingOutputStream extends FilterOutputStream {
+        private long hash = 0xcbf29ce484222325L;
+
+        HashingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long h = hash;
+            for (int i = off; i < off + len; ++i) {
+                h = (h ^ (b[i] & 0xff)) * 0x100000001b3L;
+            }
+            hash = h;
+            out.write(b, off, len);
+        }
+
+        String getHash() {
+            final String hex = Long.toHexString(hash);
+            return "0000000000000000".substring(hex.length()) + hex;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package de.komoot.photon;
+
+import java.util.Objects;
+
+/**
+ * A range of geometry sectors of the Nominatim database, or the rows without a sector.
+ *
+ * Ranges are part of the import checkpoint, so they only consist of numbers.
+ * The SQL condition is always built from these numbers.
+ */
+public final class SectorRange {
+    private static final String NULL_SECTOR_NAME = "null";
+
+    // Both null for the rows without a sector.
+    private final Long start;
+    private final Long end;
+
+    private SectorRange(Long start, Long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Range of the sectors from start to end, both included.
+     */
+    public static SectorRange between(long start, long end) {
+        if (start > end) {
+            throw new IllegalArgumentException(String.format("Invalid sector range %d to %d.", start, end));
+        }
+        return new SectorRange(start, end);
+    }
+
+    /**
+     * Range of the rows without a geometry sector.
+     */
+    public static SectorRange nullSector() {
+        return new SectorRange(null, null);
+    }
+
+    public boolean isNullSector() {
+        return start == null;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * SQL condition selecting the rows of the range.
+     */
+    public String toSql() {
+        return isNullSector() ? "geometry_sector IS NULL"
+                : String.format("geometry_sector BETWEEN %d AND %d", start, end);
+    }
+
+    /**
+     * Short name of the range, used for the tasks of the import checkpoint.
+     */
+    public String getName() {
+        return isNullSector() ? NULL_SECTOR_NAME : start + "-" + end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SectorRange other = (SectorRange) o;
+        return Objects.equals(start, other.start) && Objects.equals(end, other.end);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
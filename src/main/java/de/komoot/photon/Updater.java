@@ -6,7 +6,19 @@ package de.komoot.photon;
 public interface Updater {
     public void create(PhotonDoc doc);
 
+    /**
+     * Delete all documents of the place with the given place id.
+     */
     public void delete(Long id);
 
+    /**
+     * Write all changes made so far by the calling thread and wait until the index has processed them.
+     *
+     * May be called from several threads at the same time.
+     *
+     * @return True, if all changes of the calling thread since its last flush were applied successfully.
+     */
+    public boolean flush();
+
     public void finish();
 }
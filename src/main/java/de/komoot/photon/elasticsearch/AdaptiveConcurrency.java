@@ -0,0 +1,82 @@
+package de.komoot.photon.elasticsearch;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limits the number of bulk requests in flight and adapts the limit to the
+ * load of the cluster.
+ *
+ * The limit is halved when the cluster rejects requests because its write queue
+ * is full. It is lowered by one when requests take much longer than the fastest
+ * request seen so far and is raised by one after a full round of fast requests.
+ */
+@Slf4j
+class AdaptiveConcurrency {
+    /**
+     * Requests slower than this factor times the fastest request count as slow.
+     */
+    private static final int LATENCY_TOLERANCE = 3;
+
+    private final int maxLimit;
+    private int limit;
+    private int inFlight = 0;
+    private int fastInARow = 0;
+    private long minLatencyMillis = Long.MAX_VALUE;
+
+    AdaptiveConcurrency(int maxLimit) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("Number of concurrent requests must be at least 1.");
+        }
+        this.maxLimit = maxLimit;
+        this.limit = Math.min(maxLimit, 4);
+    }
+
+    /**
+     * Block until the number of requests in flight is below the limit.
+     */
+    synchronized void awaitCapacity() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+    }
+
+    synchronized void requestStarted() {
+        ++inFlight;
+    }
+
+    /**
+     * Record the outcome of a finished request and adapt the limit.
+     *
+     * @param latencyMillis Time the request took.
+     * @param rejected      True, when the cluster rejected some or all documents because it is overloaded.
+     */
+    synchronized void requestFinished(long latencyMillis, boolean rejected) {
+        --inFlight;
+
+        final int oldLimit = limit;
+        if (rejected) {
+            limit = Math.max(1, limit / 2);
+            fastInARow = 0;
+        } else {
+            minLatencyMillis = Math.min(minLatencyMillis, latencyMillis);
+            if (latencyMillis > LATENCY_TOLERANCE * Math.max(1, minLatencyMillis)) {
+                limit = Math.max(1, limit - 1);
+                fastInARow = 0;
+            } else if (++fastInARow >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+                fastInARow = 0;
+            }
+        }
+
+        if (limit != oldLimit) {
+            log.debug(String.format("Concurrent bulk requests changed from %d to %d (latency %d ms, rejected: %b)",
+                    oldLimit, limit, latencyMillis, rejected));
+        }
+
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+}
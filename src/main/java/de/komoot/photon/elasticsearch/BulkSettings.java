@@ -0,0 +1,92 @@
+package de.komoot.photon.elasticsearch;
+
+/**
+ * Tuning parameters for sending documents to Elasticsearch in bulk requests.
+ */
+public class BulkSettings {
+    public static final int DEFAULT_MAX_OPERATIONS = 10000;
+    public static final int DEFAULT_MAX_SIZE_MB = 10;
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 32;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+
+    private int maxOperations = DEFAULT_MAX_OPERATIONS;
+    private long maxSizeBytes = DEFAULT_MAX_SIZE_MB * 1024L * 1024L;
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long initialRetryDelayMillis = 1000;
+    private String deadLetterFile = null;
+
+    /**
+     * Maximum number of documents in a single bulk request.
+     */
+    public int getMaxOperations() {
+        return maxOperations;
+    }
+
+    public BulkSettings setMaxOperations(int maxOperations) {
+        this.maxOperations = maxOperations;
+        return this;
+    }
+
+    /**
+     * Maximum size of a single bulk request in bytes.
+     */
+    public long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    public BulkSettings setMaxSizeBytes(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+        return this;
+    }
+
+    /**
+     * Upper bound for the number of bulk requests sent in parallel.
+     * The actual number adapts to the load of the cluster.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public BulkSettings setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    /**
+     * Number of times a document is sent again after a temporary failure.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public BulkSettings setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Time to wait before the first retry. Doubles with every further retry.
+     */
+    public long getInitialRetryDelayMillis() {
+        return initialRetryDelayMillis;
+    }
+
+    public BulkSettings setInitialRetryDelayMillis(long initialRetryDelayMillis) {
+        this.initialRetryDelayMillis = initialRetryDelayMillis;
+        return this;
+    }
+
+    /**
+     * File to write documents to that could not be imported, in the format of
+     * a json dump. May be null, then failed documents are only logged.
+     */
+    public String getDeadLetterFile() {
+        return deadLetterFile;
+    }
+
+    public BulkSettings setDeadLetterFile(String deadLetterFile) {
+        this.deadLetterFile = deadLetterFile;
+        return this;
+    }
+}
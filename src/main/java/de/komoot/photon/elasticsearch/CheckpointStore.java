@@ -0,0 +1,113 @@
+package de.komoot.photon.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.komoot.photon.ImportCheckpoint;
+import de.komoot.photon.SectorRange;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the import checkpoint in a special document of the photon index,
+ * next to the database properties.
+ */
+public class CheckpointStore implements de.komoot.photon.CheckpointStore {
+    private static final String CHECKPOINT_DOCUMENT_ID = "IMPORT_CHECKPOINT";
+    private static final String BASE_FIELD = "import_checkpoint";
+    private static final String FIELD_COUNTRY_CODES = "country_codes";
+    private static final String FIELD_SECTOR_RANGES = "sector_ranges";
+    private static final String FIELD_COMPLETED = "completed";
+    private static final String FIELD_UPDATED = "updated";
+    private static final String FIELD_START = "start";
+    private static final String FIELD_END = "end";
+    private static final String FIELD_NULL_SECTOR = "null_sector";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ElasticsearchClient client;
+
+    public CheckpointStore(ElasticsearchClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public ImportCheckpoint load() throws IOException {
+        GetResponse<ObjectNode> response = client.get(fn -> fn.index(PhotonIndex.NAME).id(CHECKPOINT_DOCUMENT_ID), ObjectNode.class);
+
+        if (!response.found()) {
+            return null;
+        }
+
+        ObjectNode source = response.source();
+
+        if (source == null || !source.hasNonNull(BASE_FIELD)) {
+            throw new RuntimeException("Found import checkpoint but no '" + BASE_FIELD + "' field. Database corrupt?");
+        }
+
+        JsonNode properties = source.get(BASE_FIELD);
+
+        ImportCheckpoint checkpoint = new ImportCheckpoint()
+                .setCountryCodes(properties.path(FIELD_COUNTRY_CODES).asText())
+                .setSectorRanges(toSectorRanges(properties.path(FIELD_SECTOR_RANGES)));
+        checkpoint.markCompleted(toList(properties.path(FIELD_COMPLETED)));
+
+        return checkpoint;
+    }
+
+    @Override
+    public void save(ImportCheckpoint checkpoint) throws IOException {
+        ObjectNode properties = objectMapper.createObjectNode()
+                .put(FIELD_COUNTRY_CODES, checkpoint.getCountryCodes())
+                .put(FIELD_UPDATED, System.currentTimeMillis());
+        ArrayNode ranges = properties.putArray(FIELD_SECTOR_RANGES);
+        for (SectorRange range : checkpoint.getSectorRanges()) {
+            ObjectNode entry = ranges.addObject();
+            if (range.isNullSector()) {
+                entry.put(FIELD_NULL_SECTOR, true);
+            } else {
+                entry.put(FIELD_START, range.getStart()).put(FIELD_END, range.getEnd());
+            }
+        }
+        ArrayNode completed = properties.putArray(FIELD_COMPLETED);
+        checkpoint.getCompleted().stream().sorted().forEach(completed::add);
+
+        ObjectNode document = objectMapper.createObjectNode();
+        document.set(BASE_FIELD, properties);
+
+        client.index(fn -> fn.index(PhotonIndex.NAME).id(CHECKPOINT_DOCUMENT_ID).document(document));
+    }
+
+    @Override
+    public void clear() throws IOException {
+        client.delete(fn -> fn.index(PhotonIndex.NAME).id(CHECKPOINT_DOCUMENT_ID));
+    }
+
+    private static List<SectorRange> toSectorRanges(JsonNode array) throws IOException {
+        List<SectorRange> list = new ArrayList<>();
+        for (JsonNode entry : array) {
+            if (entry.path(FIELD_NULL_SECTOR).asBoolean(false)) {
+                list.add(SectorRange.nullSector());
+            } else if (entry.path(FIELD_START).isIntegralNumber() && entry.path(FIELD_END).isIntegralNumber()
+                    && entry.get(FIELD_START).asLong() <= entry.get(FIELD_END).asLong()) {
+                list.add(SectorRange.between(entry.get(FIELD_START).asLong(), entry.get(FIELD_END).asLong()));
+            } else {
+                throw new IOException("Invalid sector range in import checkpoint: " + entry
+                        + ". Restart the import without -continue-import.");
+            }
+        }
+        return list;
+    }
+
+    private static List<String> toList(JsonNode array) {
+        List<String> list = new ArrayList<>();
+        for (JsonNode entry : array) {
+            list.add(entry.asText());
+        }
+        return list;
+    }
+}
@@ -7,6 +7,7 @@ import co.elastic.clients.elasticsearch.core.GetResponse;
 import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
 import co.elastic.clients.elasticsearch.indices.PutIndicesSettingsRequest;
 import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
 import co.elastic.clients.json.JsonpMapper;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.ElasticsearchTransport;
@@ -39,7 +40,7 @@ public class ElasticsearchServer {
     private JsonpMapper jsonpMapper = new JacksonJsonpMapper();
     public ElasticsearchClient esClient;
 
-    private final String DATABASE_VERSION = "0.3.7";
+    private final String DATABASE_VERSION = "0.3.8";
     private final String PROPERTY_DOCUMENT_ID = "DATABASE_PROPERTIES";
     private final String BASE_FIELD = "document_properties";
     private final String FIELD_VERSION = "database_version";
@@ -121,6 +122,57 @@ public class ElasticsearchServer {
         return this;
     }
 
+    /**
+     * Change settings that can be updated while the index is open,
+     * like the refresh interval or the number of replicas.
+     */
+    public ElasticsearchServer updateDynamicSettings(ObjectNode settings) throws IOException {
+        PutIndicesSettingsRequest request = new PutIndicesSettingsRequest.Builder()
+                .index(PhotonIndex.NAME)
+                .withJson(new StringReader(settings.toString()))
+                .build();
+
+        esClient.indices().putSettings(request);
+
+        return this;
+    }
+
+    /**
+     * Merge the segments of the index down to the given number and wait for the merge to finish.
+     *
+     * The merge runs as a background task on the cluster, so that it is not
+     * interrupted by request timeouts.
+     */
+    public ElasticsearchServer forceMerge(int maxSegments) throws IOException {
+        log.info(String.format("Merging index down to %d segments. This may take a while.", maxSegments));
+        final long startMillis = System.currentTimeMillis();
+
+        final String taskId = esClient.indices().forcemerge(fn -> fn
+                .index(PhotonIndex.NAME)
+                .maxNumSegments((long) maxSegments)
+                .waitForCompletion(false)
+        ).task();
+
+        if (taskId != null) {
+            while (true) {
+                GetTasksResponse task = esClient.tasks().get(fn -> fn
+                        .taskId(taskId)
+                        .waitForCompletion(true)
+                        .timeout(t -> t.time("10m")));
+                if (task.completed()) {
+                    if (task.error() != null) {
+                        log.error("Force merge failed: " + task.error().reason());
+                    }
+                    break;
+                }
+                log.info(String.format("Still merging index after %d minutes.", (System.currentTimeMillis() - startMillis) / 60000));
+            }
+        }
+
+        log.info(String.format("Merge finished after %d seconds.", (System.currentTimeMillis() - startMillis) / 1000));
+        return this;
+    }
+
     public ElasticsearchServer deleteIndex() throws IOException {
         try {
             esClient.indices().delete(fn -> fn.index(PhotonIndex.NAME));
@@ -137,7 +189,7 @@ public class ElasticsearchServer {
     }
 
     public ElasticsearchServer saveDbProperties(DatabaseProperties dbProperties) throws IOException {
-        final String DATABASE_VERSION = "0.3.7";
+        final String DATABASE_VERSION = "0.3.8";
         final String PROPERTY_DOCUMENT_ID = "DATABASE_PROPERTIES";
         final String BASE_FIELD = "document_properties";
         final String FIELD_VERSION = "database_version";
@@ -182,7 +234,8 @@ public class ElasticsearchServer {
         String version = properties.hasNonNull(FIELD_VERSION) ? properties.get(FIELD_VERSION).asText() : "";
 
         if (!DATABASE_VERSION.equals(version)) {
-            log.error("Database has incompatible version '" + version + "'. Expected: " + DATABASE_VERSION);
+            log.error("Database has incompatible version '" + version + "'. Expected: " + DATABASE_VERSION
+                    + ". The data needs to be imported again with this version of photon.");
             throw new RuntimeException("Incompatible database.");
         }
 
@@ -200,10 +253,19 @@ public class ElasticsearchServer {
         return new de.komoot.photon.elasticsearch.Importer(esClient, languages, extraTags, allExtraTags, includeExtraNames);
     }
 
+    public de.komoot.photon.Importer createImporter(String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames,
+                                                    BulkSettings bulkSettings) {
+        return new de.komoot.photon.elasticsearch.Importer(esClient, languages, extraTags, allExtraTags, includeExtraNames, bulkSettings);
+    }
+
     public de.komoot.photon.Updater createUpdater(String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) {
         return new de.komoot.photon.elasticsearch.Updater(esClient, languages, extraTags, allExtraTags, includeExtraNames);
     }
 
+    public de.komoot.photon.CheckpointStore createCheckpointStore() {
+        return new de.komoot.photon.elasticsearch.CheckpointStore(esClient);
+    }
+
     public SearchHandler createSearchHandler(String[] languages) {
         return new ElasticsearchSearchHandler(esClient, languages);
     }
@@ -3,87 +3,332 @@ package de.komoot.photon.elasticsearch;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
 import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
-import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch.core.BulkRequest;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.util.BinaryData;
+import co.elastic.clients.util.ContentType;
+import de.komoot.photon.ImportMetrics;
+import de.komoot.photon.JsonDumper;
 import de.komoot.photon.PhotonDoc;
-import de.komoot.photon.Utils;
+import de.komoot.photon.PhotonDocSerializer;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * elasticsearch importer
  *
+ * Documents rejected by the cluster because of overload or temporary errors
+ * are sent again with exponential backoff. Documents that fail for good are
+ * written to the dead-letter file, if one is configured.
+ *
  * @author felix
  */
 @Slf4j
 public class Importer implements de.komoot.photon.Importer {
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
     private int documentCount = 0;
-    private final BulkIngester<String> ingester;
-    private final String[] languages;
-    private final String[] extraTags;
-    private final boolean allExtraTags;
-    private final boolean includeExtraNames;
+    private final BulkIngester<BulkDocument> ingester;
+    private final PhotonDocSerializer serializer;
+    private final BulkSettings settings;
+    private final AdaptiveConcurrency concurrency;
+    private final ScheduledExecutorService retryScheduler;
+    private final Map<Long, Long> requestStartMillis = new ConcurrentHashMap<>();
+    private final JsonDumper deadLetters;
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private ImportMetrics metrics = new ImportMetrics();
+
+    // Number of documents handed to the ingester and number of documents
+    // that were either imported or given up on.
+    private final AtomicLong addedCount = new AtomicLong();
+    private final Object progressLock = new Object();
+    private long finishedCount = 0;
+
+    /**
+     * A document in a bulk request, kept so that it can be sent again.
+     */
+    private static class BulkDocument {
+        final String id;
+        final byte[] json;
+        final int attempt;
+
+        BulkDocument(String id, byte[] json, int attempt) {
+            this.id = id;
+            this.json = json;
+            this.attempt = attempt;
+        }
+    }
 
     public Importer(ElasticsearchClient client, String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) {
-        this.languages = languages;
-        this.extraTags = extraTags;
-        this.allExtraTags = allExtraTags;
-        this.includeExtraNames = includeExtraNames;
+        this(client, languages, extraTags, allExtraTags, includeExtraNames, new BulkSettings());
+    }
+
+    public Importer(ElasticsearchClient client, String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames,
+                    BulkSettings settings) {
+        this.serializer = new PhotonDocSerializer(languages, extraTags, allExtraTags, includeExtraNames);
+        this.settings = settings;
+        this.concurrency = new AdaptiveConcurrency(settings.getMaxConcurrentRequests());
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "photon-bulk-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        BulkListener<String> listener = new BulkListener<>() {
+        if (settings.getDeadLetterFile() == null) {
+            this.deadLetters = null;
+        } else {
+            try {
+                this.deadLetters = new JsonDumper(settings.getDeadLetterFile(), languages, extraTags, allExtraTags, includeExtraNames);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create dead-letter file", e);
+            }
+        }
+
+        BulkListener<BulkDocument> listener = new BulkListener<>() {
             @Override
-            public void beforeBulk(long executionId, BulkRequest request, List<String> contexts) {}
+            public void beforeBulk(long executionId, BulkRequest request, List<BulkDocument> contexts) {
+                requestStartMillis.put(executionId, System.currentTimeMillis());
+                concurrency.requestStarted();
+            }
 
             @Override
-            public void afterBulk(long executionId, BulkRequest request, List<String> contexts, BulkResponse response) {
+            public void afterBulk(long executionId, BulkRequest request, List<BulkDocument> contexts, BulkResponse response) {
+                final long latency = requestLatency(executionId);
                 documentCount += contexts.size();
-                if (response.errors()) {
-                    List<ErrorCause> errors = response
-                            .items()
-                            .stream()
-                            .map(BulkResponseItem::error)
-                            .filter(Objects::nonNull)
-                            .toList();
-                    for (ErrorCause error : errors) {
-                        log.error(String.format("Error during bulk ingest: %s", error.reason()));
-                    }
-                } else {
+                metrics.bulkRequest(contexts.size(), payloadSize(contexts), latency);
+
+                if (!response.errors()) {
+                    concurrency.requestFinished(latency, false);
+                    bulkFinished(contexts.size());
                     log.debug(String.format("Successfully ingested %s documents", documentCount));
+                    return;
+                }
+
+                boolean rejected = false;
+                int done = 0;
+                List<BulkDocument> retries = new ArrayList<>();
+                List<BulkResponseItem> items = response.items();
+                for (int i = 0; i < items.size(); ++i) {
+                    final BulkResponseItem item = items.get(i);
+                    if (item.error() == null) {
+                        ++done;
+                    } else {
+                        rejected |= isOverloaded(item.status());
+                        final BulkDocument doc = contexts.get(i);
+                        if (isTemporary(item.status()) && doc.attempt < settings.getMaxRetries()) {
+                            retries.add(doc);
+                        } else {
+                            giveUp(doc, item.error().reason());
+                            ++done;
+                        }
+                    }
                 }
+
+                concurrency.requestFinished(latency, rejected);
+                scheduleRetries(retries);
+                bulkFinished(done);
             }
 
             @Override
-            public void afterBulk(long executionId, BulkRequest request, List<String> contexts, Throwable failure) {
-                log.error(String.format("Bulk request with executionId %s failed", executionId), failure);
+            public void afterBulk(long executionId, BulkRequest request, List<BulkDocument> contexts, Throwable failure) {
+                final long latency = requestLatency(executionId);
+                metrics.bulkRequest(contexts.size(), payloadSize(contexts), latency);
+                log.warn(String.format("Bulk request with executionId %s failed", executionId), failure);
+
+                final boolean rejected = failure instanceof ElasticsearchException
+                        && isOverloaded(((ElasticsearchException) failure).status());
+
+                int done = 0;
+                List<BulkDocument> retries = new ArrayList<>();
+                for (BulkDocument doc : contexts) {
+                    if (doc.attempt < settings.getMaxRetries()) {
+                        retries.add(doc);
+                    } else {
+                        giveUp(doc, failure.getMessage());
+                        ++done;
+                    }
+                }
+
+                concurrency.requestFinished(latency, rejected);
+                scheduleRetries(retries);
+                bulkFinished(done);
             }
         };
 
-        this.ingester = new BulkIngester.Builder<String>()
+        this.ingester = new BulkIngester.Builder<BulkDocument>()
                 .client(client)
-                .maxOperations(10000)
-                .maxConcurrentRequests(32)
+                .maxOperations(settings.getMaxOperations())
+                .maxSize(settings.getMaxSizeBytes())
+                .maxConcurrentRequests(settings.getMaxConcurrentRequests())
                 .listener(listener)
                 .build();
     }
 
+    @Override
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public void add(PhotonDoc doc) {
-        this.ingester.add(op -> op
+        final long start = System.nanoTime();
+        final byte[] json = serializer.serialize(doc);
+        metrics.documentConverted(System.nanoTime() - start);
+        send(doc.getUid(), json);
+    }
+
+    @Override
+    public void addSerialized(String id, byte[] json) {
+        send(id, json);
+    }
+
+    private void send(String id, byte[] json) {
+        awaitCapacity();
+        addedCount.incrementAndGet();
+        this.ingester.add(indexOperation(id, json), new BulkDocument(id, json, 0));
+    }
+
+    /**
+     * Wait until the cluster can take another bulk request. New documents and
+     * retries both go through here, so retries cannot overload a cluster that
+     * just rejected requests.
+     */
+    private void awaitCapacity() {
+        try {
+            concurrency.awaitCapacity();
+        } catch (InterruptedException e) {
+            log.warn("Thread interrupted while waiting for bulk requests.");
+            // Restore interrupted state.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static BulkOperation indexOperation(String id, byte[] json) {
+        return BulkOperation.of(op -> op
                 .index(idx -> idx
                         .index(PhotonIndex.NAME)
-                        .document(Utils.convert(doc, languages, extraTags, allExtraTags, includeExtraNames))
-                        .id(doc.getUid())
+                        .document(BinaryData.of(json, ContentType.APPLICATION_JSON))
+                        .id(id)
                 )
         );
     }
 
+    /**
+     * Too many requests: the write queue of the cluster is full.
+     */
+    private static boolean isOverloaded(int status) {
+        return status == 429;
+    }
+
+    private static boolean isTemporary(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    private static long payloadSize(List<BulkDocument> contexts) {
+        long bytes = 0;
+        for (BulkDocument doc : contexts) {
+            bytes += doc.json.length;
+        }
+        return bytes;
+    }
+
+    private long requestLatency(long executionId) {
+        final Long start = requestStartMillis.remove(executionId);
+        return start == null ? 0 : System.currentTimeMillis() - start;
+    }
+
+    private void scheduleRetries(List<BulkDocument> retries) {
+        if (retries.isEmpty()) {
+            return;
+        }
+
+        int attempt = 0;
+        for (BulkDocument doc : retries) {
+            attempt = Math.max(attempt, doc.attempt);
+        }
+        final long delay = Math.min(MAX_RETRY_DELAY_MILLIS, settings.getInitialRetryDelayMillis() << Math.min(attempt, 20));
+
+        retriedCount.addAndGet(retries.size());
+        metrics.documentsRetried(retries.size());
+        log.warn(String.format("Sending %d documents again in %d ms (attempt %d of %d, %d concurrent requests).",
+                retries.size(), delay, attempt + 1, settings.getMaxRetries(), concurrency.getLimit()));
+
+        retryScheduler.schedule(() -> {
+            for (BulkDocument doc : retries) {
+                awaitCapacity();
+                ingester.add(indexOperation(doc.id, doc.json), new BulkDocument(doc.id, doc.json, doc.attempt + 1));
+            }
+            ingester.flush();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void giveUp(BulkDocument doc, String reason) {
+        failedCount.incrementAndGet();
+        metrics.documentFailed();
+        log.error(String.format("Error during bulk ingest of document %s: %s", doc.id, reason));
+        if (deadLetters != null) {
+            deadLetters.addSerialized(doc.id, doc.json);
+        }
+    }
+
+    @Override
+    public void flush() {
+        this.ingester.flush();
+
+        synchronized (progressLock) {
+            while (finishedCount < addedCount.get()) {
+                try {
+                    progressLock.wait();
+                } catch (InterruptedException e) {
+                    log.warn("Thread interrupted while waiting for bulk requests.");
+                    // Restore interrupted state.
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void bulkFinished(int numDocuments) {
+        synchronized (progressLock) {
+            finishedCount += numDocuments;
+            progressLock.notifyAll();
+        }
+    }
+
     @Override
     public void finish() {
+        // Wait for outstanding retries before closing the ingester.
+        flush();
         this.ingester.close();
+        this.retryScheduler.shutdown();
+
+        if (deadLetters != null) {
+            deadLetters.finish();
+        }
+
+        if (failedCount.get() > 0) {
+            log.error(String.format("%d documents could not be imported%s.", failedCount.get(),
+                    deadLetters == null ? "" : " and were written to " + settings.getDeadLetterFile()));
+        }
+        if (retriedCount.get() > 0) {
+            log.info(String.format("%d documents had to be sent more than once.", retriedCount.get()));
+        }
+
         this.documentCount = 0;
     }
 
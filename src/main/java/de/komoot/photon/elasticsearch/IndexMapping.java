@@ -73,7 +73,7 @@ public class IndexMapping {
                 .putPOJO("osm_type", basicTextField)
                 .putPOJO("osm_value", basicKeywordField)
                 .putPOJO("type", basicKeywordField)
-                .putPOJO("place_id", basicTextField)
+                .putPOJO("place_id", basicKeywordField)
                 .putPOJO("parent_place_id", basicTextField)
                 .putPOJO("coordinate", coordinate)
                 .putPOJO("importance", importance)
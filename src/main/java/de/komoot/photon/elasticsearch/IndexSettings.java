@@ -17,6 +17,7 @@ import java.util.*;
  */
 public class IndexSettings {
     private static final ObjectMapper objMapper = new ObjectMapper();
+    private static final int NUMBER_OF_REPLICAS = 1;
 
     /**
      * Build index settings
@@ -55,7 +56,45 @@ public class IndexSettings {
                     .putPOJO("filter", buildFilter(synonyms, classSynonyms))
                 )
                 .put("number_of_shards", numShards)
-                .put("number_of_replicas", 1);
+                .put("number_of_replicas", NUMBER_OF_REPLICAS);
+    }
+
+    /**
+     * Build the dynamic settings for loading large amounts of data.
+     *
+     * Refreshes are switched off and no replicas are kept, so that every document
+     * is only indexed once. Optionally, the translog is written asynchronously,
+     * which is faster but loses the last seconds of data on a crash.
+     *
+     * @param asyncTranslog When true, do not sync the translog on every request.
+     *
+     * @return Index settings as an ObjectNode
+     */
+    public static ObjectNode buildBulkLoadSettings(boolean asyncTranslog) {
+        ObjectNode settings = objMapper.createObjectNode()
+                .put("refresh_interval", "-1")
+                .put("number_of_replicas", 0);
+
+        if (asyncTranslog) {
+            settings.putPOJO("translog", objMapper.createObjectNode().put("durability", "async"));
+        }
+
+        return settings;
+    }
+
+    /**
+     * Build the dynamic settings for serving search requests. Reverts the
+     * changes made by {@link #buildBulkLoadSettings}.
+     *
+     * @return Index settings as an ObjectNode
+     */
+    public static ObjectNode buildServingSettings() {
+        ObjectNode settings = objMapper.createObjectNode()
+                .putNull("refresh_interval")
+                .put("number_of_replicas", NUMBER_OF_REPLICAS);
+        settings.putPOJO("translog", objMapper.createObjectNode().putNull("durability"));
+
+        return settings;
     }
 
     private static ObjectNode buildAnalyzer(ArrayNode synonyms, ArrayNode classSynonyms) {
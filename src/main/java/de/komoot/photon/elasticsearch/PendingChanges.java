@@ -0,0 +1,129 @@
+package de.komoot.photon.elasticsearch;
+
+import de.komoot.photon.PhotonDocSerializer;
+
+import java.util.*;
+
+/**
+ * Changes of one thread that have not been handed to the ingester yet.
+ *
+ * Documents are kept by their uid. Places whose documents are to be
+ * deleted are kept by their place id. A place that is deleted and then
+ * created again loses only the documents that are not created again.
+ */
+class PendingChanges {
+    private final Map<String, byte[]> documents = new LinkedHashMap<>();
+    private final Map<Long, List<String>> placeDocuments = new HashMap<>();
+    private final Set<Long> deletedPlaces = new LinkedHashSet<>();
+    // Places with documents handed to the ingester that are not known to be written yet.
+    private final Set<Long> sentPlaces = new HashSet<>();
+    // A delete request failed since the last flush.
+    private boolean failed = false;
+
+    void create(long placeId, String uid, byte[] json) {
+        if (documents.put(uid, json) == null) {
+            placeDocuments.computeIfAbsent(placeId, k -> new ArrayList<>()).add(uid);
+        }
+    }
+
+    /**
+     * Drop the pending documents of the place and remember to delete the ones in the index.
+     */
+    void delete(long placeId) {
+        final List<String> uids = placeDocuments.remove(placeId);
+        if (uids != null) {
+            documents.keySet().removeAll(uids);
+        }
+        deletedPlaces.add(placeId);
+    }
+
+    int size() {
+        return documents.size();
+    }
+
+    Set<String> getUids() {
+        return documents.keySet();
+    }
+
+    /**
+     * Get the places to delete and forget about them.
+     */
+    List<Long> takeDeletedPlaces() {
+        final List<Long> placeIds = new ArrayList<>(deletedPlaces);
+        deletedPlaces.clear();
+        return placeIds;
+    }
+
+    /**
+     * Uids of the documents that are created again for a deleted place and must be kept.
+     */
+    List<String> getCreatedDocuments(long placeId) {
+        return placeDocuments.getOrDefault(placeId, Collections.emptyList());
+    }
+
+    /**
+     * Get the documents whose content hash differs from the one in the index
+     * and forget about all pending documents. The places of the returned
+     * documents count as sent.
+     *
+     * @param indexedHashes Content hashes of the documents in the index by uid.
+     */
+    Map<String, byte[]> takeChangedDocuments(Map<String, String> indexedHashes) {
+        final Map<String, byte[]> changed = new LinkedHashMap<>();
+        for (Map.Entry<Long, List<String>> place : placeDocuments.entrySet()) {
+            for (String uid : place.getValue()) {
+                final byte[] json = documents.get(uid);
+                final String hash = PhotonDocSerializer.getContentHash(json);
+                if (hash == null || !hash.equals(indexedHashes.get(uid))) {
+                    changed.put(uid, json);
+                    sentPlaces.add(place.getKey());
+                }
+            }
+        }
+
+        documents.clear();
+        placeDocuments.clear();
+        return changed;
+    }
+
+    /**
+     * Check if documents of one of the given places have been sent, but are not known to be written yet.
+     */
+    boolean hasSent(Collection<Long> placeIds) {
+        if (sentPlaces.isEmpty()) {
+            return false;
+        }
+        for (Long placeId : placeIds) {
+            if (sentPlaces.contains(placeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasSent() {
+        return !sentPlaces.isEmpty();
+    }
+
+    /**
+     * Get the places with sent documents and forget about them, once the documents are written.
+     */
+    Set<Long> takeSentPlaces() {
+        final Set<Long> placeIds = new HashSet<>(sentPlaces);
+        sentPlaces.clear();
+        return placeIds;
+    }
+
+    void setFailed() {
+        failed = true;
+    }
+
+    /**
+     * Check if a delete request failed since the last call.
+     */
+    boolean takeFailed() {
+        final boolean result = failed;
+        failed = false;
+        return result;
+    }
+}
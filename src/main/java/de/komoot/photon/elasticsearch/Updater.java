@@ -2,71 +2,330 @@ package de.komoot.photon.elasticsearch;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryResponse;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.util.BinaryData;
+import co.elastic.clients.util.ContentType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.komoot.photon.Constants;
 import de.komoot.photon.PhotonDoc;
-import de.komoot.photon.Utils;
+import de.komoot.photon.PhotonDocSerializer;
 import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Updater for elasticsearch
  *
+ * Changes are collected per thread until the next flush. Before writing,
+ * the content hashes of the new documents are compared with the ones in
+ * the index and documents that have not changed are skipped.
+ *
+ * Documents are indexed under their uid, so a place with house numbers has
+ * several documents. Deleting a place removes all of them.
+ *
  * @author felix
  */
 @Slf4j
 public class Updater implements de.komoot.photon.Updater {
+    private static final int MAX_PENDING_DOCUMENTS = 10000;
+    private static final int MGET_CHUNK_SIZE = 1000;
+    private static final int DELETE_CHUNK_SIZE = 1000;
+    // Documents written longer ago are searchable without an explicit refresh.
+    // Several times the default refresh interval of one second.
+    private static final long RECENT_WRITE_MILLIS = 5000;
+
+    private final ElasticsearchClient client;
     private final BulkIngester<Void> ingester;
-    private final String[] languages;
-    private final String[] extraTags;
-    private final boolean allExtraTags;
-    private final boolean includeExtraNames;
+    private final PhotonDocSerializer serializer;
+    private final AtomicLong unchangedCount = new AtomicLong();
+
+    private final ThreadLocal<PendingChanges> pendingChanges = ThreadLocal.withInitial(PendingChanges::new);
+    // Places by the time their documents were written, for the last RECENT_WRITE_MILLIS.
+    private final Map<Long, Long> recentlyWritten = new ConcurrentHashMap<>();
+
+    // Execution ids of the bulk requests that have been sent but not answered yet
+    // and of the requests that failed. Each thread remembers up to which request
+    // it has flushed, so that several threads can update at the same time.
+    private final Object progressLock = new Object();
+    private final TreeSet<Long> pendingRequests = new TreeSet<>();
+    private final TreeSet<Long> failedRequests = new TreeSet<>();
+    private long lastStartedRequest = 0;
+    private final ThreadLocal<Long> lastFlushedRequest = new ThreadLocal<>();
 
     public Updater(ElasticsearchClient client, String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) {
+        this.client = client;
+        this.serializer = new PhotonDocSerializer(languages, extraTags, allExtraTags, includeExtraNames);
+
+        BulkListener<Void> listener = new BulkListener<>() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request, List<Void> contexts) {
+                synchronized (progressLock) {
+                    pendingRequests.add(executionId);
+                    lastStartedRequest = Math.max(lastStartedRequest, executionId);
+                }
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, List<Void> contexts, BulkResponse response) {
+                boolean errors = false;
+                if (response.errors()) {
+                    for (BulkResponseItem item : response.items()) {
+                        if (item.error() != null) {
+                            log.error(String.format("Error during bulk update of document %s: %s", item.id(), item.error().reason()));
+                            errors = true;
+                        }
+                    }
+                }
+                requestFinished(executionId, errors);
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, List<Void> contexts, Throwable failure) {
+                log.error(String.format("Bulk update with executionId %s failed", executionId), failure);
+                requestFinished(executionId, true);
+            }
+        };
 
-        this.languages = languages;
-        this.extraTags = extraTags;
-        this.allExtraTags = allExtraTags;
-        this.includeExtraNames = includeExtraNames;
         this.ingester = new BulkIngester.Builder<Void>()
                 .client(client)
                 .flushInterval(1, TimeUnit.SECONDS)
                 .maxOperations(10000)
+                .listener(listener)
                 .build();
     }
 
     public void finish() {
-        this.updateDocuments();
+        if (!flush()) {
+            log.error("Not all changes could be written to the index.");
+        }
+        log.info(String.format("%d documents were unchanged and not written again.", unchangedCount.getAndSet(0)));
     }
 
     @Override
     public void create(PhotonDoc doc) {
-        this.ingester.add(
-                op -> op
-                        .index(v -> v
-                                .index(PhotonIndex.NAME)
-                                .document(Utils.convert(doc, languages, extraTags, allExtraTags, includeExtraNames))
-                                .id(String.valueOf(doc.getPlaceId()))
-                        )
-        );
-
-        // TODO reimplement error handling using listener
-        // log.error(String.format("creation of new doc [%s] failed", doc), e);
+        startTracking();
+        final PendingChanges pending = pendingChanges.get();
+        pending.create(doc.getPlaceId(), doc.getUid(), serializer.serialize(doc));
+        if (pending.size() >= MAX_PENDING_DOCUMENTS) {
+            sendPending(pending);
+        }
     }
 
-    public void delete(Long id) {
-        this.ingester.add(op -> op.delete(fn -> fn.index(PhotonIndex.NAME).id(String.valueOf(id))));
+    /**
+     * Delete all documents of the given place, including the ones for its house numbers.
+     */
+    public void delete(Long placeId) {
+        startTracking();
+        pendingChanges.get().delete(placeId);
     }
 
-    private void updateDocuments() {
-        if (this.ingester.pendingOperations() == 0) {
-            log.warn("Update empty");
+    /**
+     * Hand the pending changes of the calling thread to the ingester.
+     * Documents whose content hash is the same as in the index are skipped.
+     */
+    private void sendPending(PendingChanges pending) {
+        deletePlaces(pending);
+
+        final int size = pending.size();
+        final Map<String, byte[]> changed = pending.takeChangedDocuments(fetchContentHashes(pending.getUids()));
+        unchangedCount.addAndGet(size - changed.size());
+        for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+            final byte[] json = entry.getValue();
+            this.ingester.add(
+                    op -> op
+                            .index(v -> v
+                                    .index(PhotonIndex.NAME)
+                                    .document(BinaryData.of(json, ContentType.APPLICATION_JSON))
+                                    .id(entry.getKey())
+                            )
+            );
+        }
+    }
+
+    /**
+     * Remove the documents of all places deleted since the last flush with delete-by-query
+     * requests on the place_id. Documents that are about to be written again are kept, so
+     * that unchanged documents need not be written and only stale house numbers go away.
+     */
+    private void deletePlaces(PendingChanges pending) {
+        final List<Long> placeIds = pending.takeDeletedPlaces();
+        if (placeIds.isEmpty()) {
             return;
         }
+
+        // Delete-by-query only sees documents that have been written and refreshed.
+        // Documents of these places may still wait in the ingester or may have
+        // been written so recently that they are not searchable yet. Refreshing
+        // is only done then, so that updates do not force refreshes all the time.
+        if (pending.hasSent(placeIds) && !writeSent(pending)) {
+            pending.setFailed();
+        }
+        if (wasRecentlyWritten(placeIds)) {
+            final long refreshMillis = System.currentTimeMillis();
+            try {
+                client.indices().refresh(r -> r.index(PhotonIndex.NAME));
+                recentlyWritten.values().removeIf(written -> written < refreshMillis);
+            } catch (IOException | ElasticsearchException e) {
+                log.error("Cannot refresh the index before deleting documents.", e);
+                pending.setFailed();
+            }
+        }
+
+        for (int i = 0; i < placeIds.size(); i += DELETE_CHUNK_SIZE) {
+            final List<FieldValue> places = new ArrayList<>();
+            final List<String> keep = new ArrayList<>();
+            for (Long placeId : placeIds.subList(i, Math.min(placeIds.size(), i + DELETE_CHUNK_SIZE))) {
+                places.add(FieldValue.of(String.valueOf(placeId)));
+                keep.addAll(pending.getCreatedDocuments(placeId));
+            }
+
+            try {
+                DeleteByQueryResponse response = client.deleteByQuery(d -> d
+                        .index(PhotonIndex.NAME)
+                        .conflicts(Conflicts.Proceed)
+                        .query(q -> q.bool(b -> {
+                            b.filter(f -> f.terms(t -> t.field(Constants.PLACE_ID).terms(v -> v.value(places))));
+                            if (!keep.isEmpty()) {
+                                b.mustNot(m -> m.ids(ids -> ids.values(keep)));
+                            }
+                            return b;
+                        })));
+                if (!response.failures().isEmpty()) {
+                    log.error(String.format("Error while deleting documents of %d places: %s",
+                            places.size(), response.failures().get(0).cause().reason()));
+                    pending.setFailed();
+                }
+            } catch (IOException | ElasticsearchException e) {
+                log.error(String.format("Cannot delete documents of %d places", places.size()), e);
+                pending.setFailed();
+            }
+        }
+    }
+
+    private boolean wasRecentlyWritten(List<Long> placeIds) {
+        final long now = System.currentTimeMillis();
+        recentlyWritten.values().removeIf(written -> written < now - RECENT_WRITE_MILLIS);
+        for (Long placeId : placeIds) {
+            if (recentlyWritten.containsKey(placeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Look up the content hashes of the given documents in the index.
+     *
+     * @return The hashes of all documents found. Empty, when the lookup fails,
+     *         so that all documents get written.
+     */
+    private Map<String, String> fetchContentHashes(Collection<String> ids) {
+        final Map<String, String> hashes = new HashMap<>();
+        final List<String> chunk = new ArrayList<>(MGET_CHUNK_SIZE);
+        try {
+            for (Iterator<String> it = ids.iterator(); it.hasNext(); ) {
+                chunk.add(it.next());
+                if (chunk.size() == MGET_CHUNK_SIZE || !it.hasNext()) {
+                    MgetResponse<ObjectNode> response = client.mget(m -> m
+                            .index(PhotonIndex.NAME)
+                            .ids(chunk)
+                            .sourceIncludes(Constants.CONTENT_HASH), ObjectNode.class);
+                    for (MultiGetResponseItem<ObjectNode> item : response.docs()) {
+                        if (item.isResult() && item.result().found() && item.result().source() != null) {
+                            JsonNode hash = item.result().source().get(Constants.CONTENT_HASH);
+                            if (hash != null) {
+                                hashes.put(item.result().id(), hash.asText());
+                            }
+                        }
+                    }
+                    chunk.clear();
+                }
+            }
+        } catch (IOException | ElasticsearchException e) {
+            log.warn("Cannot look up content hashes, writing all documents.", e);
+            hashes.clear();
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Requests started before the first change of a thread cannot contain any of its changes.
+     */
+    private void startTracking() {
+        if (lastFlushedRequest.get() == null) {
+            synchronized (progressLock) {
+                lastFlushedRequest.set(lastStartedRequest);
+            }
+        }
+    }
+
+    @Override
+    public boolean flush() {
+        startTracking();
+        final PendingChanges pending = pendingChanges.get();
+        sendPending(pending);
+        final boolean deleteFailed = pending.takeFailed();
+
+        return writeSent(pending) && !deleteFailed;
+    }
+
+    /**
+     * Send the changes the calling thread has handed to the ingester and wait until they are written.
+     *
+     * @return False, if a request with changes of the calling thread failed.
+     */
+    private boolean writeSent(PendingChanges pending) {
+        final Set<Long> sentPlaces = pending.takeSentPlaces();
         this.ingester.flush();
-        /* TODO reimplement error handling using listener
-        if (bulkResponse.hasFailures()) {
-            log.error("error while bulk update: " + bulkResponse.buildFailureMessage());
+
+        synchronized (progressLock) {
+            // The requests containing the changes of this thread have been started by now.
+            final long flushedRequest = lastStartedRequest;
+            while (!pendingRequests.isEmpty() && pendingRequests.first() <= flushedRequest) {
+                try {
+                    progressLock.wait();
+                } catch (InterruptedException e) {
+                    log.warn("Thread interrupted while waiting for bulk requests.");
+                    // Restore interrupted state.
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            final long writtenMillis = System.currentTimeMillis();
+            for (Long placeId : sentPlaces) {
+                recentlyWritten.put(placeId, writtenMillis);
+            }
+
+            final long previousRequest = lastFlushedRequest.get();
+            lastFlushedRequest.set(flushedRequest);
+            // Failures of other threads in the same range are counted as well, which errs on the safe side.
+            return failedRequests.subSet(previousRequest, false, flushedRequest, true).isEmpty();
+        }
+    }
+
+    private void requestFinished(long executionId, boolean errors) {
+        synchronized (progressLock) {
+            if (errors) {
+                failedRequests.add(executionId);
+            }
+            pendingRequests.remove(executionId);
+            progressLock.notifyAll();
         }
-        this.bulkRequest = this.esClient.prepareBulk();
-         */
     }
 }
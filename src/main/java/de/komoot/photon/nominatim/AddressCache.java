@@ -0,0 +1,85 @@
+package de.komoot.photon.nominatim;
+
+import de.komoot.photon.nominatim.model.AddressRow;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache for the address terms of parent places, keyed by place_id.
+ *
+ * The least recently used entry is evicted when the cache is full. The cache may be
+ * shared between threads.
+ */
+public class AddressCache {
+    private final int maxSize;
+    private final Map<Long, List<AddressRow>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize Maximum number of places to keep. 0 disables caching.
+     */
+    public AddressCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Address cache size must not be negative.");
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<AddressRow>> eldest) {
+                return size() > AddressCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cached address terms for the given place.
+     *
+     * @return The address terms or null, if the place is not in the cache.
+     */
+    public List<AddressRow> get(long placeId) {
+        List<AddressRow> terms;
+        synchronized (entries) {
+            terms = entries.get(placeId);
+        }
+
+        if (terms == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return terms;
+    }
+
+    public void put(long placeId, List<AddressRow> terms) {
+        if (maxSize > 0) {
+            synchronized (entries) {
+                entries.put(placeId, terms);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
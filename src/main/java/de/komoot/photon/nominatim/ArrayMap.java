@@ -0,0 +1,88 @@
+package de.komoot.photon.nominatim;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact, unmodifiable map of strings that keeps keys and values in a single array.
+ *
+ * Lookups are a linear scan, which is faster than hashing for the handful of
+ * entries that names, addresses and extra tags of a place usually have.
+ */
+final class ArrayMap extends AbstractMap<String, String> {
+    static final ArrayMap EMPTY = new ArrayMap(new String[0]);
+
+    // Keys at even, values at odd positions.
+    private final String[] entries;
+
+    ArrayMap(String[] entries) {
+        if (entries.length % 2 != 0) {
+            throw new IllegalArgumentException("Keys and values must come in pairs.");
+        }
+        this.entries = entries;
+    }
+
+    @Override
+    public int size() {
+        return entries.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        final int idx = indexOf(key);
+        return idx < 0 ? null : entries[idx + 1];
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < entries.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= entries.length) {
+                            throw new NoSuchElementException();
+                        }
+                        next += 2;
+                        return new SimpleImmutableEntry<>(entries[next - 2], entries[next - 1]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ArrayMap.this.size();
+            }
+        };
+    }
+}
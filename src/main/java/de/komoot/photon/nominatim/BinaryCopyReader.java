@@ -0,0 +1,255 @@
+package de.komoot.photon.nominatim;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Decodes the output of PostgreSQL's <code>COPY ... TO STDOUT (FORMAT binary)</code>.
+ *
+ * Rows are read with {@link #nextRow()}, the fields of a row one by one in
+ * the order of the SELECT. Like with a JDBC ResultSet, numeric getters return 0
+ * for NULL values and {@link #wasNull()} tells if the last field was NULL.
+ *
+ * The reader only knows the binary formats of the types it has getters for, so
+ * the query needs to cast its columns accordingly.
+ *
+ * Values are decoded directly from an internal buffer. Going through a
+ * DataInputStream costs several synchronized reads for every field.
+ */
+class BinaryCopyReader {
+    private static final byte[] SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int HAS_OIDS_FLAG = 1 << 16;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private int fieldsLeft = 0;
+    private boolean wasNull = false;
+
+    BinaryCopyReader(InputStream in) throws IOException {
+        this.in = in;
+        readHeader();
+    }
+
+    private void readHeader() throws IOException {
+        require(SIGNATURE.length);
+        if (!Arrays.equals(buffer, pos, pos + SIGNATURE.length, SIGNATURE, 0, SIGNATURE.length)) {
+            throw new IOException("Not a binary COPY stream.");
+        }
+        pos += SIGNATURE.length;
+
+        final int flags = readInt();
+        if ((flags & HAS_OIDS_FLAG) != 0) {
+            throw new IOException("COPY streams with OIDs are not supported.");
+        }
+
+        // Skip header extension.
+        final int extensionLength = readInt();
+        skip(extensionLength);
+    }
+
+    /**
+     * Move to the next row. Fields not read from the previous row are skipped.
+     *
+     * @return False, if there are no more rows.
+     */
+    boolean nextRow() throws IOException {
+        while (fieldsLeft > 0) {
+            skipField();
+        }
+
+        final short numFields;
+        try {
+            require(2);
+            numFields = (short) (((buffer[pos] & 0xff) << 8) | (buffer[pos + 1] & 0xff));
+            pos += 2;
+        } catch (EOFException e) {
+            throw new IOException("COPY stream ended without trailer.", e);
+        }
+
+        if (numFields == -1) {
+            return false;
+        }
+
+        fieldsLeft = numFields;
+        return true;
+    }
+
+    boolean wasNull() {
+        return wasNull;
+    }
+
+    /**
+     * Read a bigint (int8) field.
+     */
+    long getLong() throws IOException {
+        return fieldLength(8) < 0 ? 0 : readLong();
+    }
+
+    /**
+     * Read an integer (int4) field.
+     */
+    int getInt() throws IOException {
+        return fieldLength(4) < 0 ? 0 : readInt();
+    }
+
+    /**
+     * Read a double precision (float8) field.
+     */
+    double getDouble() throws IOException {
+        return fieldLength(8) < 0 ? 0 : Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Read a text, varchar or char field.
+     */
+    String getString() throws IOException {
+        final int length = fieldLength(-1);
+        if (length < 0) {
+            return null;
+        }
+
+        return readUtf8(length);
+    }
+
+    /**
+     * Read a bytea field.
+     */
+    byte[] getBytes() throws IOException {
+        final int length = fieldLength(-1);
+        if (length < 0) {
+            return null;
+        }
+
+        return readBytes(length);
+    }
+
+    /**
+     * Read an hstore field. The entries keep the order of the hstore.
+     *
+     * @return The content of the field, an empty map when the field is NULL.
+     */
+    Map<String, String> getHstore() throws IOException {
+        if (fieldLength(-1) < 0) {
+            return ArrayMap.EMPTY;
+        }
+
+        final int count = readInt();
+        if (count == 0) {
+            return ArrayMap.EMPTY;
+        }
+        final String[] entries = new String[2 * count];
+        for (int i = 0; i < entries.length; i += 2) {
+            entries[i] = readUtf8(readInt());
+            final int valueLength = readInt();
+            entries[i + 1] = valueLength < 0 ? null : readUtf8(valueLength);
+        }
+
+        return new ArrayMap(entries);
+    }
+
+    private int fieldLength(int expectedLength) throws IOException {
+        if (fieldsLeft <= 0) {
+            throw new IOException("Read beyond the last field of the row.");
+        }
+        --fieldsLeft;
+
+        final int length = readInt();
+        wasNull = length < 0;
+        if (!wasNull && expectedLength >= 0 && length != expectedLength) {
+            throw new IOException(String.format("Unexpected field length %d, expected %d.", length, expectedLength));
+        }
+
+        return length;
+    }
+
+    private void skipField() throws IOException {
+        final int length = fieldLength(-1);
+        if (length > 0) {
+            skip(length);
+        }
+    }
+
+    private String readUtf8(int length) throws IOException {
+        if (length > BUFFER_SIZE) {
+            return new String(readBytes(length), StandardCharsets.UTF_8);
+        }
+        require(length);
+        final String str = new String(buffer, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+
+        return str;
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            if (pos == limit) {
+                require(1);
+            }
+            final int count = Math.min(length - done, limit - pos);
+            System.arraycopy(buffer, pos, bytes, done, count);
+            pos += count;
+            done += count;
+        }
+        return bytes;
+    }
+
+    private int readInt() throws IOException {
+        require(4);
+        final int value = ((buffer[pos] & 0xff) << 24) | ((buffer[pos + 1] & 0xff) << 16)
+                | ((buffer[pos + 2] & 0xff) << 8) | (buffer[pos + 3] & 0xff);
+        pos += 4;
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        require(8);
+        long value = 0;
+        for (int i = 0; i < 8; ++i) {
+            value = (value << 8) | (buffer[pos + i] & 0xff);
+        }
+        pos += 8;
+        return value;
+    }
+
+    private void skip(int length) throws IOException {
+        int left = length;
+        while (left > 0) {
+            if (pos == limit) {
+                require(1);
+            }
+            final int count = Math.min(left, limit - pos);
+            pos += count;
+            left -= count;
+        }
+    }
+
+    /**
+     * Make sure that the next n bytes are in the buffer, n must not be larger than the buffer.
+     */
+    private void require(int n) throws IOException {
+        if (limit - pos >= n) {
+            return;
+        }
+
+        System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        while (limit < n) {
+            final int count = in.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of COPY stream.");
+            }
+            limit += count;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.komoot.photon.nominatim;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the place ids from change notifications until there are enough
+ * of them or the oldest one has waited long enough.
+ */
+@Slf4j
+class ChangeBatch {
+    // How long to wait for notifications when there is nothing to do.
+    static final long IDLE_WAIT_MILLIS = 1000;
+
+    private final int maxSize;
+    private final long maxDelayMillis;
+    private final Set<Long> placeIds = new LinkedHashSet<>();
+    private final Set<Long> interpolationIds = new LinkedHashSet<>();
+    private long firstMillis = 0;
+    // The batch is not processed before this time, see postpone().
+    private long retryMillis = 0;
+
+    ChangeBatch(int maxSize, long maxDelayMillis) {
+        this.maxSize = maxSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Add the place from a notification.
+     *
+     * @param payload Table and place id in the form 'placex:123' or 'osmline:123'.
+     * @param nowMillis Time the notification was received.
+     */
+    void add(String payload, long nowMillis) {
+        final int sep = payload == null ? -1 : payload.indexOf(':');
+        long placeId;
+        try {
+            placeId = sep < 0 ? -1 : Long.parseLong(payload.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            placeId = -1;
+        }
+        if (placeId < 0) {
+            log.warn(String.format("Ignoring malformed change notification '%s'.", payload));
+            return;
+        }
+
+        final Set<Long> target = getTarget(payload.substring(0, sep));
+        if (target == null) {
+            log.warn(String.format("Ignoring change notification for unknown table: '%s'.", payload));
+            return;
+        }
+
+        if (isEmpty()) {
+            firstMillis = nowMillis;
+        }
+        target.add(placeId);
+    }
+
+    private Set<Long> getTarget(String table) {
+        switch (table) {
+            case "placex": return placeIds;
+            case "osmline": return interpolationIds;
+            default: return null;
+        }
+    }
+
+    boolean isEmpty() {
+        return placeIds.isEmpty() && interpolationIds.isEmpty();
+    }
+
+    int size() {
+        return placeIds.size() + interpolationIds.size();
+    }
+
+    boolean isReady(long nowMillis) {
+        if (nowMillis < retryMillis) {
+            return false;
+        }
+        return size() >= maxSize || (!isEmpty() && nowMillis - firstMillis >= maxDelayMillis);
+    }
+
+    /**
+     * Time to wait for further notifications before the batch is due.
+     */
+    long millisUntilDue(long nowMillis) {
+        if (isEmpty()) {
+            return IDLE_WAIT_MILLIS;
+        }
+
+        return Math.max(1, Math.max(firstMillis + maxDelayMillis, retryMillis) - nowMillis);
+    }
+
+    /**
+     * Keep the batch and collect further notifications until the given time
+     * before it is ready again.
+     */
+    void postpone(long untilMillis) {
+        retryMillis = untilMillis;
+    }
+
+    Set<Long> getPlaceIds() {
+        return placeIds;
+    }
+
+    Set<Long> getInterpolationIds() {
+        return interpolationIds;
+    }
+
+    void clear() {
+        placeIds.clear();
+        interpolationIds.clear();
+        retryMillis = 0;
+    }
+}
@@ -16,6 +16,14 @@ public interface DBDataAdapter {
      */
     Map<String, String> getMap(ResultSet rs, String columnName) throws SQLException;
 
+    /**
+     * Reduce the content of a column that was read without {@link #getMap},
+     * e.g. with COPY, in the same way as getMap() does.
+     */
+    default Map<String, String> filterMap(Map<String, String> map, String columnName) {
+        return map;
+    }
+
     /**
      * Create a JTS geometry from the given column data.
      */
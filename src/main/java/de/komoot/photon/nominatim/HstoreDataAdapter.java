@@ -0,0 +1,211 @@
+package de.komoot.photon.nominatim;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Data adapter for the import that parses hstore columns itself instead of
+ * leaving it to the database driver.
+ *
+ * Only the keys that end up in the index are kept and the results are stored
+ * in compact array-backed maps. Which keys are needed depends on the column:
+ * the names used for the configured languages, the address tags that are
+ * copied into the document and the configured extra tags.
+ */
+public class HstoreDataAdapter extends PostgisDataAdapter {
+    private static final String PLACE_PREFIX = "_place_";
+    private static final Set<String> ADDRESS_KEYS = new HashSet<>(Arrays.asList(
+            "street", "city", "suburb", "neighbourhood", "county", "state", "postcode",
+            "housenumber", "streetnumber", "conscriptionnumber"));
+    private static final Predicate<String> ALL_KEYS = key -> true;
+
+    private final Predicate<String> nameFilter;
+    private final Predicate<String> extraTagsFilter;
+
+    public HstoreDataAdapter(String[] languages, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) {
+        if (includeExtraNames) {
+            nameFilter = ALL_KEYS;
+        } else {
+            Set<String> nameKeys = new HashSet<>(Arrays.asList(
+                    "name", "alt_name", "int_name", "loc_name", "old_name", "reg_name", "addr:housename"));
+            for (String language : languages) {
+                nameKeys.add("name:" + language);
+            }
+            for (String key : nameKeys.toArray(new String[0])) {
+                nameKeys.add(PLACE_PREFIX + key);
+            }
+            nameFilter = nameKeys::contains;
+        }
+
+        if (allExtraTags) {
+            extraTagsFilter = ALL_KEYS;
+        } else {
+            Set<String> tagKeys = new HashSet<>(Arrays.asList("place", "linked_place"));
+            Collections.addAll(tagKeys, extraTags);
+            extraTagsFilter = tagKeys::contains;
+        }
+    }
+
+    @Override
+    public Map<String, String> getMap(ResultSet rs, String columnName) throws SQLException {
+        final String hstore = rs.getString(columnName);
+        if (hstore == null) {
+            return ArrayMap.EMPTY;
+        }
+
+        try {
+            Map<String, String> map = parseHstore(hstore, keyFilter(columnName));
+            // A place that only has names in other languages still counts as named.
+            return map.isEmpty() && "name".equals(columnName) ? parseHstore(hstore, ALL_KEYS) : map;
+        } catch (IllegalArgumentException e) {
+            throw new SQLException("Cannot parse hstore in column " + columnName, e);
+        }
+    }
+
+    @Override
+    public Map<String, String> filterMap(Map<String, String> map, String columnName) {
+        Map<String, String> filtered = copyEntries(map, keyFilter(columnName));
+        // Same fallback for names as in getMap().
+        return filtered.isEmpty() && "name".equals(columnName) ? copyEntries(map, ALL_KEYS) : filtered;
+    }
+
+    private static Map<String, String> copyEntries(Map<String, String> map, Predicate<String> keep) {
+        String[] entries = new String[2 * map.size()];
+        int numEntries = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (keep.test(entry.getKey())) {
+                entries[numEntries++] = entry.getKey();
+                entries[numEntries++] = entry.getValue();
+            }
+        }
+
+        if (numEntries == 0) {
+            return ArrayMap.EMPTY;
+        }
+        if (numEntries == entries.length && map instanceof ArrayMap) {
+            return map;
+        }
+        return new ArrayMap(numEntries == entries.length ? entries : Arrays.copyOf(entries, numEntries));
+    }
+
+    private Predicate<String> keyFilter(String columnName) {
+        switch (columnName) {
+            case "name":
+                return nameFilter;
+            case "address":
+                return ADDRESS_KEYS::contains;
+            case "extratags":
+                return extraTagsFilter;
+            default:
+                return ALL_KEYS;
+        }
+    }
+
+    /**
+     * Parse the text representation of an hstore, e.g. <code>"name"=>"Foo", "ref"=>NULL</code>.
+     *
+     * @param keep Filter for the keys to keep.
+     *
+     * @return The entries with accepted keys.
+     */
+    static Map<String, String> parseHstore(String hstore, Predicate<String> keep) {
+        String[] entries = new String[8];
+        int numEntries = 0;
+
+        final int length = hstore.length();
+        int pos = skipWhitespace(hstore, 0);
+        while (pos < length) {
+            final int keyEnd = findQuoteEnd(hstore, pos);
+            final String key = unquote(hstore, pos, keyEnd);
+            final boolean wanted = keep.test(key);
+
+            pos = skipWhitespace(hstore, keyEnd + 1);
+            if (!hstore.startsWith("=>", pos)) {
+                throw new IllegalArgumentException("Expected '=>' at position " + pos);
+            }
+            pos = skipWhitespace(hstore, pos + 2);
+
+            final String value;
+            if (hstore.startsWith("NULL", pos)) {
+                value = null;
+                pos += 4;
+            } else {
+                final int valueEnd = findQuoteEnd(hstore, pos);
+                value = wanted ? unquote(hstore, pos, valueEnd) : null;
+                pos = valueEnd + 1;
+            }
+
+            if (wanted) {
+                if (numEntries == entries.length) {
+                    entries = Arrays.copyOf(entries, 2 * entries.length);
+                }
+                entries[numEntries++] = key;
+                entries[numEntries++] = value;
+            }
+
+            pos = skipWhitespace(hstore, pos);
+            if (pos < length) {
+                if (hstore.charAt(pos) != ',') {
+                    throw new IllegalArgumentException("Expected ',' at position " + pos);
+                }
+                pos = skipWhitespace(hstore, pos + 1);
+            }
+        }
+
+        return numEntries == 0 ? ArrayMap.EMPTY : new ArrayMap(Arrays.copyOf(entries, numEntries));
+    }
+
+    private static int skipWhitespace(String str, int pos) {
+        while (pos < str.length() && Character.isWhitespace(str.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    /**
+     * Find the closing quote of the quoted string starting at 'start'.
+     */
+    private static int findQuoteEnd(String str, int start) {
+        if (start >= str.length() || str.charAt(start) != '"') {
+            throw new IllegalArgumentException("Expected '\"' at position " + start);
+        }
+
+        for (int pos = start + 1; pos < str.length(); ++pos) {
+            final char c = str.charAt(pos);
+            if (c == '\\') {
+                ++pos;
+            } else if (c == '"') {
+                return pos;
+            }
+        }
+
+        throw new IllegalArgumentException("Unterminated string at position " + start);
+    }
+
+    private static String unquote(String str, int start, int end) {
+        int firstEscape = start + 1;
+        while (firstEscape < end && str.charAt(firstEscape) != '\\') {
+            ++firstEscape;
+        }
+        if (firstEscape == end) {
+            return str.substring(start + 1, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(str, start + 1, firstEscape);
+        for (int pos = firstEscape; pos < end; ++pos) {
+            char c = str.charAt(pos);
+            if (c == '\\') {
+                c = str.charAt(++pos);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -1,64 +1,192 @@
 package de.komoot.photon.nominatim;
 
+import de.komoot.photon.ImportMetrics;
 import de.komoot.photon.Importer;
-import de.komoot.photon.PhotonDoc;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Hands documents from the database readers over to one or more worker threads
+ * which pass them on to the importer.
+ *
+ * The workers are where the documents get converted, so more than one worker
+ * helps when the conversion and not the database is the bottleneck.
+ *
+ * Results are handed over in batches of about {@link #BATCH_SIZE} documents,
+ * which keeps the synchronisation cost between readers and workers low. The
+ * workers expand the results into one document per house number only when
+ * handing them to the importer, so that large interpolations do not sit in
+ * the queue as thousands of documents.
+ *
+ * {@link #sync} allows to find out when all documents added up to a certain
+ * point have been written by the importer, which is needed for checkpoints.
+ */
 @Slf4j
 class ImportThread {
     private static final int PROGRESS_INTERVAL = 50000;
-    private static final PhotonDoc FINAL_DOCUMENT = new PhotonDoc(0, null, 0, null, null);
-    private final BlockingQueue<PhotonDoc> documents = new LinkedBlockingDeque<>(20);
+    private static final List<NominatimResult> FINAL_BATCH = Collections.unmodifiableList(new ArrayList<>());
+    private static final List<NominatimResult> SYNC_BATCH = Collections.unmodifiableList(new ArrayList<>());
+    public static final int BATCH_SIZE = 1000;
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private final BlockingQueue<List<NominatimResult>> documents;
+    private final int queueCapacity;
     private final AtomicLong counter = new AtomicLong();
     private final Importer importer;
-    private final Thread thread;
+    private final List<Thread> threads = new ArrayList<>();
     private final long startMillis;
+    private final AtomicBoolean syncInProgress = new AtomicBoolean();
+    private volatile CyclicBarrier syncBarrier;
+
+    // Time spent in the different stages, summed up over all threads.
+    private final AtomicLong readerWaitNanos = new AtomicLong();
+    private final AtomicLong workerWaitNanos = new AtomicLong();
+    private final AtomicLong workerBusyNanos = new AtomicLong();
 
     public ImportThread(Importer importer) {
+        this(importer, 1, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param importer   Importer to hand the documents to. Must be thread-safe when more than one worker is used.
+     * @param numWorkers Number of worker threads calling the importer.
+     * @param queueSize  Approximate maximum number of documents waiting for a worker. Rounded up
+     *                   to full batches, with at least one batch per worker.
+     */
+    public ImportThread(Importer importer, int numWorkers, int queueSize) {
+        this(importer, numWorkers, queueSize, new ImportMetrics());
+    }
+
+    /**
+     * @param metrics Metrics that receive the current occupancy of the queue.
+     */
+    public ImportThread(Importer importer, int numWorkers, int queueSize, ImportMetrics metrics) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("Number of import workers must be at least 1.");
+        }
         this.importer = importer;
-        this.thread = new Thread(new ImportRunnable());
-        this.thread.start();
+        this.queueCapacity = Math.max(numWorkers, (queueSize + BATCH_SIZE - 1) / BATCH_SIZE);
+        this.documents = new ArrayBlockingQueue<>(queueCapacity);
+        metrics.setQueue(documents::size, queueCapacity);
         this.startMillis = System.currentTimeMillis();
+        for (int i = 0; i < numWorkers; ++i) {
+            Thread thread = new Thread(new ImportRunnable(), "photon-import-" + i);
+            threads.add(thread);
+            thread.start();
+        }
     }
 
     /**
-     * Adds the given document from Nominatim to the import queue.
+     * Adds the given documents from Nominatim to the import queue.
      *
-     * @param docs Fully filled nominatim document.
+     * @param results Fully filled nominatim documents.
      */
-    public void addDocument(NominatimResult docs) {
-        for (PhotonDoc doc : docs.getDocsWithHousenumber()) {
+    public void addDocuments(List<NominatimResult> results) {
+        List<NominatimResult> batch = new ArrayList<>();
+        int batchDocs = 0;
+        for (NominatimResult result : results) {
+            batch.add(result);
+            batchDocs += result.maxDocCount();
+            if (batchDocs >= BATCH_SIZE) {
+                put(batch);
+                batch = new ArrayList<>();
+                batchDocs = 0;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            put(batch);
+        }
+    }
+
+    private void countImported(int numDocs) {
+        final long total = counter.addAndGet(numDocs);
+        if (total / PROGRESS_INTERVAL != (total - numDocs) / PROGRESS_INTERVAL) {
+            logProgress();
+        }
+    }
+
+    /**
+     * Run an action once all documents added so far have been written.
+     *
+     * The workers finish the documents in the queue in front of the sync request,
+     * then the importer is flushed and the action is run. Meanwhile, new documents
+     * can still be added to the queue. Only one sync can be pending at a time.
+     *
+     * @param onSynced Action to run. Runs in one of the worker threads.
+     *
+     * @return False, if another sync is still pending and the action was not scheduled.
+     */
+    public boolean sync(Runnable onSynced) {
+        if (!syncInProgress.compareAndSet(false, true)) {
+            return false;
+        }
+
+        syncBarrier = new CyclicBarrier(threads.size(), () -> {
+            try {
+                importer.flush();
+                onSynced.run();
+            } catch (RuntimeException e) {
+                log.error("Error while synchronising import", e);
+            } finally {
+                syncInProgress.set(false);
+            }
+        });
+
+        // Every worker needs to see exactly one sync marker. A worker that has taken
+        // its marker waits at the barrier, so it cannot take a second one.
+        for (int i = 0; i < threads.size(); ++i) {
+            put(SYNC_BATCH);
+        }
+
+        return true;
+    }
+
+    /**
+     * Finalize the import.
+     *
+     * Sends an end marker to each import thread, waits for them to join
+     * and then finishes the importer.
+     */
+    public void finish() {
+        for (int i = 0; i < threads.size(); ++i) {
+            put(FINAL_BATCH);
+        }
+        for (Thread thread : threads) {
             while (true) {
                 try {
-                    documents.put(doc);
+                    thread.join();
                     break;
                 } catch (InterruptedException e) {
-                    log.warn("Thread interrupted while placing document in queue.");
+                    log.warn("Thread interrupted while waiting for import thread.");
                     // Restore interrupted state.
                     Thread.currentThread().interrupt();
                 }
             }
-            if (counter.incrementAndGet() % PROGRESS_INTERVAL == 0) {
-                final double documentsPerSecond = 1000d * counter.longValue() / (System.currentTimeMillis() - startMillis);
-                log.info(String.format("imported %d documents [%.1f/second]", counter.longValue(), documentsPerSecond));
-            }
         }
+        importer.finish();
+        log.info(String.format("finished import of %d photon documents.", counter.longValue()));
+        logStages();
     }
 
-    /**
-     * Finalize the import.
-     *
-     * Sends an end marker to the import thread and waiting for it to join.
-     */
-    public void finish() {
+    private void put(List<NominatimResult> batch) {
+        if (documents.offer(batch)) {
+            return;
+        }
+
+        final long waitStart = System.nanoTime();
         while (true) {
             try {
-                documents.put(FINAL_DOCUMENT);
-                thread.join();
+                documents.put(batch);
                 break;
             } catch (InterruptedException e) {
                 log.warn("Thread interrupted while placing document in queue.");
@@ -66,7 +194,19 @@ class ImportThread {
                 Thread.currentThread().interrupt();
             }
         }
-        log.info(String.format("finished import of %d photon documents.", counter.longValue()));
+        readerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+    }
+
+    private void logProgress() {
+        final double documentsPerSecond = 1000d * counter.longValue() / (System.currentTimeMillis() - startMillis);
+        log.info(String.format("imported %d documents [%.1f/second], queue %d/%d batches, reader waiting %.1fs, workers busy %.1fs, idle %.1fs",
+                counter.longValue(), documentsPerSecond, documents.size(), queueCapacity,
+                readerWaitNanos.get() / 1e9, workerBusyNanos.get() / 1e9, workerWaitNanos.get() / 1e9));
+    }
+
+    private void logStages() {
+        log.info(String.format("time spent: reader waiting for workers %.1fs, workers importing %.1fs, workers waiting for reader %.1fs (%d workers)",
+                readerWaitNanos.get() / 1e9, workerBusyNanos.get() / 1e9, workerWaitNanos.get() / 1e9, threads.size()));
     }
 
     private class ImportRunnable implements Runnable {
@@ -74,19 +214,41 @@ class ImportThread {
         @Override
         public void run() {
             while (true) {
-                PhotonDoc doc;
+                List<NominatimResult> batch;
                 try {
-                    doc = documents.take();
-                    if (doc == FINAL_DOCUMENT)
+                    batch = documents.poll();
+                    if (batch == null) {
+                        final long waitStart = System.nanoTime();
+                        batch = documents.take();
+                        workerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+                    }
+                    if (batch == FINAL_BATCH)
                         break;
-                    importer.add(doc);
+
+                    if (batch == SYNC_BATCH) {
+                        final long waitStart = System.nanoTime();
+                        try {
+                            syncBarrier.await();
+                        } catch (BrokenBarrierException e) {
+                            log.error("Import synchronisation failed", e);
+                        }
+                        workerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+                        continue;
+                    }
+
+                    final long importStart = System.nanoTime();
+                    int numDocs = 0;
+                    for (NominatimResult result : batch) {
+                        numDocs += result.forEachDocWithHousenumber(importer::add);
+                    }
+                    workerBusyNanos.addAndGet(System.nanoTime() - importStart);
+                    countImported(numDocs);
                 } catch (InterruptedException e) {
                     log.info("interrupted exception ", e);
                     // Restore interrupted state.
                     Thread.currentThread().interrupt();
                 }
             }
-            importer.finish();
         }
     }
 
@@ -0,0 +1,63 @@
+package de.komoot.photon.nominatim;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of immutable name maps, so that documents with the same address parts
+ * share a single instance of each map instead of holding their own copies.
+ *
+ * Maps are looked up by content. When the pool is full, it is emptied and
+ * filled anew, so that memory use stays bounded even for planet-wide imports.
+ * The pool may be shared between threads.
+ */
+public class NamePool {
+    private final int maxSize;
+    private final Map<Map<String, String>, Map<String, String>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize Maximum number of distinct maps to keep. 0 disables the pool.
+     */
+    public NamePool(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Name pool size must not be negative.");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the canonical instance for the given names.
+     *
+     * @return An unmodifiable map with the same content as 'names'.
+     */
+    public Map<String, String> intern(Map<String, String> names) {
+        if (names == null) {
+            return null;
+        }
+        if (names.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> canonical = entries.get(names);
+        if (canonical == null) {
+            canonical = names instanceof ArrayMap ? names : Collections.unmodifiableMap(new HashMap<>(names));
+            if (maxSize > 0) {
+                if (entries.size() >= maxSize) {
+                    entries.clear();
+                }
+                Map<String, String> existing = entries.putIfAbsent(canonical, canonical);
+                if (existing != null) {
+                    canonical = existing;
+                }
+            }
+        }
+
+        return canonical;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -1,22 +1,35 @@
 package de.komoot.photon.nominatim;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import de.komoot.photon.CheckpointStore;
+import de.komoot.photon.ImportCheckpoint;
+import de.komoot.photon.ImportMetrics;
 import de.komoot.photon.Importer;
 import de.komoot.photon.PhotonDoc;
+import de.komoot.photon.SectorRange;
 import de.komoot.photon.nominatim.model.AddressRow;
 import de.komoot.photon.nominatim.model.AddressType;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.postgis.jts.JtsWrapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyInputStream;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Export nominatim data
@@ -25,37 +38,103 @@ import java.util.Map;
  */
 @Slf4j
 public class NominatimConnector {
-    private static final String SELECT_COLS_PLACEX = "SELECT place_id, osm_type, osm_id, class, type, name, postcode, address, extratags, ST_Envelope(geometry) AS bbox, parent_place_id, linked_place_id, rank_address, rank_search, importance, country_code, centroid";
+    private static final String SELECT_COLS_PLACEX = "SELECT place_id, osm_type, osm_id, class, type, name, postcode, address, extratags, parent_place_id, linked_place_id, rank_address, rank_search, importance, country_code,"
+            + " ST_XMin(geometry) AS bbox_minx, ST_YMin(geometry) AS bbox_miny, ST_XMax(geometry) AS bbox_maxx, ST_YMax(geometry) AS bbox_maxy,"
+            + " ST_X(centroid) AS centroid_x, ST_Y(centroid) AS centroid_y";
+    /**
+     * Columns of placex for reading with COPY. Geometries are reduced to their coordinates
+     * and all columns are cast to the types that {@link BinaryCopyReader} understands.
+     */
+    private static final String COPY_COLS_PLACEX = "SELECT place_id::int8, osm_type::text, osm_id::int8, class::text, type::text, name, postcode::text, address, extratags,"
+            + " ST_XMin(geometry), ST_YMin(geometry), ST_XMax(geometry), ST_YMax(geometry),"
+            + " parent_place_id::int8, linked_place_id::int8, rank_address::int4, rank_search::int4, importance::float8, country_code::text,"
+            + " ST_X(centroid), ST_Y(centroid)";
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
     private static final String SELECT_COLS_ADDRESS = "SELECT p.name, p.class, p.type, p.rank_address";
 
+    /**
+     * Number of sector ranges handed out per reader thread in a parallel import.
+     * More ranges than threads keep the workers busy when sectors are unevenly filled.
+     */
+    private static final int SECTOR_RANGES_PER_THREAD = 16;
+
+    /**
+     * Number of exported rows for which the addresses are looked up in one go.
+     */
+    private static final int ADDRESS_BATCH_SIZE = 1000;
+
+    public static final int DEFAULT_ADDRESS_CACHE_SIZE = 10000;
+
+    /**
+     * Number of distinct address names shared between documents.
+     */
+    private static final int NAME_POOL_SIZE = 100000;
+
+    /**
+     * Minimum time between two saved checkpoints of a running import.
+     */
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60000;
+
     private final DBDataAdapter dbutils;
     private final JdbcTemplate template;
-    private Map<String, Map<String, String>> countryNames;
+    // Loaded on first use, read by several threads afterwards.
+    private volatile Map<String, Map<String, String>> countryNames;
+    private final NamePool namePool = new NamePool(NAME_POOL_SIZE);
 
     /**
      * Maps a row from location_property_osmline (address interpolation lines)
      * with old-style intepolation (using interpolationtype) to a photon doc.
      */
-    private final RowMapper<NominatimResult> osmlineRowMapper;
+    private final RowMapper<IncompleteResult> osmlineRowMapper;
     private final String selectOsmlineSql;
+    private final boolean newStyleInterpolations;
+
+    private final RowMapper<AddressRow> addressRowMapper = new RowMapper<AddressRow>() {
+        @Override
+        public AddressRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new AddressRow(
+                    namePool.intern(dbutils.getMap(rs, "name")),
+                    rs.getString("class"),
+                    rs.getString("type"),
+                    rs.getInt("rank_address")
+            );
+        }
+    };
+
+    /**
+     * A result from placex or location_property_osmline which still misses the
+     * information from the address hierarchy, see {@link #completeResult}.
+     */
+    private static class IncompleteResult {
+        private final NominatimResult result;
+        private final Map<String, String> address;
+        private final String countryCode;
 
+        IncompleteResult(NominatimResult result, Map<String, String> address, String countryCode) {
+            this.result = result;
+            this.address = address;
+            this.countryCode = countryCode;
+        }
+
+        PhotonDoc getDoc() {
+            return result.getBaseDoc();
+        }
+    }
 
     /**
      * maps a placex row in nominatim to a photon doc, some attributes are still missing and can be derived by connected address items.
      */
-    private final RowMapper<NominatimResult> placeRowMapper = new RowMapper<NominatimResult>() {
+    private final RowMapper<IncompleteResult> placeRowMapper = new RowMapper<IncompleteResult>() {
         @Override
-        public NominatimResult mapRow(ResultSet rs, int rowNum) throws SQLException {
+        public IncompleteResult mapRow(ResultSet rs, int rowNum) throws SQLException {
             Map<String, String> address = dbutils.getMap(rs, "address");
             PhotonDoc doc = new PhotonDoc(rs.getLong("place_id"),
                                           rs.getString("osm_type"), rs.getLong("osm_id"),
                                           rs.getString("class"), rs.getString("type"))
                     .names(dbutils.getMap(rs, "name"))
-                    .extraTags(dbutils.getMap(rs, "extratags"))
-                    .bbox(dbutils.extractGeometry(rs, "bbox"))
+                    .extraTags(namePool.intern(dbutils.getMap(rs, "extratags")))
                     .parentPlaceId(rs.getLong("parent_place_id"))
                     .countryCode(rs.getString("country_code"))
-                    .centroid(dbutils.extractGeometry(rs, "centroid"))
                     .linkedPlaceId(rs.getLong("linked_place_id"))
                     .rankAddress(rs.getInt("rank_address"))
                     .postcode(rs.getString("postcode"));
@@ -63,19 +142,32 @@ public class NominatimConnector {
             double importance = rs.getDouble("importance");
             doc.importance(rs.wasNull() ? (0.75 - rs.getInt("rank_search") / 40d) : importance);
 
-            completePlace(doc);
-            // Add address last, so it takes precedence.
-            doc.address(address);
+            final double centroidX = rs.getDouble("centroid_x");
+            if (!rs.wasNull()) {
+                doc.centroid(centroidX, rs.getDouble("centroid_y"));
+            }
 
-            doc.setCountry(getCountryNames(rs.getString("country_code")));
+            final double minX = rs.getDouble("bbox_minx");
+            if (!rs.wasNull()) {
+                doc.bbox(minX, rs.getDouble("bbox_miny"), rs.getDouble("bbox_maxx"), rs.getDouble("bbox_maxy"));
+            }
 
             NominatimResult result = new NominatimResult(doc);
             result.addHousenumbersFromAddress(address);
 
-            return result;
+            return new IncompleteResult(result, address, rs.getString("country_code"));
         }
     };
     private Importer importer;
+    private int readerThreads = 1;
+    private int converterThreads = 1;
+    private int importQueueSize = ImportThread.DEFAULT_QUEUE_SIZE;
+    private AddressCache addressCache = new AddressCache(DEFAULT_ADDRESS_CACHE_SIZE);
+    private CheckpointStore checkpointStore = null;
+    private boolean resumeImport = false;
+    private long checkpointIntervalMillis = CHECKPOINT_INTERVAL_MILLIS;
+    private boolean copyExport = false;
+    private ImportMetrics metrics = new ImportMetrics();
 
     /**
      * @param host     database host
@@ -97,7 +189,8 @@ public class NominatimConnector {
         dbutils = dataAdapter;
 
         // Setup handling of interpolation table. It has changed its format. Need to find out which one to use.
-        if (dbutils.hasColumn(template, "location_property_osmline", "step")) {
+        newStyleInterpolations = dbutils.hasColumn(template, "location_property_osmline", "step");
+        if (newStyleInterpolations) {
             // new-style interpolations
             selectOsmlineSql = "SELECT place_id, osm_id, parent_place_id, startnumber, endnumber, step, postcode, country_code, linegeo";
             osmlineRowMapper = (rs, rownum) -> {
@@ -109,15 +202,11 @@ public class NominatimConnector {
                         .countryCode(rs.getString("country_code"))
                         .postcode(rs.getString("postcode"));
 
-                completePlace(doc);
-
-                doc.setCountry(getCountryNames(rs.getString("country_code")));
-
                 NominatimResult result = new NominatimResult(doc);
                 result.addHouseNumbersFromInterpolation(rs.getLong("startnumber"), rs.getLong("endnumber"),
                         rs.getLong("step"), geometry);
 
-                return result;
+                return new IncompleteResult(result, null, rs.getString("country_code"));
             };
         } else {
             // old-style interpolations
@@ -131,15 +220,11 @@ public class NominatimConnector {
                         .countryCode(rs.getString("country_code"))
                         .postcode(rs.getString("postcode"));
 
-                completePlace(doc);
-
-                doc.setCountry(getCountryNames(rs.getString("country_code")));
-
                 NominatimResult result = new NominatimResult(doc);
                 result.addHouseNumbersFromInterpolation(rs.getLong("startnumber"), rs.getLong("endnumber"),
                         rs.getString("interpolationtype"), geometry);
 
-                return result;
+                return new IncompleteResult(result, null, rs.getString("country_code"));
             };
         }
     }
@@ -156,47 +241,190 @@ public class NominatimConnector {
         return dataSource;
     }
 
-    private Map<String, String> getCountryNames(String countrycode) {
+    Map<String, String> getCountryNames(String countrycode) {
+        Map<String, Map<String, String>> names = countryNames;
+        if (names == null) {
+            names = loadCountryNames();
+        }
+
+        return names.get(countrycode);
+    }
+
+    private synchronized Map<String, Map<String, String>> loadCountryNames() {
         if (countryNames == null) {
-            countryNames = new HashMap<>();
+            // Only publish the map once it is complete.
+            Map<String, Map<String, String>> names = new HashMap<>();
             template.query("SELECT country_code, name FROM country_name", rs -> {
-                countryNames.put(rs.getString("country_code"), dbutils.getMap(rs, "name"));
+                names.put(rs.getString("country_code"), namePool.intern(dbutils.getMap(rs, "name")));
             });
+            countryNames = names;
         }
 
-        return countryNames.get(countrycode);
+        return countryNames;
     }
 
     public void setImporter(Importer importer) {
         this.importer = importer;
+        if (importer != null) {
+            importer.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Set the number of threads that read from the database in parallel during a full import.
+     *
+     * With more than one thread, the sector space of placex and location_property_osmline
+     * is split into ranges which are exported over separate connections. Imports that keep
+     * a checkpoint always export by sector ranges, even with a single thread, because the
+     * ranges are what the checkpoint records.
+     */
+    public void setReaderThreads(int readerThreads) {
+        if (readerThreads < 1) {
+            throw new IllegalArgumentException("Number of reader threads must be at least 1.");
+        }
+        this.readerThreads = readerThreads;
+
+        // Every reader needs one connection for the export cursor and one for the address lookups.
+        ensurePoolSize(template.getDataSource(), 2 * readerThreads + 1);
+    }
+
+    /**
+     * Make sure that the connection pool of the connector allows at least the given number of connections.
+     */
+    void ensureConnections(int connections) {
+        ensurePoolSize(template.getDataSource(), connections);
+    }
+
+    static void ensurePoolSize(DataSource dataSource, int connections) {
+        if (dataSource instanceof BasicDataSource) {
+            BasicDataSource pool = (BasicDataSource) dataSource;
+            pool.setMaxTotal(Math.max(pool.getMaxTotal(), connections));
+            pool.setMaxIdle(Math.max(pool.getMaxIdle(), connections));
+        }
+    }
+
+    /**
+     * Set the number of threads that convert the exported documents and hand them to the importer.
+     * With more than one thread, the importer must be thread-safe.
+     */
+    public void setConverterThreads(int converterThreads) {
+        this.converterThreads = converterThreads;
+    }
+
+    /**
+     * Set the maximum number of exported documents waiting for conversion.
+     */
+    public void setImportQueueSize(int importQueueSize) {
+        this.importQueueSize = importQueueSize;
+    }
+
+    /**
+     * Read placex and interpolations with COPY in binary format during a full import
+     * instead of a normal query. Only works with a PostgreSQL database.
+     */
+    public void setCopyExport(boolean copyExport) {
+        this.copyExport = copyExport;
+    }
+
+    /**
+     * Set where to record the throughput of the different import stages.
+     */
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+        if (importer != null) {
+            importer.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Set the maximum number of parent places whose address terms are kept in memory.
+     */
+    public void setAddressCacheSize(int size) {
+        addressCache = new AddressCache(size);
+    }
+
+    /**
+     * Forget all cached address terms. Needed when the address hierarchy may have changed.
+     */
+    public void clearAddressCache() {
+        addressCache.clear();
+    }
+
+    /**
+     * Save the progress of a full import regularly in the given store.
+     *
+     * @param store  Where to keep the checkpoints.
+     * @param resume When true, continue from the checkpoint found in the store
+     *               instead of starting from the beginning.
+     */
+    public void setCheckpointStore(CheckpointStore store, boolean resume) {
+        this.checkpointStore = store;
+        this.resumeImport = resume;
+    }
+
+    public AddressCache getAddressCache() {
+        return addressCache;
     }
 
     public List<PhotonDoc> getByPlaceId(long placeId) {
-        NominatimResult result = template.queryForObject(SELECT_COLS_PLACEX + " FROM placex WHERE place_id = ?",
-                                                         placeRowMapper, placeId);
-        assert(result != null);
-        return result.getDocsWithHousenumber();
+        IncompleteResult row = template.queryForObject(SELECT_COLS_PLACEX + " FROM placex WHERE place_id = ?",
+                                                       placeRowMapper, placeId);
+        assert(row != null);
+        return completeResult(row, getAddresses(row.getDoc())).getDocsWithHousenumber();
     }
 
     public List<PhotonDoc> getInterpolationsByPlaceId(long placeId) {
-        NominatimResult result = template.queryForObject(selectOsmlineSql
-                                                          + " FROM location_property_osmline WHERE place_id = ?",
-                                                          osmlineRowMapper, placeId);
-        assert(result != null);
-        return result.getDocsWithHousenumber();
+        IncompleteResult row = template.queryForObject(selectOsmlineSql
+                                                        + " FROM location_property_osmline WHERE place_id = ?",
+                                                        osmlineRowMapper, placeId);
+        assert(row != null);
+        return completeResult(row, getAddresses(row.getDoc())).getDocsWithHousenumber();
+    }
+
+    /**
+     * Get the documents for several places from placex at once.
+     *
+     * @return The documents for each place id found. Places that no longer exist are missing.
+     */
+    public Map<Long, List<PhotonDoc>> getByPlaceIds(Collection<Long> placeIds) {
+        if (placeIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return completeRows(template.query(SELECT_COLS_PLACEX + " FROM placex WHERE place_id = ANY(?)",
+                ps -> setPlaceIdArray(ps, placeIds), placeRowMapper));
     }
 
-    private long parentPlaceId = -1;
-    private List<AddressRow> parentTerms = null;
+    /**
+     * Get the documents for several interpolation lines at once.
+     *
+     * @return The documents for each place id found. Lines that no longer exist are missing.
+     */
+    public Map<Long, List<PhotonDoc>> getInterpolationsByPlaceIds(Collection<Long> placeIds) {
+        if (placeIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
 
-    List<AddressRow> getAddresses(PhotonDoc doc) {
-        RowMapper<AddressRow> rowMapper = (rs, rowNum) -> new AddressRow(
-                dbutils.getMap(rs, "name"),
-                rs.getString("class"),
-                rs.getString("type"),
-                rs.getInt("rank_address")
-        );
+        return completeRows(template.query(selectOsmlineSql + " FROM location_property_osmline WHERE place_id = ANY(?)",
+                ps -> setPlaceIdArray(ps, placeIds), osmlineRowMapper));
+    }
+
+    private Map<Long, List<PhotonDoc>> completeRows(List<IncompleteResult> rows) {
+        List<PhotonDoc> docs = new ArrayList<>(rows.size());
+        for (IncompleteResult row : rows) {
+            docs.add(row.getDoc());
+        }
+        List<List<AddressRow>> addresses = getAddresses(docs);
+
+        Map<Long, List<PhotonDoc>> results = new HashMap<>();
+        for (int i = 0; i < rows.size(); ++i) {
+            results.put(docs.get(i).getPlaceId(), completeResult(rows.get(i), addresses.get(i)).getDocsWithHousenumber());
+        }
 
+        return results;
+    }
+
+    List<AddressRow> getAddresses(PhotonDoc doc) {
         AddressType atype = doc.getAddressType();
 
         if (atype == null || atype == AddressType.COUNTRY) {
@@ -207,20 +435,20 @@ public class NominatimConnector {
 
         if (atype == AddressType.HOUSE) {
             long placeId = doc.getParentPlaceId();
-            if (placeId != parentPlaceId) {
-                parentTerms = template.query(SELECT_COLS_ADDRESS
+            terms = addressCache.get(placeId);
+            if (terms == null) {
+                terms = template.query(SELECT_COLS_ADDRESS
                                 + " FROM placex p, place_addressline pa"
                                 + " WHERE p.place_id = pa.address_place_id and pa.place_id = ?"
                                 + " and pa.cached_rank_address > 4 and pa.address_place_id != ? and pa.isaddress"
                                 + " ORDER BY rank_address desc, fromarea desc, distance asc, rank_search desc",
-                        rowMapper, placeId, placeId);
+                        addressRowMapper, placeId, placeId);
 
                 // need to add the term for the parent place ID itself
-                parentTerms.addAll(0, template.query(SELECT_COLS_ADDRESS + " FROM placex p WHERE p.place_id = ?",
-                        rowMapper, placeId));
-                parentPlaceId = placeId;
+                terms.addAll(0, template.query(SELECT_COLS_ADDRESS + " FROM placex p WHERE p.place_id = ?",
+                        addressRowMapper, placeId));
+                addressCache.put(placeId, terms);
             }
-            terms = parentTerms;
 
         } else {
             long placeId = doc.getPlaceId();
@@ -229,12 +457,98 @@ public class NominatimConnector {
                             + " WHERE p.place_id = pa.address_place_id and pa.place_id = ?"
                             + " and pa.cached_rank_address > 4 and pa.address_place_id != ? and pa.isaddress"
                             + " ORDER BY rank_address desc, fromarea desc, distance asc, rank_search desc",
-                    rowMapper, placeId, placeId);
+                    addressRowMapper, placeId, placeId);
         }
 
         return terms;
     }
 
+    /**
+     * Look up the address terms for a list of documents with a constant number of queries.
+     *
+     * The result is equivalent to calling {@link #getAddresses(PhotonDoc)} for each document.
+     *
+     * @return A list with the address terms for each document, in the order of the input list.
+     */
+    List<List<AddressRow>> getAddresses(List<PhotonDoc> docs) {
+        Set<Long> placeIds = new HashSet<>();
+        Map<Long, List<AddressRow>> parentTerms = new HashMap<>();
+        for (PhotonDoc doc : docs) {
+            AddressType atype = doc.getAddressType();
+            if (atype == AddressType.HOUSE) {
+                long parentId = doc.getParentPlaceId();
+                if (!parentTerms.containsKey(parentId)) {
+                    // null marks parents whose terms still need to be looked up
+                    parentTerms.put(parentId, addressCache.get(parentId));
+                }
+            } else if (atype != null && atype != AddressType.COUNTRY) {
+                placeIds.add(doc.getPlaceId());
+            }
+        }
+
+        Set<Long> parentIds = new HashSet<>();
+        for (Map.Entry<Long, List<AddressRow>> entry : parentTerms.entrySet()) {
+            if (entry.getValue() == null) {
+                parentIds.add(entry.getKey());
+            }
+        }
+
+        Map<Long, List<AddressRow>> addresslines = new HashMap<>();
+        Set<Long> lineIds = new HashSet<>(placeIds);
+        lineIds.addAll(parentIds);
+        if (!lineIds.isEmpty()) {
+            template.query(SELECT_COLS_ADDRESS + ", pa.place_id AS for_place_id"
+                            + " FROM placex p, place_addressline pa"
+                            + " WHERE p.place_id = pa.address_place_id and pa.place_id = ANY(?)"
+                            + " and pa.cached_rank_address > 4 and pa.address_place_id != pa.place_id and pa.isaddress"
+                            + " ORDER BY pa.place_id, rank_address desc, fromarea desc, distance asc, rank_search desc",
+                    ps -> setPlaceIdArray(ps, lineIds),
+                    rs -> {
+                        addresslines.computeIfAbsent(rs.getLong("for_place_id"), k -> new ArrayList<>())
+                                .add(addressRowMapper.mapRow(rs, 0));
+                    });
+        }
+
+        if (!parentIds.isEmpty()) {
+            // need to add the term for the parent place ID itself
+            Map<Long, AddressRow> parentRows = new HashMap<>();
+            template.query(SELECT_COLS_ADDRESS + ", p.place_id AS for_place_id FROM placex p WHERE p.place_id = ANY(?)",
+                    ps -> setPlaceIdArray(ps, parentIds),
+                    rs -> {
+                        parentRows.put(rs.getLong("for_place_id"), addressRowMapper.mapRow(rs, 0));
+                    });
+
+            for (Long parentId : parentIds) {
+                List<AddressRow> terms = new ArrayList<>();
+                AddressRow parentRow = parentRows.get(parentId);
+                if (parentRow != null) {
+                    terms.add(parentRow);
+                }
+                terms.addAll(addresslines.getOrDefault(parentId, Collections.emptyList()));
+                parentTerms.put(parentId, terms);
+                addressCache.put(parentId, terms);
+            }
+        }
+
+        List<List<AddressRow>> results = new ArrayList<>(docs.size());
+        for (PhotonDoc doc : docs) {
+            AddressType atype = doc.getAddressType();
+            if (atype == AddressType.HOUSE) {
+                results.add(parentTerms.get(doc.getParentPlaceId()));
+            } else if (atype != null && atype != AddressType.COUNTRY) {
+                results.add(addresslines.getOrDefault(doc.getPlaceId(), Collections.emptyList()));
+            } else {
+                results.add(Collections.emptyList());
+            }
+        }
+
+        return results;
+    }
+
+    static void setPlaceIdArray(PreparedStatement ps, Collection<Long> placeIds) throws SQLException {
+        ps.setArray(1, ps.getConnection().createArrayOf("bigint", placeIds.toArray()));
+    }
+
     static String convertCountryCode(String... countryCodes) {
         String countryCodeStr = "";
         for (String cc : countryCodes) {
@@ -262,45 +576,475 @@ public class NominatimConnector {
 
         log.info("start importing documents from nominatim (" + (countryCodeStr.isEmpty() ? "global" : countryCodeStr) + ")");
 
-        ImportThread importThread = new ImportThread(importer);
+        final ImportCheckpoint checkpoint = checkpointStore == null ? null : prepareCheckpoint(countryCodeStr);
+        ImportThread importThread = new ImportThread(importer, converterThreads, importQueueSize, metrics);
+        CheckpointTracker tracker = null;
+
+        try {
+            if (checkpoint != null) {
+                // Sector ranges are the unit of the checkpoint, so they are used with one reader as well.
+                tracker = new CheckpointTracker(checkpoint, importThread);
+                readSectorsInParallel(importThread, andCountryCodeStr, checkpoint.getSectorRanges(), tracker);
+            } else if (readerThreads > 1) {
+                readSectorsInParallel(importThread, andCountryCodeStr, getSectorRanges(), null);
+            } else {
+                readPlacex(importThread, andCountryCodeStr);
+                readOsmlines(importThread, andCountryCodeStr);
+            }
+        } finally {
+            importThread.finish();
+            if (tracker != null) {
+                // Everything read so far has been written now, even when the import failed.
+                tracker.saveAllRead();
+            }
+        }
+
+        if (checkpoint != null) {
+            try {
+                checkpointStore.clear();
+            } catch (IOException e) {
+                log.warn("Cannot remove import checkpoint.", e);
+            }
+        }
+
+        log.info(String.format("address cache: %d hits, %d misses, %d shared names", addressCache.getHits(), addressCache.getMisses(), namePool.size()));
+    }
+
+    /**
+     * Export all placex rows matching the given additional SQL condition.
+     *
+     * @return Number of rows read.
+     */
+    private long readPlacex(ImportThread importThread, String andWhereStr) {
+        final AddressBatch batch = new AddressBatch(importThread);
+        if (copyExport) {
+            copyRows(COPY_COLS_PLACEX + " FROM placex " +
+                    " WHERE linked_place_id IS NULL AND centroid IS NOT NULL " + andWhereStr +
+                    " ORDER BY geometry_sector, parent_place_id", this::mapCopiedPlace, batch);
+            return batch.rows;
+        }
+
+        template.query(SELECT_COLS_PLACEX + " FROM placex " +
+                " WHERE linked_place_id IS NULL AND centroid IS NOT NULL " + andWhereStr +
+                " ORDER BY geometry_sector, parent_place_id; ", rs -> {
+            // turns a placex row into a photon document that gathers all de-normalised information
+            IncompleteResult row = placeRowMapper.mapRow(rs, 0);
+            assert (row != null);
+            batch.add(row);
+        });
+        batch.flush();
+
+        return batch.rows;
+    }
+
+    /**
+     * Export all interpolation lines matching the given additional SQL condition.
+     *
+     * @return Number of rows read.
+     */
+    private long readOsmlines(ImportThread importThread, String andWhereStr) {
+        final AddressBatch batch = new AddressBatch(importThread);
+        if (copyExport) {
+            copyRows("SELECT place_id::int8, osm_id::int8, parent_place_id::int8, startnumber::int8, endnumber::int8, "
+                    + (newStyleInterpolations ? "step::int8" : "interpolationtype::text")
+                    + ", postcode::text, country_code::text, ST_AsBinary(linegeo) FROM location_property_osmline "
+                    + "WHERE startnumber is not null " + andWhereStr
+                    + " ORDER BY geometry_sector, parent_place_id", this::mapCopiedOsmline, batch);
+            return batch.rows;
+        }
+
+        template.query(selectOsmlineSql + " FROM location_property_osmline " +
+                "WHERE startnumber is not null " +
+                andWhereStr +
+                " ORDER BY geometry_sector, parent_place_id; ", rs -> {
+            IncompleteResult row = osmlineRowMapper.mapRow(rs, 0);
+            assert (row != null);
+            batch.add(row);
+        });
+        batch.flush();
 
+        return batch.rows;
+    }
+
+    /**
+     * Maps a row read with {@link BinaryCopyReader} to a result.
+     */
+    private interface CopyRowMapper {
+        IncompleteResult mapRow(BinaryCopyReader row) throws IOException;
+    }
+
+    /**
+     * Run the query with COPY in binary format and hand the mapped rows to the batch.
+     */
+    private void copyRows(String sql, CopyRowMapper mapper, AddressBatch batch) {
+        template.execute((ConnectionCallback<Void>) con -> {
+            try (InputStream in = new PGCopyInputStream(con.unwrap(PGConnection.class),
+                                                        "COPY (" + sql + ") TO STDOUT (FORMAT binary)")) {
+                BinaryCopyReader reader = new BinaryCopyReader(in);
+                while (reader.nextRow()) {
+                    batch.add(mapper.mapRow(reader));
+                }
+            } catch (IOException e) {
+                throw new SQLException("Cannot read COPY data.", e);
+            }
+            return null;
+        });
+        batch.flush();
+    }
+
+    /**
+     * Same as {@link #placeRowMapper} for the columns in {@link #COPY_COLS_PLACEX}.
+     */
+    private IncompleteResult mapCopiedPlace(BinaryCopyReader row) throws IOException {
+        PhotonDoc doc = new PhotonDoc(row.getLong(), row.getString(), row.getLong(), row.getString(), row.getString())
+                .names(dbutils.filterMap(row.getHstore(), "name"))
+                .postcode(row.getString());
+        Map<String, String> address = dbutils.filterMap(row.getHstore(), "address");
+        doc.extraTags(namePool.intern(dbutils.filterMap(row.getHstore(), "extratags")));
+
+        // A bbox is only set when all four coordinates are there.
+        final double minX = row.getDouble();
+        boolean hasBbox = !row.wasNull();
+        final double minY = row.getDouble();
+        hasBbox &= !row.wasNull();
+        final double maxX = row.getDouble();
+        hasBbox &= !row.wasNull();
+        final double maxY = row.getDouble();
+        hasBbox &= !row.wasNull();
+        if (hasBbox) {
+            doc.bbox(minX, minY, maxX, maxY);
+        }
+
+        doc.parentPlaceId(row.getLong())
+                .linkedPlaceId(row.getLong())
+                .rankAddress(row.getInt());
+        final int rankSearch = row.getInt();
+        final double importance = row.getDouble();
+        doc.importance(row.wasNull() ? (0.75 - rankSearch / 40d) : importance);
+
+        final String countryCode = row.getString();
+        doc.countryCode(countryCode)
+                .centroid(row.getDouble(), row.getDouble());
+
+        NominatimResult result = new NominatimResult(doc);
+        result.addHousenumbersFromAddress(address);
+
+        return new IncompleteResult(result, address, countryCode);
+    }
+
+    /**
+     * Same as {@link #osmlineRowMapper} for rows read with COPY.
+     */
+    private IncompleteResult mapCopiedOsmline(BinaryCopyReader row) throws IOException {
+        final long placeId = row.getLong();
+        final long osmId = row.getLong();
+        final long parentPlaceId = row.getLong();
+        final long startnumber = row.getLong();
+        final long endnumber = row.getLong();
+        final long step = newStyleInterpolations ? row.getLong() : 0;
+        final String interpolationtype = newStyleInterpolations ? null : row.getString();
+        final String postcode = row.getString();
+        final String countryCode = row.getString();
+
+        final Geometry geometry;
         try {
-            template.query(SELECT_COLS_PLACEX + " FROM placex " +
-                    " WHERE linked_place_id IS NULL AND centroid IS NOT NULL " + andCountryCodeStr +
-                    " ORDER BY geometry_sector, parent_place_id; ", rs -> {
-                // turns a placex row into a photon document that gathers all de-normalised information
-                NominatimResult docs = placeRowMapper.mapRow(rs, 0);
-                assert (docs != null);
-
-                if (docs.isUsefulForIndex()) {
-                    importThread.addDocument(docs);
+            geometry = new WKBReader(GEOMETRY_FACTORY).read(row.getBytes());
+        } catch (ParseException e) {
+            throw new IOException("Cannot parse interpolation line of place " + placeId, e);
+        }
+
+        PhotonDoc doc = new PhotonDoc(placeId, "W", osmId, "place", "house_number")
+                .parentPlaceId(parentPlaceId)
+                .countryCode(countryCode)
+                .postcode(postcode);
+
+        NominatimResult result = new NominatimResult(doc);
+        if (newStyleInterpolations) {
+            result.addHouseNumbersFromInterpolation(startnumber, endnumber, step, geometry);
+        } else {
+            result.addHouseNumbersFromInterpolation(startnumber, endnumber, interpolationtype, geometry);
+        }
+
+        return new IncompleteResult(result, null, countryCode);
+    }
+
+    /**
+     * Collects exported rows until enough are available to look up their
+     * addresses with a single query, then hands the completed results
+     * over to the import thread.
+     */
+    private class AddressBatch {
+        private final ImportThread importThread;
+        private final List<IncompleteResult> pending = new ArrayList<>(ADDRESS_BATCH_SIZE);
+        private long rows = 0;
+
+        AddressBatch(ImportThread importThread) {
+            this.importThread = importThread;
+        }
+
+        void add(IncompleteResult row) {
+            ++rows;
+            metrics.rowsRead(1);
+            // Usefulness does not depend on the address, so skip the lookup for unusable rows.
+            if (row.result.isUsefulForIndex()) {
+                pending.add(row);
+                if (pending.size() >= ADDRESS_BATCH_SIZE) {
+                    flush();
                 }
-            });
+            }
+        }
+
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            List<PhotonDoc> docs = new ArrayList<>(pending.size());
+            for (IncompleteResult row : pending) {
+                docs.add(row.getDoc());
+            }
+            final long lookupStart = System.nanoTime();
+            List<List<AddressRow>> addresses = getAddresses(docs);
+            metrics.addressQuery(System.nanoTime() - lookupStart);
+
+            List<NominatimResult> results = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); ++i) {
+                results.add(completeResult(pending.get(i), addresses.get(i)));
+            }
+            importThread.addDocuments(results);
+            pending.clear();
+        }
+    }
 
-            template.query(selectOsmlineSql + " FROM location_property_osmline " +
-                    "WHERE startnumber is not null " +
-                    andCountryCodeStr +
-                    " ORDER BY geometry_sector, parent_place_id; ", rs -> {
-                NominatimResult docs = osmlineRowMapper.mapRow(rs, 0);
-                assert (docs != null);
+    /**
+     * Export placex and interpolations with {@link #readerThreads} threads.
+     *
+     * Each thread takes the next free sector range from a shared queue and exports
+     * it on its own database connection until no ranges are left.
+     *
+     * @param ranges  Sector ranges to export.
+     * @param tracker When not null, phases already completed according to
+     *                the checkpoint are skipped and progress is recorded.
+     */
+    private void readSectorsInParallel(ImportThread importThread, String andCountryCodeStr,
+                                       List<SectorRange> ranges, CheckpointTracker tracker) {
+        // Fill the country name cache before the readers start using it.
+        getCountryNames(null);
 
-                if (docs.isUsefulForIndex()) {
-                    importThread.addDocument(docs);
+        final Queue<SectorRange> sectorRanges = new ConcurrentLinkedQueue<>();
+        for (SectorRange range : ranges) {
+            if (tracker == null || !tracker.isCompleted(ImportCheckpoint.PHASE_PLACEX, range)
+                    || !tracker.isCompleted(ImportCheckpoint.PHASE_OSMLINE, range)) {
+                sectorRanges.add(range);
+            }
+        }
+        log.info(String.format("exporting %d of %d sector ranges with %d reader threads", sectorRanges.size(), ranges.size(), readerThreads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(readerThreads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < readerThreads; ++i) {
+            final int workerId = i;
+            workers.add(executor.submit(() -> {
+                final long startMillis = System.currentTimeMillis();
+                long rows = 0;
+                try {
+                    SectorRange range;
+                    while ((range = sectorRanges.poll()) != null) {
+                        final String andWhereStr = "AND " + range.toSql() + " " + andCountryCodeStr;
+                        if (tracker == null || !tracker.isCompleted(ImportCheckpoint.PHASE_PLACEX, range)) {
+                            rows += readPlacex(importThread, andWhereStr);
+                            if (tracker != null) {
+                                tracker.phaseRead(ImportCheckpoint.PHASE_PLACEX, range);
+                            }
+                        }
+                        if (tracker == null || !tracker.isCompleted(ImportCheckpoint.PHASE_OSMLINE, range)) {
+                            rows += readOsmlines(importThread, andWhereStr);
+                            if (tracker != null) {
+                                tracker.phaseRead(ImportCheckpoint.PHASE_OSMLINE, range);
+                            }
+                        }
+
+                        final double rowsPerSecond = 1000d * rows / Math.max(1, System.currentTimeMillis() - startMillis);
+                        log.info(String.format("reader %d: finished %s, read %d rows [%.1f/second], %d ranges left",
+                                workerId, range, rows, rowsPerSecond, sectorRanges.size()));
+                    }
+                } catch (RuntimeException e) {
+                    // Stop the other readers as well, the import is incomplete anyway.
+                    sectorRanges.clear();
+                    throw e;
                 }
-            });
+                log.info(String.format("reader %d: done, read %d rows", workerId, rows));
+            }));
+        }
+        executor.shutdown();
 
-        } finally {
-            importThread.finish();
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for reader threads.", e);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            throw new RuntimeException("Reading from the database failed.", e.getCause());
         }
     }
 
     /**
-     * querying nominatim's address hierarchy to complete photon doc with missing data (like country, city, street, ...)
+     * Get the checkpoint to continue from or start a new one.
+     */
+    private ImportCheckpoint prepareCheckpoint(String countryCodeStr) {
+        try {
+            if (resumeImport) {
+                ImportCheckpoint previous = checkpointStore.load();
+                if (previous != null && previous.getCountryCodes().equals(countryCodeStr)) {
+                    log.info(String.format("continuing import from checkpoint, %d of %d sector ranges left",
+                            previous.countPendingRanges(), previous.getSectorRanges().size()));
+                    return previous;
+                }
+                if (previous != null) {
+                    log.warn("Import checkpoint was made with different country codes. Starting from the beginning.");
+                } else {
+                    log.warn("No import checkpoint found. Starting from the beginning.");
+                }
+            }
+
+            ImportCheckpoint checkpoint = new ImportCheckpoint()
+                    .setCountryCodes(countryCodeStr)
+                    .setSectorRanges(getSectorRanges());
+            checkpointStore.save(checkpoint);
+            return checkpoint;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot access import checkpoint.", e);
+        }
+    }
+
+    /**
+     * Records which export phases have been read and saves them in the checkpoint
+     * once the import thread reports that all their documents have been written.
+     */
+    private class CheckpointTracker {
+        private final ImportCheckpoint checkpoint;
+        private final ImportThread importThread;
+        private final List<String> readTasks = new ArrayList<>();
+        private long lastSyncMillis = System.currentTimeMillis();
+
+        CheckpointTracker(ImportCheckpoint checkpoint, ImportThread importThread) {
+            this.checkpoint = checkpoint;
+            this.importThread = importThread;
+        }
+
+        boolean isCompleted(String phase, SectorRange range) {
+            return checkpoint.isCompleted(phase, range);
+        }
+
+        /**
+         * Note that all documents of the given phase have been handed to the import thread.
+         */
+        void phaseRead(String phase, SectorRange range) {
+            final List<String> tasks;
+            synchronized (this) {
+                readTasks.add(ImportCheckpoint.taskName(phase, range));
+
+                final long now = System.currentTimeMillis();
+                if (now - lastSyncMillis < checkpointIntervalMillis) {
+                    return;
+                }
+                lastSyncMillis = now;
+                tasks = new ArrayList<>(readTasks);
+            }
+
+            // The documents of all tasks read so far are in the queue in front of the sync.
+            importThread.sync(() -> save(tasks));
+        }
+
+        /**
+         * Save all phases read so far. Only to be called when the import thread has finished.
+         */
+        void saveAllRead() {
+            final List<String> tasks;
+            synchronized (this) {
+                tasks = new ArrayList<>(readTasks);
+            }
+            save(tasks);
+        }
+
+        private void save(List<String> tasks) {
+            checkpoint.markCompleted(tasks);
+            try {
+                checkpointStore.save(checkpoint);
+                log.info(String.format("saved import checkpoint, %d of %d sector ranges left",
+                        checkpoint.countPendingRanges(), checkpoint.getSectorRanges().size()));
+            } catch (IOException e) {
+                log.error("Cannot save import checkpoint.", e);
+            }
+        }
+    }
+
+    /**
+     * Split the geometry_sector key space into ranges of roughly equal size.
+     * An additional range catches rows without a sector.
+     */
+    List<SectorRange> getSectorRanges() {
+        RowMapper<long[]> boundsMapper = (rs, rowNum) -> {
+            long min = rs.getLong(1);
+            return rs.wasNull() ? null : new long[]{min, rs.getLong(2)};
+        };
+        List<long[]> bounds = new ArrayList<>();
+        bounds.add(template.queryForObject("SELECT min(geometry_sector), max(geometry_sector) FROM placex", boundsMapper));
+        bounds.add(template.queryForObject("SELECT min(geometry_sector), max(geometry_sector) FROM location_property_osmline", boundsMapper));
+
+        long minSector = Long.MAX_VALUE;
+        long maxSector = Long.MIN_VALUE;
+        for (long[] bound : bounds) {
+            if (bound != null) {
+                minSector = Math.min(minSector, bound[0]);
+                maxSector = Math.max(maxSector, bound[1]);
+            }
+        }
+
+        List<SectorRange> ranges = new ArrayList<>();
+        if (minSector <= maxSector) {
+            final long numRanges = (long) readerThreads * SECTOR_RANGES_PER_THREAD;
+            final long rangeSize = Math.max(1, (maxSector - minSector + numRanges) / numRanges);
+            for (long start = minSector; start <= maxSector; start += rangeSize) {
+                ranges.add(SectorRange.between(start, Math.min(maxSector, start + rangeSize - 1)));
+            }
+        }
+        ranges.add(SectorRange.nullSector());
+
+        return ranges;
+    }
+
+    /**
+     * Fill in the information from the address hierarchy and the country names.
+     *
+     * @param row       Result as read from the database.
+     * @param addresses Address terms for the result as returned by {@link #getAddresses}.
+     *
+     * @return The completed result.
+     */
+    private NominatimResult completeResult(IncompleteResult row, List<AddressRow> addresses) {
+        PhotonDoc doc = row.getDoc();
+
+        completePlace(doc, addresses);
+        // Add address last, so it takes precedence.
+        doc.address(row.address);
+
+        doc.setCountry(getCountryNames(row.countryCode));
+
+        return row.result;
+    }
+
+    /**
+     * complete photon doc with missing data from nominatim's address hierarchy (like country, city, street, ...)
      *
      * @param doc
+     * @param addresses
      */
-    private void completePlace(PhotonDoc doc) {
-        final List<AddressRow> addresses = getAddresses(doc);
+    private void completePlace(PhotonDoc doc, List<AddressRow> addresses) {
         final AddressType doctype = doc.getAddressType();
         for (AddressRow address : addresses) {
             AddressType atype = address.getAddressType();
@@ -1,28 +1,71 @@
 package de.komoot.photon.nominatim;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.linearref.LengthIndexedLine;
 import de.komoot.photon.PhotonDoc;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 /**
  * A Nominatim result consisting of the basic PhotonDoc for the object
- * and a map of attached house numbers together with their respective positions.
+ * and the house numbers attached to it.
+ *
+ * House numbers from interpolation lines are only stored as a range. The
+ * documents and positions for the single house numbers are created one by one
+ * while iterating over them in {@link #forEachDocWithHousenumber}.
  */
 class NominatimResult {
     private PhotonDoc doc;
-    private Map<String, Point> housenumbers;
+    private Set<String> housenumbers;
+    private List<Interpolation> interpolations;
 
     private final Pattern HOUSENUMBER_CHECK = Pattern.compile("(\\A|.*,)[^\\d,]{3,}(,.*|\\Z)");
     private final Pattern HOUSENUMBER_SPLIT = Pattern.compile("\\s*[;,]\\s*");
 
+    /**
+     * House numbers first + num, first + num + step, ... below end, placed
+     * along an interpolation line.
+     */
+    private static class Interpolation {
+        private final LengthIndexedLine line;
+        private final double startIndex;
+        private final double lstep;
+        private final long first;
+        private final long num;
+        private final long step;
+        private final long end;
+
+        Interpolation(Geometry geom, long first, long last, long num, long step, long end) {
+            this.line = new LengthIndexedLine(geom);
+            this.startIndex = line.getStartIndex();
+            this.lstep = (line.getEndIndex() - startIndex) / (double) (last - first);
+            this.first = first;
+            this.num = num;
+            this.step = step;
+            this.end = end;
+        }
+
+        int size() {
+            return first + num < end ? (int) ((end - first - num - 1) / step + 1) : 0;
+        }
+
+        boolean contains(long housenumber) {
+            final long offset = housenumber - first - num;
+            return offset >= 0 && housenumber < end && offset % step == 0;
+        }
+
+        Coordinate getCoordinate(long housenumber) {
+            return line.extractPoint(startIndex + lstep * (housenumber - first));
+        }
+    }
+
     public NominatimResult(PhotonDoc baseobj) {
         doc = baseobj;
         housenumbers = null;
+        interpolations = null;
     }
 
     PhotonDoc getBaseDoc() {
@@ -30,22 +73,104 @@ class NominatimResult {
     }
 
     boolean isUsefulForIndex() {
-        return (housenumbers != null && !housenumbers.isEmpty()) || doc.isUsefulForIndex();
+        return hasHousenumbers() || doc.isUsefulForIndex();
     }
 
-    List<PhotonDoc> getDocsWithHousenumber() {
-        if (housenumbers == null || housenumbers.isEmpty()) {
-            return Collections.singletonList(doc);
+    private boolean hasHousenumbers() {
+        if (housenumbers != null && !housenumbers.isEmpty()) {
+            return true;
         }
 
-        List<PhotonDoc> results = new ArrayList<>(housenumbers.size());
-        for (Map.Entry<String, Point> e : housenumbers.entrySet()) {
-            PhotonDoc copy = new PhotonDoc(doc);
-            copy.houseNumber(e.getKey());
-            copy.centroid(e.getValue());
-            results.add(copy);
+        if (interpolations != null) {
+            for (Interpolation interpolation : interpolations) {
+                if (interpolation.size() > 0) {
+                    return true;
+                }
+            }
         }
 
+        return false;
+    }
+
+    /**
+     * Number of documents this result expands to. May be too large when
+     * the same house number was added more than once.
+     */
+    int maxDocCount() {
+        int count = housenumbers == null ? 0 : housenumbers.size();
+        if (interpolations != null) {
+            for (Interpolation interpolation : interpolations) {
+                count += interpolation.size();
+            }
+        }
+
+        return count == 0 ? 1 : count;
+    }
+
+    /**
+     * Hand each document for this result to the given consumer, one
+     * document per house number or the base document, if there are no
+     * house numbers.
+     *
+     * The documents are created on the fly, so the consumer should not hold
+     * on to them longer than necessary.
+     *
+     * @return The number of documents handed to the consumer.
+     */
+    int forEachDocWithHousenumber(Consumer<PhotonDoc> consumer) {
+        int count = 0;
+
+        if (housenumbers != null) {
+            for (String housenumber : housenumbers) {
+                consumer.accept(new PhotonDoc(doc).houseNumber(housenumber));
+                ++count;
+            }
+        }
+
+        if (interpolations != null) {
+            for (int i = 0; i < interpolations.size(); ++i) {
+                final Interpolation interpolation = interpolations.get(i);
+                for (long num = interpolation.first + interpolation.num; num < interpolation.end; num += interpolation.step) {
+                    final String housenumber = String.valueOf(num);
+                    if (!isAddedLater(housenumber, num, i)) {
+                        final Coordinate position = interpolation.getCoordinate(num);
+                        consumer.accept(new PhotonDoc(doc).houseNumber(housenumber).centroid(position.x, position.y));
+                        ++count;
+                    }
+                }
+            }
+        }
+
+        if (count == 0) {
+            consumer.accept(doc);
+            count = 1;
+        }
+
+        return count;
+    }
+
+    /**
+     * Check if an interpolated house number is also set explicitly or by a later
+     * interpolation, in which case that one takes precedence.
+     */
+    private boolean isAddedLater(String housenumber, long num, int interpolationIndex) {
+        if (housenumbers != null && housenumbers.contains(housenumber)) {
+            return true;
+        }
+
+        for (int i = interpolationIndex + 1; i < interpolations.size(); ++i) {
+            if (interpolations.get(i).contains(num)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    List<PhotonDoc> getDocsWithHousenumber() {
+        List<PhotonDoc> results = new ArrayList<>(maxDocCount());
+        forEachDocWithHousenumber(results::add);
+
         return results;
     }
 
@@ -69,13 +194,13 @@ class NominatimResult {
         }
 
         if (housenumbers == null)
-            housenumbers = new HashMap<>();
+            housenumbers = new HashSet<>();
 
         String[] parts = HOUSENUMBER_SPLIT.split(str);
         for (String part : parts) {
             String h = part.trim();
             if (h.length() <= 20 && !h.isEmpty())
-                housenumbers.put(h, doc.getCentroid());
+                housenumbers.add(h);
         }
     }
 
@@ -105,31 +230,20 @@ class NominatimResult {
         if (last <= first || (last - first) > 1000)
             return;
 
-        if (housenumbers == null)
-            housenumbers = new HashMap<>();
-
-        LengthIndexedLine line = new LengthIndexedLine(geom);
-        double si = line.getStartIndex();
-        double ei = line.getEndIndex();
-        double lstep = (ei - si) / (double) (last - first);
-
         // leave out first and last, they have a distinct OSM node that is already indexed
         long step = 2;
         long num = 1;
-        if (interpoltype.equals("odd")) {
+        if ("odd".equals(interpoltype)) {
             if (first % 2 == 1)
                 ++num;
-        } else if (interpoltype.equals("even")) {
+        } else if ("even".equals(interpoltype)) {
             if (first % 2 == 0)
                 ++num;
         } else {
             step = 1;
         }
 
-        GeometryFactory fac = geom.getFactory();
-        for (; first + num < last; num += step) {
-            housenumbers.put(String.valueOf(num + first), fac.createPoint(line.extractPoint(si + lstep * num)));
-        }
+        addInterpolation(new Interpolation(geom, first, last, num, step, last));
     }
 
     /**
@@ -147,17 +261,13 @@ class NominatimResult {
          if (last <= first || (last - first) > 1000)
             return;
 
-        if (housenumbers == null)
-            housenumbers = new HashMap<>();
+        addInterpolation(new Interpolation(geom, first, last, 1, step, last + 1));
+    }
 
-        LengthIndexedLine line = new LengthIndexedLine(geom);
-        double si = line.getStartIndex();
-        double ei = line.getEndIndex();
-        double lstep = (ei - si) / (double) (last - first);
+    private void addInterpolation(Interpolation interpolation) {
+        if (interpolations == null)
+            interpolations = new ArrayList<>();
 
-        GeometryFactory fac = geom.getFactory();
-        for (long num = 1; first + num <= last; num += step) {
-            housenumbers.put(String.valueOf(num + first), fac.createPoint(line.extractPoint(si + lstep * num)));
-        }
+        interpolations.add(interpolation);
     }
 }
@@ -7,15 +7,38 @@ import org.apache.commons.dbcp2.BasicDataSource;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 
+import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Nominatim update logic
  *
+ * Changed places are processed in batches per rank and sector: the documents
+ * of a batch are fetched from the database together and the batch is marked
+ * as indexed only after the index has accepted all its changes. The sectors
+ * of a rank may be processed by several threads in parallel.
+ *
+ * When an address place like a street or a city changes, the places that
+ * show it in their address are re-indexed afterwards as well.
+ *
  * @author felix
  */
 
@@ -28,106 +51,605 @@ public class NominatimUpdater {
 
     private static final int MIN_RANK = 1;
     private static final int MAX_RANK = 30;
+    private static final int UPDATE_BATCH_SIZE = 5000;
+    public static final int DEFAULT_CASCADE_LIMIT = 100000;
 
     private final JdbcTemplate       template;
     private final NominatimConnector exporter;
 
     private Updater updater;
 
+    private int updateThreads = 1;
+    private int cascadeLimit = DEFAULT_CASCADE_LIMIT;
+
+    /**
+     * Places and statistics of a single run of update() or updatePlaceIds().
+     */
+    private static class RunStatistics {
+        // Places that other places may take their address from.
+        final Set<Long> changedParents = ConcurrentHashMap.newKeySet();
+        // All places from placex and location_property_osmline handled by the run.
+        final Set<Long> updatedPlaceIds = ConcurrentHashMap.newKeySet();
+        final Set<Long> updatedInterpolationIds = ConcurrentHashMap.newKeySet();
+
+        final AtomicInteger updatedPlaces = new AtomicInteger();
+        final AtomicInteger deletedPlaces = new AtomicInteger();
+        final AtomicInteger updatedInterpolations = new AtomicInteger();
+        final AtomicInteger deletedInterpolations = new AtomicInteger();
+        final AtomicInteger interpolationDocuments = new AtomicInteger();
+        final AtomicInteger failedBatches = new AtomicInteger();
+        final AtomicLong indexedDocuments = new AtomicLong();
+        int cascadedPlaces = 0;
+    }
+
+    // The run in progress. Runs never overlap, they hold the update lock.
+    private volatile RunStatistics run = new RunStatistics();
+    // The running or last full update, which the progress getters report on.
+    private volatile RunStatistics fullUpdate = run;
+
+    // Progress of the running update.
+    private volatile int currentRank = 0;
+    private volatile int sectorCount = 0;
+    private final AtomicInteger sectorsDone = new AtomicInteger();
+
     /**
      * when updating lockout other threads
      */
     private ReentrantLock updateLock = new ReentrantLock();
 
+    /**
+     * Outcome of processing the changes of a list of places.
+     */
+    public enum ChangeResult {
+        /** All changes are in the index. */
+        COMPLETE,
+        /** Some changes could not be written. */
+        INCOMPLETE,
+        /** Another update is running, nothing has been processed. */
+        BUSY
+    }
+
     public void setUpdater(Updater updater) {
         this.updater = updater;
     }
 
-    public void update() {
+    /**
+     * Set the maximum number of parent places whose address terms are cached during an update.
+     */
+    public void setAddressCacheSize(int size) {
+        exporter.setAddressCacheSize(size);
+    }
+
+    /**
+     * Set the number of threads that process the sectors of a rank in parallel.
+     *
+     * Ranks are still processed one after another: a rank is only started
+     * when all sectors of the previous rank are done.
+     */
+    public void setUpdateThreads(int updateThreads) {
+        if (updateThreads < 1) {
+            throw new IllegalArgumentException("Number of update threads must be at least 1.");
+        }
+        this.updateThreads = updateThreads;
+
+        // Every thread needs one connection for reading places and one for resetting their status.
+        exporter.ensureConnections(updateThreads + 1);
+        NominatimConnector.ensurePoolSize(template.getDataSource(), updateThreads + 1);
+    }
+
+    /**
+     * Set the maximum number of dependent places that are re-indexed per
+     * update because one of their address parents changed. 0 disables it.
+     */
+    public void setCascadeLimit(int cascadeLimit) {
+        this.cascadeLimit = cascadeLimit;
+    }
+
+    /**
+     * Process all pending changes of the Nominatim database.
+     *
+     * @return True when all changes are in the index, false when the update
+     *         could not write all changes or another update was already running.
+     */
+    public boolean update() {
+        return update(new AtomicBoolean());
+    }
+
+    /**
+     * Process all pending changes of the Nominatim database, unless cancelled.
+     *
+     * @param cancel Set to true to stop this update. Batches that are being
+     *               processed are finished, everything else is left for the
+     *               next update. The flag only applies to this update.
+     *
+     * @return True when all changes are in the index, false when the update
+     *         was cancelled, could not write all changes or another update
+     *         was already running.
+     */
+    public boolean update(AtomicBoolean cancel) {
         if (updateLock.tryLock()) {
+            final AtomicInteger threadCounter = new AtomicInteger();
+            ExecutorService executor = updateThreads <= 1 ? null : Executors.newFixedThreadPool(updateThreads,
+                    r -> new Thread(r, "photon-update-" + threadCounter.getAndIncrement()));
             try {
-                int updatedPlaces = 0;
-                int deletedPlaces = 0;
-                for (int rank = MIN_RANK; rank <= MAX_RANK; rank++) {
+                startRun(true);
+                // Fill the country name cache before the update threads use it.
+                exporter.getCountryNames(null);
+
+                for (int rank = MIN_RANK; rank <= MAX_RANK && !cancel.get(); rank++) {
                     LOGGER.info(String.format("Starting rank %d", rank));
+                    final int sectorRank = rank;
+                    List<Runnable> tasks = new ArrayList<>();
                     for (Map<String, Object> sector : getIndexSectors(rank)) {
-                        for (UpdateRow place : getIndexSectorPlaces(rank, (Integer) sector.get("geometry_sector"))) {
-                            long placeId = place.getPlaceId();
-                            template.update("update placex set indexed_status = 0 where place_id = ?;", placeId);
-
-                            Integer indexedStatus = place.getIndexdStatus();
-                            if (indexedStatus == DELETE || (indexedStatus == UPDATE && rank == MAX_RANK)) {
-                                updater.delete(placeId);
-                                if (indexedStatus == DELETE) {
-                                    deletedPlaces++;
-                                    continue;
-                                }
-                                indexedStatus = CREATE; // always create
-                            }
-                            updatedPlaces++;
-
-                            final List<PhotonDoc> updatedDocs = exporter.getByPlaceId(place.getPlaceId());
-                            boolean wasUseful = false;
-                            for (PhotonDoc updatedDoc : updatedDocs) {
-                                if (updatedDoc.isUsefulForIndex()) {
-                                    updater.create(updatedDoc);
-                                    wasUseful = true;
-                                }
-                            }
-                            if (indexedStatus == UPDATE && !wasUseful) {
-                                // only true when rank != 30
-                                // if no documents for the place id exist this will likely cause moaning
-                                updater.delete(placeId);
-                                updatedPlaces--;
+                        final Integer geometrySector = (Integer) sector.get("geometry_sector");
+                        tasks.add(() -> {
+                            List<UpdateRow> places = getIndexSectorPlaces(sectorRank, geometrySector);
+                            for (int i = 0; i < places.size() && !cancel.get(); i += UPDATE_BATCH_SIZE) {
+                                updatePlaces(sectorRank, places.subList(i, Math.min(places.size(), i + UPDATE_BATCH_SIZE)));
                             }
-                        }
+                            sectorsDone.incrementAndGet();
+                        });
                     }
+                    startProgress(rank, tasks.size());
+                    runAll(executor, tasks);
                 }
 
-                LOGGER.info(String.format("%d places created or updated, %d deleted", updatedPlaces, deletedPlaces));
+                LOGGER.info(String.format("%d places created or updated, %d deleted", run.updatedPlaces.get(), run.deletedPlaces.get()));
 
                 // update documents generated from address interpolations
                 // .isUsefulForIndex() should always return true for documents
                 // created from interpolations so no need to check them
                 LOGGER.info("Starting interpolations");
-                int updatedInterpolations = 0;
-                int deletedInterpolations = 0;
-                int interpolationDocuments = 0;
-                for (Map<String, Object> sector : template.queryForList(
-                        "select geometry_sector,count(*) from location_property_osmline where indexed_status > 0 group by geometry_sector order by geometry_sector;")) {
-                    for (UpdateRow place : getIndexSectorInterpolations((Integer) sector.get("geometry_sector"))) {
-                        long placeId = place.getPlaceId();
-                        template.update("update location_property_osmline set indexed_status = 0 where place_id = ?;", placeId);
-
-                        Integer indexedStatus = place.getIndexdStatus();
-                        if (indexedStatus != CREATE) {
-                            updater.delete(placeId);
-                            if (indexedStatus == DELETE) {
-                                deletedInterpolations++;
-                                continue;
-                            }
+                List<Runnable> tasks = new ArrayList<>();
+                List<Map<String, Object>> interpolationSectors = cancel.get() ? Collections.emptyList() : template.queryForList(
+                        "select geometry_sector,count(*) from location_property_osmline where indexed_status > 0 group by geometry_sector order by geometry_sector;");
+                for (Map<String, Object> sector : interpolationSectors) {
+                    final Integer geometrySector = (Integer) sector.get("geometry_sector");
+                    tasks.add(() -> {
+                        List<UpdateRow> lines = getIndexSectorInterpolations(geometrySector);
+                        for (int i = 0; i < lines.size() && !cancel.get(); i += UPDATE_BATCH_SIZE) {
+                            updateInterpolations(lines.subList(i, Math.min(lines.size(), i + UPDATE_BATCH_SIZE)));
                         }
-                        updatedInterpolations++;
-
-                        final List<PhotonDoc> updatedDocs = exporter.getInterpolationsByPlaceId(place.getPlaceId());
-                        for (PhotonDoc updatedDoc : updatedDocs) {
-                            updater.create(updatedDoc);
-                            interpolationDocuments++;
-                        }
-                    }
+                        sectorsDone.incrementAndGet();
+                    });
+                }
+                startProgress(0, tasks.size());
+                runAll(executor, tasks);
+                LOGGER.info(String.format("%d interpolations created or updated, %d deleted, %d documents added or updated", run.updatedInterpolations.get(),
+                        run.deletedInterpolations.get(), run.interpolationDocuments.get()));
+                if (!cancel.get()) {
+                    updateDependents();
                 }
-                LOGGER.info(String.format("%d interpolations created or updated, %d deleted, %d documents added or updated", updatedInterpolations,
-                        deletedInterpolations, interpolationDocuments));
                 updater.finish();
-                template.update("update import_status set indexed=true;"); // indicate that we are finished
 
-                LOGGER.info("Finished updating");
+                final boolean cancelled = cancel.get();
+                final boolean complete = !cancelled && run.failedBatches.get() == 0;
+                if (complete) {
+                    template.update("update import_status set indexed=true;"); // indicate that we are finished
+                } else if (cancelled) {
+                    LOGGER.info("Update cancelled. The remaining changes will be processed with the next update.");
+                } else {
+                    LOGGER.error(String.format("%d batches could not be written to the index. They will be retried with the next update.",
+                            run.failedBatches.get()));
+                }
+
+                AddressCache addressCache = exporter.getAddressCache();
+                LOGGER.info(String.format("Finished updating (address cache: %d hits, %d misses)",
+                        addressCache.getHits(), addressCache.getMisses()));
+                return complete;
             } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+                startProgress(0, 0);
                 updateLock.unlock();
             }
         } else {
             LOGGER.info("Update already in progress");
+            return false;
+        }
+    }
+
+    /**
+     * Process the pending changes of the given places only.
+     *
+     * This is used for changes announced by the database. Places whose
+     * changes have already been processed in the meantime are skipped.
+     * Does not wait for a running update, so that a full update that takes
+     * hours does not hold up the caller. The places must be handed in again
+     * later in that case.
+     *
+     * @param placeIds Place ids from placex.
+     * @param interpolationIds Place ids from location_property_osmline.
+     *
+     * @return Whether the changes are in the index or the update was busy.
+     */
+    public ChangeResult updatePlaceIds(Collection<Long> placeIds, Collection<Long> interpolationIds) {
+        if (!updateLock.tryLock()) {
+            return ChangeResult.BUSY;
         }
+        try {
+            startRun(false);
+
+            if (!placeIds.isEmpty()) {
+                List<UpdateRow> places = template.query(
+                        "select place_id, indexed_status, rank_search from placex"
+                                + " where place_id = ANY(?) and indexed_status > 0 order by rank_search",
+                        ps -> NominatimConnector.setPlaceIdArray(ps, placeIds), (rs, rowNum) -> {
+                            UpdateRow updateRow = new UpdateRow();
+                            updateRow.setPlaceId(rs.getLong("place_id"));
+                            updateRow.setIndexdStatus(rs.getInt("indexed_status"));
+                            updateRow.setRankSearch(rs.getInt("rank_search"));
+                            return updateRow;
+                        });
+                // Parents must be in the index before their children, so go by rank as the full update does.
+                int start = 0;
+                for (int i = 1; i <= places.size(); ++i) {
+                    if (i == places.size() || !places.get(i).getRankSearch().equals(places.get(start).getRankSearch())
+                            || i - start == UPDATE_BATCH_SIZE) {
+                        updatePlaces(places.get(start).getRankSearch(), places.subList(start, i));
+                        start = i;
+                    }
+                }
+            }
+
+            if (!interpolationIds.isEmpty()) {
+                List<UpdateRow> lines = template.query(
+                        "select place_id, indexed_status from location_property_osmline"
+                                + " where place_id = ANY(?) and indexed_status > 0",
+                        ps -> NominatimConnector.setPlaceIdArray(ps, interpolationIds), (rs, rowNum) -> {
+                            UpdateRow updateRow = new UpdateRow();
+                            updateRow.setPlaceId(rs.getLong("place_id"));
+                            updateRow.setIndexdStatus(rs.getInt("indexed_status"));
+                            return updateRow;
+                        });
+                for (int i = 0; i < lines.size(); i += UPDATE_BATCH_SIZE) {
+                    updateInterpolations(lines.subList(i, Math.min(lines.size(), i + UPDATE_BATCH_SIZE)));
+                }
+            }
+
+            updateDependents();
+
+            LOGGER.info(String.format("%d places created or updated, %d deleted; %d interpolations created or updated, %d deleted; %d dependent places",
+                    run.updatedPlaces.get(), run.deletedPlaces.get(), run.updatedInterpolations.get(), run.deletedInterpolations.get(), run.cascadedPlaces));
+
+            return run.failedBatches.get() == 0 ? ChangeResult.COMPLETE : ChangeResult.INCOMPLETE;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Start counting for a new run. Only full updates are reported as progress,
+     * so pushed changes do not reset the numbers of the last full update.
+     */
+    private void startRun(boolean full) {
+        // The address hierarchy may have changed since the last run.
+        exporter.clearAddressCache();
+        run = new RunStatistics();
+        if (full) {
+            fullUpdate = run;
+        }
+    }
+
+    /**
+     * Re-index the places that take part of their address from a place
+     * that changed or was deleted in this update.
+     *
+     * Documents contain the names of their address parents, so they must be
+     * written again when a parent changes. place_addressline lists all address
+     * parts of a place, not only the closest one, so a single lookup finds all
+     * places whose own address lines contain a changed place. Houses take their
+     * address from their parent instead, so their parents are looked up once
+     * more among the changed places and the places found.
+     *
+     * Dependent places that cannot be written to the index are marked as
+     * updated in the database, so that the next update processes them. The same
+     * happens when more than cascadeLimit places depend on the changes, so that
+     * a rename of a very large area does not stall the running update.
+     */
+    private void updateDependents() {
+        if (cascadeLimit <= 0 || run.changedParents.isEmpty()) {
+            return;
+        }
+
+        final List<Long> parents = new ArrayList<>(run.changedParents);
+        final Set<Long> dependents = new LinkedHashSet<>();
+        collectDependents(dependents, parents, "select a.place_id from place_addressline a, placex p"
+                + " where a.address_place_id = ANY(?) and a.isaddress and a.place_id = p.place_id and p.indexed_status = 0");
+        final List<Long> houseParents = new ArrayList<>(parents);
+        houseParents.addAll(dependents);
+        collectDependents(dependents, houseParents,
+                "select place_id from placex where parent_place_id = ANY(?) and indexed_status = 0");
+
+        if (dependents.size() > cascadeLimit) {
+            // Leave them to the sector loop of the next update.
+            markUpdated("placex", parents, "place_id in (select a.place_id from place_addressline a"
+                    + " where a.address_place_id = ANY(?) and a.isaddress)");
+            markUpdated("placex", parents, "parent_place_id = ANY(?)");
+            markUpdated("location_property_osmline", parents, "parent_place_id = ANY(?)");
+            LOGGER.warn(String.format("More than %d places depend on %d changed places. They have been marked"
+                    + " and will be re-indexed by the next update.", cascadeLimit, parents.size()));
+            return;
+        }
+
+        final List<Long> placeIds = new ArrayList<>(dependents);
+        for (int i = 0; i < placeIds.size(); i += UPDATE_BATCH_SIZE) {
+            final List<Long> batch = placeIds.subList(i, Math.min(placeIds.size(), i + UPDATE_BATCH_SIZE));
+            for (List<PhotonDoc> docs : exporter.getByPlaceIds(batch).values()) {
+                for (PhotonDoc doc : docs) {
+                    if (doc.isUsefulForIndex()) {
+                        updater.create(doc);
+                        run.indexedDocuments.incrementAndGet();
+                    }
+                }
+            }
+            if (!updater.flush()) {
+                run.failedBatches.incrementAndGet();
+                markUpdated("placex", batch, "place_id = ANY(?)");
+                LOGGER.error(String.format("Could not write a batch of %d dependent places to the index.", batch.size()));
+            }
+        }
+
+        // Interpolations take the street name from their parent.
+        houseParents.clear();
+        houseParents.addAll(parents);
+        houseParents.addAll(placeIds);
+        final List<Long> lines = new ArrayList<>();
+        for (int i = 0; i < houseParents.size(); i += UPDATE_BATCH_SIZE) {
+            for (Long line : queryPlaceIds(
+                    "select place_id from location_property_osmline where parent_place_id = ANY(?) and indexed_status = 0",
+                    houseParents.subList(i, Math.min(houseParents.size(), i + UPDATE_BATCH_SIZE)))) {
+                if (!run.updatedInterpolationIds.contains(line)) {
+                    lines.add(line);
+                }
+            }
+        }
+        for (int i = 0; i < lines.size(); i += UPDATE_BATCH_SIZE) {
+            final List<Long> batch = lines.subList(i, Math.min(lines.size(), i + UPDATE_BATCH_SIZE));
+            for (List<PhotonDoc> docs : exporter.getInterpolationsByPlaceIds(batch).values()) {
+                for (PhotonDoc doc : docs) {
+                    updater.create(doc);
+                    run.indexedDocuments.incrementAndGet();
+                }
+            }
+            if (!updater.flush()) {
+                run.failedBatches.incrementAndGet();
+                markUpdated("location_property_osmline", batch, "place_id = ANY(?)");
+                LOGGER.error("Could not write a batch of dependent interpolations to the index.");
+            }
+        }
+
+        run.cascadedPlaces = placeIds.size() + lines.size();
+        LOGGER.info(String.format("Re-indexed %d places and %d interpolations depending on %d changed places.",
+                placeIds.size(), lines.size(), parents.size()));
+    }
+
+    /**
+     * Add the places found by the given query to the dependents. Stops once
+     * more than cascadeLimit places have been found.
+     */
+    private void collectDependents(Set<Long> dependents, List<Long> parents, String sql) {
+        for (int i = 0; i < parents.size() && dependents.size() <= cascadeLimit; i += UPDATE_BATCH_SIZE) {
+            for (Long child : queryPlaceIds(sql + " limit " + (cascadeLimit + 1),
+                    parents.subList(i, Math.min(parents.size(), i + UPDATE_BATCH_SIZE)))) {
+                if (!run.updatedPlaceIds.contains(child)) {
+                    dependents.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark indexed places matching the condition as updated, so that the next
+     * update re-indexes them. The condition is given the place ids in chunks.
+     */
+    private void markUpdated(String table, List<Long> placeIds, String condition) {
+        for (int i = 0; i < placeIds.size(); i += UPDATE_BATCH_SIZE) {
+            final List<Long> chunk = placeIds.subList(i, Math.min(placeIds.size(), i + UPDATE_BATCH_SIZE));
+            template.update("update " + table + " set indexed_status = " + UPDATE + " where indexed_status = 0 and " + condition,
+                    ps -> NominatimConnector.setPlaceIdArray(ps, chunk));
+        }
+    }
+
+    /**
+     * Rank the running update is working on. 0 when working on interpolations
+     * or when no update is running.
+     */
+    public int getCurrentRank() {
+        return currentRank;
+    }
+
+    /**
+     * Number of sectors of the current rank or of the interpolations.
+     */
+    public int getSectorCount() {
+        return sectorCount;
+    }
+
+    /**
+     * Number of sectors of the current rank or of the interpolations that are done.
+     */
+    public int getSectorsDone() {
+        return sectorsDone.get();
+    }
+
+    /**
+     * Number of documents handed to the index by the running or the last full update.
+     */
+    public long getIndexedDocuments() {
+        return fullUpdate.indexedDocuments.get();
+    }
+
+    private void startProgress(int rank, int sectors) {
+        currentRank = rank;
+        sectorCount = sectors;
+        sectorsDone.set(0);
+    }
+
+    /**
+     * Run the given tasks and wait until all of them are done.
+     *
+     * Without an executor, the tasks are run one after another in the calling thread.
+     * Otherwise the first error is rethrown once all tasks have ended.
+     */
+    private static void runAll(ExecutorService executor, List<Runnable> tasks) {
+        if (executor == null) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            futures.add(executor.submit(task));
+        }
+
+        RuntimeException error = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                // Restore interrupted state.
+                Thread.currentThread().interrupt();
+                for (Future<?> other : futures) {
+                    other.cancel(true);
+                }
+                throw new IllegalStateException("Interrupted while waiting for update threads.", e);
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Update the index for a batch of places from placex with the same rank.
+     *
+     * The documents are fetched with a single query and the places are only
+     * marked as indexed once the index has accepted all changes.
+     */
+    private void updatePlaces(int rank, List<UpdateRow> places) {
+        final List<UpdateRow> toIndex = new ArrayList<>(places.size());
+        final List<Long> toIndexIds = new ArrayList<>(places.size());
+        for (UpdateRow place : places) {
+            final long placeId = place.getPlaceId();
+
+            Integer indexedStatus = place.getIndexdStatus();
+            run.updatedPlaceIds.add(placeId);
+            if (rank < MAX_RANK && indexedStatus != CREATE) {
+                run.changedParents.add(placeId);
+            }
+            // Deleting first removes house numbers the place no longer has.
+            // Documents that are created again are kept by the updater.
+            if (indexedStatus == DELETE || indexedStatus == UPDATE) {
+                updater.delete(placeId);
+                if (indexedStatus == DELETE) {
+                    run.deletedPlaces.incrementAndGet();
+                    continue;
+                }
+            }
+            toIndex.add(place);
+            toIndexIds.add(placeId);
+        }
+
+        final Map<Long, List<PhotonDoc>> docs = exporter.getByPlaceIds(toIndexIds);
+        for (UpdateRow place : toIndex) {
+            run.updatedPlaces.incrementAndGet();
+
+            boolean wasUseful = false;
+            for (PhotonDoc updatedDoc : docs.getOrDefault(place.getPlaceId(), Collections.emptyList())) {
+                if (updatedDoc.isUsefulForIndex()) {
+                    updater.create(updatedDoc);
+                    run.indexedDocuments.incrementAndGet();
+                    wasUseful = true;
+                }
+            }
+            if (place.getIndexdStatus() == UPDATE && !wasUseful) {
+                run.updatedPlaces.decrementAndGet();
+            }
+        }
+
+        markIndexed("placex", places);
+    }
+
+    /**
+     * Update the index for a batch of interpolation lines.
+     */
+    private void updateInterpolations(List<UpdateRow> lines) {
+        final List<Long> toIndexIds = new ArrayList<>(lines.size());
+        for (UpdateRow line : lines) {
+            final long placeId = line.getPlaceId();
+            run.updatedInterpolationIds.add(placeId);
+
+            Integer indexedStatus = line.getIndexdStatus();
+            if (indexedStatus != CREATE) {
+                updater.delete(placeId);
+                if (indexedStatus == DELETE) {
+                    run.deletedInterpolations.incrementAndGet();
+                    continue;
+                }
+            }
+            run.updatedInterpolations.incrementAndGet();
+            toIndexIds.add(placeId);
+        }
+
+        for (List<PhotonDoc> updatedDocs : exporter.getInterpolationsByPlaceIds(toIndexIds).values()) {
+            for (PhotonDoc updatedDoc : updatedDocs) {
+                updater.create(updatedDoc);
+                run.interpolationDocuments.incrementAndGet();
+                run.indexedDocuments.incrementAndGet();
+            }
+        }
+
+        markIndexed("location_property_osmline", lines);
+    }
+
+    /**
+     * Reset the indexed status of the given places once their changes are in the index.
+     * When the index reports an error, the places stay marked for the next update.
+     *
+     * Only places that still have the status they were read with are reset.
+     * A place that changed again in the meantime stays marked, so that the
+     * newer change is picked up by the next update.
+     */
+    private void markIndexed(String table, List<UpdateRow> rows) {
+        if (!updater.flush()) {
+            run.failedBatches.incrementAndGet();
+            LOGGER.error(String.format("Could not write a batch of %d places from %s to the index.", rows.size(), table));
+            return;
+        }
+
+        final Map<Integer, List<Long>> byStatus = new HashMap<>();
+        for (UpdateRow row : rows) {
+            byStatus.computeIfAbsent(row.getIndexdStatus(), k -> new ArrayList<>()).add(row.getPlaceId());
+        }
+        for (Map.Entry<Integer, List<Long>> entry : byStatus.entrySet()) {
+            template.update("update " + table + " set indexed_status = 0 where place_id = ANY(?) and indexed_status = ?",
+                    ps -> {
+                        NominatimConnector.setPlaceIdArray(ps, entry.getValue());
+                        ps.setInt(2, entry.getKey());
+                    });
+        }
+    }
+
+    /**
+     * Run a query for place ids. Every parameter of the query is set to the given list of ids.
+     */
+    private List<Long> queryPlaceIds(String sql, List<Long> placeIds) {
+        return template.query(sql, ps -> {
+            final Array ids = ps.getConnection().createArrayOf("bigint", placeIds.toArray());
+            for (int i = 1; i <= ps.getParameterMetaData().getParameterCount(); ++i) {
+                ps.setArray(i, ids);
+            }
+        }, (rs, rowNum) -> rs.getLong(1));
     }
 
     private List<Map<String, Object>> getIndexSectors(Integer rank) {
@@ -171,9 +693,13 @@ public class NominatimUpdater {
      * @param password Nominatim database password
      */
     public NominatimUpdater(String host, int port, String database, String username, String password) {
+        this(host, port, database, username, password, new PostgisDataAdapter());
+    }
+
+    public NominatimUpdater(String host, int port, String database, String username, String password, DBDataAdapter dataAdapter) {
         BasicDataSource dataSource = NominatimConnector.buildDataSource(host, port, database, username, password, true);
 
-        exporter = new NominatimConnector(host, port, database, username, password);
+        exporter = new NominatimConnector(host, port, database, username, password, dataAdapter);
         template = new JdbcTemplate(dataSource);
     }
 }
@@ -0,0 +1,169 @@
+package de.komoot.photon.nominatim;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Updates places as soon as the Nominatim database announces their changes.
+ *
+ * The triggers from nominatim-notify-triggers.sql send the place ids of
+ * changed places via NOTIFY. The listener collects them into small batches,
+ * which are processed by the {@link NominatimUpdater} without looking at
+ * any other places.
+ *
+ * While another update is running, the batch is kept and tried again later.
+ * When too many changes pile up in the meantime, they are dropped and left
+ * to a full update instead.
+ *
+ * Changes made while the listener is not connected are not announced again.
+ * Therefore a full update is requested from the {@link UpdateScheduler}
+ * whenever a connection is made and after a batch could not be processed
+ * completely.
+ */
+@Slf4j
+public class NotificationListener {
+    public static final String CHANNEL = "photon_update";
+    private static final String TRIGGER_SCRIPT = "/nominatim-notify-triggers.sql";
+    private static final long RECONNECT_MILLIS = 6000;
+    private static final long BUSY_RETRY_MILLIS = 5000;
+    // Number of batches that may pile up while another update is running.
+    private static final int MAX_POSTPONED_BATCHES = 100;
+
+    private final BasicDataSource dataSource;
+    private final NominatimUpdater updater;
+    private final UpdateScheduler scheduler;
+    private final int batchSize;
+    private final long batchMillis;
+
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    /**
+     * @param updater Updater that processes the changes.
+     * @param scheduler Scheduler that runs the full updates to catch up on missed changes.
+     * @param batchSize Maximum number of places to process together.
+     * @param batchMillis Maximum time in milliseconds a change waits for more changes to come in.
+     */
+    public NotificationListener(String host, int port, String database, String username, String password,
+                                NominatimUpdater updater, UpdateScheduler scheduler, int batchSize, long batchMillis) {
+        this.dataSource = NominatimConnector.buildDataSource(host, port, database, username, password, true);
+        this.dataSource.setMaxTotal(1);
+        this.updater = updater;
+        this.scheduler = scheduler;
+        this.batchSize = batchSize;
+        this.batchMillis = batchMillis;
+    }
+
+    /**
+     * Install or replace the triggers that send the change notifications.
+     */
+    public void installTriggers() {
+        try (InputStream in = NotificationListener.class.getResourceAsStream(TRIGGER_SCRIPT)) {
+            new JdbcTemplate(dataSource).execute(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + TRIGGER_SCRIPT, e);
+        }
+        log.info("Installed triggers for change notifications.");
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this::run, "photon-notification-listener");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (thread != null) {
+            running = false;
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection con = dataSource.getConnection()) {
+                listen(con);
+            } catch (SQLException | RuntimeException e) {
+                log.error("Lost connection for change notifications, reconnecting.", e);
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException ie) {
+                    // Restore interrupted state.
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void listen(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute("LISTEN " + CHANNEL);
+        }
+        final PGConnection pgConnection = con.unwrap(PGConnection.class);
+        log.info(String.format("Listening for changes on channel '%s'.", CHANNEL));
+
+        // Notifications keep coming in while the full update runs in the background.
+        scheduler.trigger();
+
+        final ChangeBatch batch = new ChangeBatch(batchSize, batchMillis);
+        while (running) {
+            PGNotification[] notifications = pgConnection.getNotifications(
+                    (int) batch.millisUntilDue(System.currentTimeMillis()));
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    batch.add(notification.getParameter(), System.currentTimeMillis());
+                }
+            }
+
+            if (batch.isReady(System.currentTimeMillis())) {
+                processBatch(batch);
+            }
+        }
+    }
+
+    private void processBatch(ChangeBatch batch) {
+        final long start = System.currentTimeMillis();
+        final int size = batch.size();
+        try {
+            switch (updater.updatePlaceIds(batch.getPlaceIds(), batch.getInterpolationIds())) {
+                case BUSY:
+                    if (size < (long) batchSize * MAX_POSTPONED_BATCHES) {
+                        log.debug(String.format("Update running, postponing %d change notifications.", size));
+                        batch.postpone(start + BUSY_RETRY_MILLIS);
+                        return;
+                    }
+                    // The places are still marked in the database, the next full update picks them up.
+                    log.warn(String.format("Update running, leaving %d changed places to the next full update.", size));
+                    scheduler.trigger();
+                    batch.clear();
+                    return;
+                case INCOMPLETE:
+                    scheduler.trigger();
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            log.error(String.format("Cannot update %d changed places.", size), e);
+            scheduler.trigger();
+        }
+        batch.clear();
+        log.info(String.format("Processed %d change notifications in %d ms.", size, System.currentTimeMillis() - start));
+    }
+}
@@ -0,0 +1,167 @@
+package de.komoot.photon.nominatim;
+
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs Nominatim updates in the background, either on request or in regular intervals.
+ *
+ * Updates are run one at a time on a dedicated thread. A trigger that comes in
+ * while an update is running is not dropped: it queues exactly one more update,
+ * which starts as soon as the running one is done. Further triggers until then
+ * are merged into the queued update.
+ */
+@Slf4j
+public class UpdateScheduler {
+    public enum State { IDLE, QUEUED, RUNNING, CANCELLING }
+
+    private final NominatimUpdater updater;
+    private final ScheduledExecutorService executor;
+
+    private Future<?> queuedUpdate = null;
+    private boolean running = false;
+    // Cancel flag of the running update, a new one for every update.
+    private AtomicBoolean cancelRequest = new AtomicBoolean();
+
+    private long startMillis = 0;
+    private long lastStartMillis = 0;
+    private long lastEndMillis = 0;
+    private long lastDocuments = 0;
+    private String lastResult = null;
+
+    public UpdateScheduler(NominatimUpdater updater) {
+        this.updater = updater;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "photon-update-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Trigger an update every given number of seconds. When an update takes
+     * longer than the interval, the next one starts right after it.
+     */
+    public UpdateScheduler startInterval(long intervalSeconds) {
+        if (intervalSeconds > 0) {
+            log.info(String.format("Updating from Nominatim every %d seconds.", intervalSeconds));
+            executor.scheduleWithFixedDelay(this::trigger, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+
+        return this;
+    }
+
+    /**
+     * Request an update. Does nothing when an update is already waiting to be run.
+     */
+    public synchronized JSONObject trigger() {
+        if (queuedUpdate == null) {
+            queuedUpdate = executor.submit(this::runUpdate);
+        }
+
+        return getStatus();
+    }
+
+    /**
+     * Stop the running update and drop a queued one.
+     */
+    public synchronized JSONObject cancel() {
+        if (queuedUpdate != null) {
+            queuedUpdate.cancel(false);
+            queuedUpdate = null;
+        }
+        if (running) {
+            cancelRequest.set(true);
+        }
+
+        return getStatus();
+    }
+
+    public synchronized State getState() {
+        if (running) {
+            return cancelRequest.get() ? State.CANCELLING : State.RUNNING;
+        }
+
+        return queuedUpdate == null ? State.IDLE : State.QUEUED;
+    }
+
+    /**
+     * Describe the state and progress of the update jobs.
+     */
+    public synchronized JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("state", getState().name().toLowerCase());
+        status.put("queued", queuedUpdate != null);
+
+        if (running) {
+            final long documents = updater.getIndexedDocuments();
+            final double seconds = Math.max(0.001, (System.currentTimeMillis() - startMillis) / 1000.0);
+            JSONObject progress = new JSONObject();
+            progress.put("started", Instant.ofEpochMilli(startMillis).toString());
+            progress.put("stage", updater.getCurrentRank() > 0 ? "placex" : "interpolations");
+            if (updater.getCurrentRank() > 0) {
+                progress.put("rank", updater.getCurrentRank());
+            }
+            progress.put("sectors", updater.getSectorCount());
+            progress.put("sectors_done", updater.getSectorsDone());
+            progress.put("documents", documents);
+            progress.put("docs_per_second", Math.round(documents / seconds));
+            status.put("progress", progress);
+        }
+
+        if (lastResult != null) {
+            final double seconds = Math.max(0.001, (lastEndMillis - lastStartMillis) / 1000.0);
+            JSONObject last = new JSONObject();
+            last.put("result", lastResult);
+            last.put("started", Instant.ofEpochMilli(lastStartMillis).toString());
+            last.put("completed", Instant.ofEpochMilli(lastEndMillis).toString());
+            last.put("documents", lastDocuments);
+            last.put("docs_per_second", Math.round(lastDocuments / seconds));
+            status.put("last_update", last);
+        }
+
+        return status;
+    }
+
+    /**
+     * Stop the scheduler. A running update is cancelled.
+     */
+    public void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+    private void runUpdate() {
+        final AtomicBoolean cancel = new AtomicBoolean();
+        synchronized (this) {
+            // Triggers from now on queue the next update.
+            queuedUpdate = null;
+            running = true;
+            cancelRequest = cancel;
+            startMillis = System.currentTimeMillis();
+        }
+
+        String result = "failed";
+        try {
+            result = updater.update(cancel) ? "complete" : "incomplete";
+        } catch (RuntimeException e) {
+            // Keep the scheduler alive, the next update will try again.
+            log.error("Update from Nominatim failed.", e);
+        } finally {
+            synchronized (this) {
+                running = false;
+                lastStartMillis = startMillis;
+                lastEndMillis = System.currentTimeMillis();
+                lastDocuments = updater.getIndexedDocuments();
+                lastResult = cancel.get() ? "cancelled" : result;
+            }
+        }
+    }
+}
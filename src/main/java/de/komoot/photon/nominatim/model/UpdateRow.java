@@ -10,4 +10,5 @@ public class UpdateRow {
 
     public Long placeId;
     public Integer indexdStatus; // 1 - index, 2 - update, 100 - delete
+    public Integer rankSearch;
 }
@@ -0,0 +1,25 @@
+-- Triggers that tell photon about changed places in the Nominatim database.
+--
+-- Nominatim marks every place that needs to be indexed with indexed_status > 0.
+-- The triggers send the place_id of these places on the channel 'photon_update'
+-- as '<table>:<place_id>'. The notifications are delivered when the transaction
+-- commits, a place changed several times in one transaction is sent once. Install with 'photon -nominatim-install-triggers' or with psql.
+
+CREATE OR REPLACE FUNCTION photon_notify_change() RETURNS TRIGGER AS $$
+BEGIN
+  PERFORM pg_notify('photon_update', TG_ARGV[0] || ':' || NEW.place_id);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS photon_notify_placex ON placex;
+CREATE TRIGGER photon_notify_placex
+  AFTER INSERT OR UPDATE ON placex
+  FOR EACH ROW WHEN (NEW.indexed_status > 0)
+  EXECUTE PROCEDURE photon_notify_change('placex');
+
+DROP TRIGGER IF EXISTS photon_notify_osmline ON location_property_osmline;
+CREATE TRIGGER photon_notify_osmline
+  AFTER INSERT OR UPDATE ON location_property_osmline
+  FOR EACH ROW WHEN (NEW.indexed_status > 0)
+  EXECUTE PROCEDURE photon_notify_change('osmline');
@@ -0,0 +1,91 @@
+package de.komoot.photon;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImportMetricsTest {
+
+    @Test
+    public void testCounters() {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.rowsRead(10);
+        metrics.rowsRead(5);
+        metrics.addressQuery(3000000);
+        metrics.addressQuery(1000000);
+        metrics.documentConverted(2000000);
+        metrics.bulkRequest(100, 4096, 20);
+        metrics.bulkRequest(50, 1024, 10);
+        metrics.documentsRetried(3);
+        metrics.documentFailed();
+
+        assertEquals(15, metrics.getRowsRead());
+        assertEquals(2, metrics.getAddressQueries());
+        assertEquals(4, metrics.getAddressQueryMillis());
+        assertEquals(1, metrics.getDocumentsConverted());
+        assertEquals(2, metrics.getConversionMillis());
+        assertEquals(2, metrics.getBulkRequests());
+        assertEquals(150, metrics.getBulkDocuments());
+        assertEquals(5120, metrics.getBulkBytes());
+        assertEquals(30, metrics.getBulkRequestMillis());
+        assertEquals(3, metrics.getRetriedDocuments());
+        assertEquals(1, metrics.getFailedDocuments());
+    }
+
+    @Test
+    public void testQueueGauge() {
+        ImportMetrics metrics = new ImportMetrics();
+        assertEquals(0, metrics.getQueueDepth());
+
+        int[] depth = {7};
+        metrics.setQueue(() -> depth[0], 10);
+        assertEquals(7, metrics.getQueueDepth());
+        assertEquals(10, metrics.getQueueCapacity());
+
+        depth[0] = 2;
+        assertEquals(2, metrics.getQueueDepth());
+    }
+
+    @Test
+    public void testReportCoversIntervalSinceLastReport() {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.rowsRead(10);
+        metrics.bulkRequest(100, 2048, 20);
+
+        String first = metrics.report();
+        assertTrue(first.contains(" rows=10 "), first);
+        assertTrue(first.contains(" bulk_docs_avg=100.0 "), first);
+        assertTrue(first.contains(" bulk_kb_avg=2.0 "), first);
+
+        metrics.bulkRequest(10, 1024, 40);
+        String second = metrics.report();
+        assertTrue(second.contains(" bulk_requests=2 "), second);
+        assertTrue(second.contains(" bulk_ms_avg=40.0 "), second);
+        assertTrue(second.contains(" bulk_docs_avg=10.0 "), second);
+    }
+
+    @Test
+    public void testRegisterWithJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ImportMetrics.OBJECT_NAME);
+
+        ImportMetrics metrics = new ImportMetrics().registerMBean();
+        try {
+            metrics.rowsRead(42);
+            assertEquals(42L, server.getAttribute(name, "RowsRead"));
+
+            // A second import replaces the metrics of the first one.
+            ImportMetrics next = new ImportMetrics().registerMBean();
+            assertEquals(0L, server.getAttribute(name, "RowsRead"));
+            next.stop();
+        } finally {
+            metrics.stop();
+        }
+
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,116 @@
+package de.komoot.photon;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonDumpReaderTest {
+    private static final String[] LANGUAGES = new String[]{"en"};
+    private static final String[] NO_TAGS = new String[]{};
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private static class SerializedImporter implements Importer {
+        private final Map<String, byte[]> docs = new ConcurrentHashMap<>();
+        private volatile int finishCalled = 0;
+        private volatile boolean addedAfterFinish = false;
+
+        @Override
+        public void add(PhotonDoc doc) {
+            fail("Dump import must not convert documents.");
+        }
+
+        @Override
+        public void addSerialized(String id, byte[] json) {
+            assertNull(docs.put(id, json), "Document imported twice");
+            if (finishCalled > 0) {
+                addedAfterFinish = true;
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void finish() {
+            ++finishCalled;
+        }
+    }
+
+    private void writeDump(String filename, int shardSize, int numDocs) throws IOException {
+        JsonDumper dumper = new JsonDumper(tempDir.resolve(filename).toString(), shardSize, LANGUAGES, NO_TAGS, false, false);
+        for (int i = 1; i <= numDocs; ++i) {
+            dumper.add(new PhotonDoc(i, "N", i, "place", "city").houseNumber(i % 2 == 0 ? "1" + i : null));
+        }
+        dumper.finish();
+    }
+
+    @Test
+    public void testReadDirectoryOfShards() throws IOException {
+        writeDump("dump.json.gz", 7, 50);
+
+        SerializedImporter importer = new SerializedImporter();
+        long count = new JsonDumpReader(importer, 3).importDump(tempDir);
+
+        assertEquals(50, count);
+        assertEquals(50, importer.docs.size());
+        assertEquals(1, importer.finishCalled);
+
+        assertEquals(12, mapper.readTree(importer.docs.get("12.112")).get(Constants.OSM_ID).asLong());
+        assertEquals(13, mapper.readTree(importer.docs.get("13")).get(Constants.PLACE_ID).asLong());
+    }
+
+    @Test
+    public void testReadSingleFileIsUnchanged() throws IOException {
+        writeDump("dump.json", 0, 3);
+
+        SerializedImporter importer = new SerializedImporter();
+        new JsonDumpReader(importer, 2).importDump(tempDir.resolve("dump.json"));
+
+        String[] lines = new String(Files.readAllBytes(tempDir.resolve("dump.json")), StandardCharsets.UTF_8).split("\n");
+        assertEquals(6, lines.length);
+        assertEquals(lines[1], new String(importer.docs.get("1"), StandardCharsets.UTF_8));
+        assertEquals(lines[5], new String(importer.docs.get("3"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMissingIdIsRejected() throws IOException {
+        Files.write(tempDir.resolve("bad.json"), "{\"index\": {}}\n{\"place_id\": 1}\n".getBytes(StandardCharsets.UTF_8));
+
+        SerializedImporter importer = new SerializedImporter();
+        assertThrows(IOException.class, () -> new JsonDumpReader(importer, 1).importDump(tempDir));
+        // The importer is finished anyway, so that its threads end.
+        assertEquals(1, importer.finishCalled);
+    }
+
+    @Test
+    public void testFailingFileFinishesImporterAfterAllReaders() throws IOException {
+        writeDump("dump.json.gz", 50, 1000);
+        Files.write(tempDir.resolve("bad.json"), "{\"index\": {}}\n{\"place_id\": 1}\n".getBytes(StandardCharsets.UTF_8));
+
+        SerializedImporter importer = new SerializedImporter();
+        assertThrows(IOException.class, () -> new JsonDumpReader(importer, 4).importDump(tempDir));
+        assertEquals(1, importer.finishCalled);
+        assertFalse(importer.addedAfterFinish);
+    }
+
+    @Test
+    public void testMissingDumpFinishesImporter() {
+        SerializedImporter importer = new SerializedImporter();
+        assertThrows(IOException.class, () -> new JsonDumpReader(importer, 1).importDump(tempDir.resolve("missing.json")));
+        assertEquals(1, importer.finishCalled);
+    }
+}
@@ -0,0 +1,102 @@
+package de.komoot.photon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonDumperTest {
+    private static final String[] LANGUAGES = new String[]{"en"};
+    private static final String[] NO_TAGS = new String[]{};
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private List<String> readLines(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testSingleFile() throws IOException {
+        Path file = tempDir.resolve("dump.json");
+        JsonDumper dumper = new JsonDumper(file.toString(), LANGUAGES, NO_TAGS, false, false);
+
+        dumper.add(new PhotonDoc(1, "N", 10, "place", "city"));
+        dumper.add(new PhotonDoc(2, "W", 20, "building", "yes").houseNumber("4\"a"));
+        dumper.finish();
+
+        List<String> lines = readLines(file);
+        assertEquals(4, lines.size());
+
+        assertEquals("1", mapper.readTree(lines.get(0)).get("index").get("_id").asText());
+        assertEquals(10, mapper.readTree(lines.get(1)).get(Constants.OSM_ID).asLong());
+        assertEquals("2.4\"a", mapper.readTree(lines.get(2)).get("index").get("_id").asText());
+        assertEquals("4\"a", mapper.readTree(lines.get(3)).get("housenumber").asText());
+    }
+
+    @Test
+    public void testShardedCompressed() throws IOException, InterruptedException {
+        JsonDumper dumper = new JsonDumper(tempDir.resolve("dump.json.gz").toString(), 3, LANGUAGES, NO_TAGS, false, false);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; ++t) {
+            final int offset = t * 100;
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 5; ++i) {
+                    dumper.add(new PhotonDoc(offset + i, "N", offset + i, "place", "city"));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        dumper.finish();
+
+        List<Path> shards = Files.list(tempDir).sorted().collect(Collectors.toList());
+        // Each thread writes 3 + 2 documents.
+        assertEquals(4, shards.size());
+
+        Set<Long> placeIds = new HashSet<>();
+        for (Path shard : shards) {
+            assertTrue(shard.getFileName().toString().matches("dump-0000[0-3]\\.json\\.gz"));
+            List<String> lines = readLines(shard);
+            assertTrue(lines.size() <= 6);
+            for (int i = 0; i < lines.size(); i += 2) {
+                JsonNode doc = mapper.readTree(lines.get(i + 1));
+                assertEquals(doc.get(Constants.PLACE_ID).asText(), mapper.readTree(lines.get(i)).get("index").get("_id").asText());
+                placeIds.add(doc.get(Constants.PLACE_ID).asLong());
+            }
+        }
+        assertEquals(10, placeIds.size());
+    }
+
+    @Test
+    public void testShardFilename() {
+        assertEquals("dump-00003.json.gz", JsonDumper.shardFilename("dump.json.gz", 3));
+        assertEquals("dump-00012", JsonDumper.shardFilename("dump", 12));
+        assertEquals("/tmp/a.b/dump-00000.json", JsonDumper.shardFilename("/tmp/a.b/dump.json", 0));
+    }
+}
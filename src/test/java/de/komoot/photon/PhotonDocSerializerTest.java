@@ -0,0 +1,183 @@
+package de.komoot.photon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import de.komoot.photon.nominatim.model.AddressType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotonDocSerializerTest {
+    private static final GeometryFactory FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private JsonNode serialize(PhotonDoc doc, String[] extraTags, boolean allExtraTags, boolean includeExtraNames) throws IOException {
+        PhotonDocSerializer serializer = new PhotonDocSerializer(new String[]{"en", "de"}, extraTags, allExtraTags, includeExtraNames);
+        return mapper.readTree(serializer.serialize(doc));
+    }
+
+    @Test
+    public void testBasicFields() throws IOException {
+        PhotonDoc doc = new PhotonDoc(1234, "N", 99, "amenity", "cafe")
+                .parentPlaceId(7)
+                .importance(0.5)
+                .rankAddress(30)
+                .houseNumber("12a")
+                .postcode("12345")
+                .countryCode("de")
+                .centroid(FACTORY.createPoint(new Coordinate(10.5, 47.25)));
+
+        JsonNode json = serialize(doc, new String[]{}, false, false);
+
+        assertEquals(99, json.get(Constants.OSM_ID).asLong());
+        assertEquals("N", json.get(Constants.OSM_TYPE).asText());
+        assertEquals("amenity", json.get(Constants.OSM_KEY).asText());
+        assertEquals("cafe", json.get(Constants.OSM_VALUE).asText());
+        assertEquals(1234, json.get(Constants.PLACE_ID).asLong());
+        assertEquals(7, json.get(Constants.PARENT_PLACE_ID).asLong());
+        assertEquals("house", json.get(Constants.OBJECT_TYPE).asText());
+        assertEquals(0.5, json.get(Constants.IMPORTANCE).asDouble());
+        assertEquals(30, json.get(Constants.RANK_ADDRESS).asInt());
+        assertEquals("tpfldcafeclsfldamenity", json.get(Constants.CLASSIFICATION).asText());
+        assertEquals(47.25, json.get("coordinate").get("lat").asDouble());
+        assertEquals(10.5, json.get("coordinate").get("lon").asDouble());
+        assertEquals("12a", json.get("housenumber").asText());
+        assertEquals("12345", json.get("postcode").asText());
+        assertEquals("DE", json.get(Constants.COUNTRYCODE).asText());
+
+        assertFalse(json.has("name"));
+        assertFalse(json.has("context"));
+        assertFalse(json.has("extra"));
+        assertFalse(json.has("extent"));
+    }
+
+    @Test
+    public void testNamesAndAddress() throws IOException {
+        Map<String, String> names = new HashMap<>();
+        names.put("name", "Main");
+        names.put("name:de", "Haupt");
+        names.put("name:fr", "Principal");
+        names.put("alt_name", "Other");
+
+        Map<String, String> street = new HashMap<>();
+        street.put("name", "Street");
+        street.put("name:en", "Street EN");
+
+        Map<String, String> context = new HashMap<>();
+        context.put("name", "Somewhere");
+
+        PhotonDoc doc = new PhotonDoc(1, "W", 2, "highway", "residential").names(names);
+        doc.setAddressPartIfNew(AddressType.STREET, street);
+        doc.getContext().add(context);
+
+        JsonNode json = serialize(doc, new String[]{}, false, true);
+
+        assertEquals("Main", json.get("name").get("default").asText());
+        assertEquals("Haupt", json.get("name").get("de").asText());
+        assertEquals("Other", json.get("name").get("alt").asText());
+        assertFalse(json.get("name").has("fr"));
+
+        assertEquals("Street", json.get("street").get("default").asText());
+        assertEquals("Street EN", json.get("street").get("en").asText());
+
+        assertEquals("Somewhere", json.get("context").get("default").asText());
+
+        assertEquals("Principal", json.get("names").get("name:fr").asText());
+        assertFalse(json.has(Constants.CLASSIFICATION));
+    }
+
+    @Test
+    public void testExtraTags() throws IOException {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("wikidata", "Q1");
+        tags.put("website", "http://example.com");
+
+        PhotonDoc doc = new PhotonDoc(1, "W", 2, "amenity", "bar").extraTags(tags);
+
+        JsonNode selected = serialize(doc, new String[]{"wikidata", "opening_hours"}, false, false);
+        assertEquals(1, selected.get("extra").size());
+        assertEquals("Q1", selected.get("extra").get("wikidata").asText());
+
+        JsonNode all = serialize(doc, new String[]{}, true, false);
+        assertEquals(2, all.get("extra").size());
+        assertEquals("http://example.com", all.get("extra").get("website").asText());
+    }
+
+    @Test
+    public void testMapOrderDoesNotChangeHash() throws IOException {
+        PhotonDocSerializer serializer = new PhotonDocSerializer(new String[]{"en"}, new String[]{}, true, true);
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("wikidata", "Q1");
+        tags.put("website", "http://example.com");
+        tags.put("fee", null);
+        Map<String, String> names = new LinkedHashMap<>();
+        names.put("name", "Bar");
+        names.put("name:fr", "Barre");
+        Map<String, String> reversedTags = new LinkedHashMap<>();
+        reversedTags.put("fee", null);
+        reversedTags.put("website", "http://example.com");
+        reversedTags.put("wikidata", "Q1");
+        Map<String, String> reversedNames = new LinkedHashMap<>();
+        reversedNames.put("name:fr", "Barre");
+        reversedNames.put("name", "Bar");
+
+        byte[] first = serializer.serialize(new PhotonDoc(1, "W", 2, "amenity", "bar").extraTags(tags).names(names));
+        byte[] second = serializer.serialize(new PhotonDoc(1, "W", 2, "amenity", "bar").extraTags(reversedTags).names(reversedNames));
+
+        assertArrayEquals(first, second);
+        assertEquals(PhotonDocSerializer.getContentHash(first), PhotonDocSerializer.getContentHash(second));
+        assertFalse(mapper.readTree(first).get("extra").has("fee"));
+    }
+
+    @Test
+    public void testExtent() throws IOException {
+        PhotonDoc doc = new PhotonDoc(1, "W", 2, "place", "city")
+                .bbox(FACTORY.toGeometry(new Envelope(1, 2, 3, 4)));
+
+        JsonNode extent = serialize(doc, new String[]{}, false, false).get("extent");
+
+        assertEquals("envelope", extent.get("type").asText());
+        assertEquals("[[1.0,4.0],[2.0,3.0]]", extent.get("coordinates").toString());
+    }
+
+    @Test
+    public void testBufferIsReused() throws IOException {
+        PhotonDocSerializer serializer = new PhotonDocSerializer(new String[]{"en"}, new String[]{}, false, false);
+
+        byte[] first = serializer.serialize(new PhotonDoc(1, "N", 1, "place", "city").houseNumber("123456789"));
+        byte[] second = serializer.serialize(new PhotonDoc(2, "N", 2, "place", "city"));
+
+        assertEquals("123456789", mapper.readTree(first).get("housenumber").asText());
+        assertEquals(2, mapper.readTree(second).get(Constants.PLACE_ID).asLong());
+        assertFalse(mapper.readTree(second).has("housenumber"));
+    }
+
+    @Test
+    public void testContentHash() throws IOException {
+        PhotonDocSerializer serializer = new PhotonDocSerializer(new String[]{"en"}, new String[]{}, false, false);
+
+        byte[] first = serializer.serialize(new PhotonDoc(1, "N", 1, "place", "city").houseNumber("1"));
+        byte[] same = serializer.serialize(new PhotonDoc(1, "N", 1, "place", "city").houseNumber("1"));
+        byte[] other = serializer.serialize(new PhotonDoc(1, "N", 1, "place", "city").houseNumber("2"));
+
+        String hash = PhotonDocSerializer.getContentHash(first);
+        assertNotNull(hash);
+        assertEquals(16, hash.length());
+        assertEquals(hash, mapper.readTree(first).get(Constants.CONTENT_HASH).asText());
+        assertEquals(hash, PhotonDocSerializer.getContentHash(same));
+        assertNotEquals(hash, PhotonDocSerializer.getContentHash(other));
+
+        assertNull(PhotonDocSerializer.getContentHash("{\"place_id\":1}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -3,7 +3,9 @@ package de.komoot.photon;
 import de.komoot.photon.nominatim.model.AddressType;
 import org.junit.jupiter.api.Test;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -23,6 +25,20 @@ public class PhotonDocTest {
         AssertUtil.assertAddressName("test street", doc, AddressType.STREET);
     }
 
+    @Test
+    public void testCompleteAddressKeepsSharedNamesUnchanged() {
+        PhotonDoc doc = simplePhotonDoc();
+
+        Map<String, String> streetNames = Collections.singletonMap("name", "parent place street");
+        doc.setAddressPartIfNew(AddressType.STREET, streetNames);
+
+        HashMap<String, String> address = new HashMap<>();
+        address.put("street", "test street");
+        doc.address(address);
+        AssertUtil.assertAddressName("test street", doc, AddressType.STREET);
+        assertEquals("parent place street", streetNames.get("name"));
+    }
+
     @Test
     public void testCompleteAddressCreatesStreetIfNonExistantBefore() {
         PhotonDoc doc = simplePhotonDoc();
@@ -0,0 +1,28 @@
+package de.komoot.photon;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SectorRangeTest {
+
+    @Test
+    public void testSqlIsBuiltFromNumbers() {
+        assertEquals("geometry_sector BETWEEN 0 AND 99", SectorRange.between(0, 99).toSql());
+        assertEquals("geometry_sector BETWEEN -5 AND -5", SectorRange.between(-5, -5).toSql());
+        assertEquals("geometry_sector IS NULL", SectorRange.nullSector().toSql());
+    }
+
+    @Test
+    public void testTaskNames() {
+        assertEquals("placex:100-199",
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_PLACEX, SectorRange.between(100, 199)));
+        assertEquals("osmline:null",
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_OSMLINE, SectorRange.nullSector()));
+    }
+
+    @Test
+    public void testInvalidRange() {
+        assertThrows(IllegalArgumentException.class, () -> SectorRange.between(10, 9));
+    }
+}
@@ -0,0 +1,77 @@
+package de.komoot.photon.elasticsearch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyTest {
+
+    private void runRequests(AdaptiveConcurrency concurrency, int num, long latency, boolean rejected) {
+        for (int i = 0; i < num; ++i) {
+            concurrency.requestStarted();
+            concurrency.requestFinished(latency, rejected);
+        }
+    }
+
+    @Test
+    public void testStartsLowAndGrowsToMaximum() {
+        AdaptiveConcurrency concurrency = new AdaptiveConcurrency(8);
+        assertEquals(4, concurrency.getLimit());
+
+        runRequests(concurrency, 100, 100, false);
+        assertEquals(8, concurrency.getLimit());
+    }
+
+    @Test
+    public void testSmallMaximum() {
+        AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2);
+        assertEquals(2, concurrency.getLimit());
+
+        runRequests(concurrency, 10, 100, false);
+        assertEquals(2, concurrency.getLimit());
+    }
+
+    @Test
+    public void testRejectionHalvesLimit() {
+        AdaptiveConcurrency concurrency = new AdaptiveConcurrency(32);
+        runRequests(concurrency, 1000, 100, false);
+        assertEquals(32, concurrency.getLimit());
+
+        runRequests(concurrency, 1, 100, true);
+        assertEquals(16, concurrency.getLimit());
+
+        runRequests(concurrency, 10, 100, true);
+        assertEquals(1, concurrency.getLimit());
+    }
+
+    @Test
+    public void testSlowRequestsLowerLimit() {
+        AdaptiveConcurrency concurrency = new AdaptiveConcurrency(16);
+        runRequests(concurrency, 1000, 100, false);
+        assertEquals(16, concurrency.getLimit());
+
+        runRequests(concurrency, 3, 1000, false);
+        assertEquals(13, concurrency.getLimit());
+    }
+
+    @Test
+    public void testWaitsForCapacity() throws InterruptedException {
+        AdaptiveConcurrency concurrency = new AdaptiveConcurrency(1);
+        concurrency.requestStarted();
+
+        Thread waiter = new Thread(() -> {
+            try {
+                concurrency.awaitCapacity();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertTrue(waiter.isAlive());
+
+        concurrency.requestFinished(100, false);
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+    }
+}
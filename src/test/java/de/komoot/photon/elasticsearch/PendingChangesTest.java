@@ -0,0 +1,80 @@
+package de.komoot.photon.elasticsearch;
+
+import de.komoot.photon.PhotonDoc;
+import de.komoot.photon.PhotonDocSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PendingChangesTest {
+    private final PhotonDocSerializer serializer = new PhotonDocSerializer(new String[]{"en"}, new String[]{}, false, false);
+
+    private void create(PendingChanges pending, PhotonDoc doc) {
+        pending.create(doc.getPlaceId(), doc.getUid(), serializer.serialize(doc));
+    }
+
+    private static PhotonDoc house(long placeId, String housenumber) {
+        return new PhotonDoc(placeId, "W", placeId, "building", "yes").houseNumber(housenumber);
+    }
+
+    private String hashOf(PhotonDoc doc) {
+        return PhotonDocSerializer.getContentHash(serializer.serialize(doc));
+    }
+
+    @Test
+    public void testDeletedPlaceKeepsDocumentsCreatedAgain() {
+        PendingChanges pending = new PendingChanges();
+        create(pending, house(1, "1"));
+        create(pending, house(2, "1"));
+        create(pending, house(2, "2"));
+
+        // Deleting drops the pending documents, creating again after the delete keeps them.
+        pending.delete(2L);
+        create(pending, house(2, "2"));
+
+        assertEquals(new HashSet<>(Arrays.asList("1.1", "2.2")), pending.getUids());
+        assertEquals(Collections.singletonList("2.2"), pending.getCreatedDocuments(2));
+        assertTrue(pending.getCreatedDocuments(3).isEmpty());
+
+        assertEquals(Collections.singletonList(2L), pending.takeDeletedPlaces());
+        assertTrue(pending.takeDeletedPlaces().isEmpty());
+    }
+
+    @Test
+    public void testUnchangedDocumentsAreSkipped() {
+        PendingChanges pending = new PendingChanges();
+        create(pending, house(1, "1"));
+        create(pending, house(1, "2"));
+        create(pending, house(2, "1"));
+        create(pending, house(3, "1"));
+
+        Map<String, String> indexed = new HashMap<>();
+        indexed.put("1.1", hashOf(house(1, "1")));
+        indexed.put("2.1", hashOf(house(2, "1")));
+        indexed.put("3.1", "0000000000000000");
+
+        Map<String, byte[]> changed = pending.takeChangedDocuments(indexed);
+
+        assertEquals(new HashSet<>(Arrays.asList("1.2", "3.1")), changed.keySet());
+        assertEquals(0, pending.size());
+        // Only places with documents that actually went out count as sent.
+        assertTrue(pending.hasSent(Arrays.asList(1L, 5L)));
+        assertTrue(pending.hasSent(Collections.singletonList(3L)));
+        assertFalse(pending.hasSent(Collections.singletonList(2L)));
+
+        assertEquals(new HashSet<>(Arrays.asList(1L, 3L)), pending.takeSentPlaces());
+        assertFalse(pending.hasSent());
+    }
+
+    @Test
+    public void testFailureIsReportedOnce() {
+        PendingChanges pending = new PendingChanges();
+        assertFalse(pending.takeFailed());
+
+        pending.setFailed();
+        assertTrue(pending.takeFailed());
+        assertFalse(pending.takeFailed());
+    }
+}
@@ -69,6 +69,26 @@ public class UpdaterTest extends ESBaseTester {
         assertEquals("Enfoo", out_names.get("en"));
     }
 
+    @Test
+    public void deleteRightAfterCreate() throws IOException {
+        Map<String, String> names = new HashMap<>();
+        names.put("name", "Foo");
+        PhotonDoc doc = new PhotonDoc(1234, "N", 1000, "place", "city").names(names);
+
+        setUpES();
+        Updater updater = makeUpdater();
+        updater.create(doc);
+        assertTrue(updater.flush());
+
+        // No refresh in between, the document is not searchable yet.
+        updater.delete(1234L);
+        assertTrue(updater.flush());
+        updater.finish();
+        refresh();
+
+        assertNull(getById(1234));
+    }
+
     @Test
     public void addExtraTagsToDoc() throws IOException {
         Map<String, String> names = new HashMap<>();
@@ -0,0 +1,62 @@
+package de.komoot.photon.nominatim;
+
+import de.komoot.photon.nominatim.model.AddressRow;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AddressCacheTest {
+    private static List<AddressRow> terms(String name) {
+        return Collections.singletonList(
+                new AddressRow(Collections.singletonMap("name", name), "place", "city", 16));
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        AddressCache cache = new AddressCache(10);
+        List<AddressRow> terms = terms("Town");
+
+        assertNull(cache.get(1));
+        cache.put(1, terms);
+        assertSame(terms, cache.get(1));
+        assertSame(terms, cache.get(1));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        AddressCache cache = new AddressCache(2);
+        cache.put(1, terms("One"));
+        cache.put(2, terms("Two"));
+        cache.get(1);
+        cache.put(3, terms("Three"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        AddressCache cache = new AddressCache(0);
+        cache.put(1, terms("One"));
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testClear() {
+        AddressCache cache = new AddressCache(10);
+        cache.put(1, terms("One"));
+        cache.clear();
+
+        assertNull(cache.get(1));
+    }
+}
@@ -0,0 +1,214 @@
+package de.komoot.photon.nominatim;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCopyReaderTest {
+
+    /**
+     * Writes data in the format of COPY ... TO STDOUT (FORMAT binary).
+     */
+    private static class CopyWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        CopyWriter() throws IOException {
+            out.write("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1));
+            out.writeInt(0);
+            out.writeInt(4);
+            out.writeInt(42);
+        }
+
+        CopyWriter row(int numFields) throws IOException {
+            out.writeShort(numFields);
+            return this;
+        }
+
+        CopyWriter int8(long value) throws IOException {
+            out.writeInt(8);
+            out.writeLong(value);
+            return this;
+        }
+
+        CopyWriter int4(int value) throws IOException {
+            out.writeInt(4);
+            out.writeInt(value);
+            return this;
+        }
+
+        CopyWriter float8(double value) throws IOException {
+            out.writeInt(8);
+            out.writeDouble(value);
+            return this;
+        }
+
+        CopyWriter text(String value) throws IOException {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+            return this;
+        }
+
+        CopyWriter hstore(String... keyValues) throws IOException {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            DataOutputStream hstore = new DataOutputStream(content);
+            hstore.writeInt(keyValues.length / 2);
+            for (int i = 0; i < keyValues.length; i += 2) {
+                byte[] key = keyValues[i].getBytes(StandardCharsets.UTF_8);
+                hstore.writeInt(key.length);
+                hstore.write(key);
+                if (keyValues[i + 1] == null) {
+                    hstore.writeInt(-1);
+                } else {
+                    byte[] value = keyValues[i + 1].getBytes(StandardCharsets.UTF_8);
+                    hstore.writeInt(value.length);
+                    hstore.write(value);
+                }
+            }
+            out.writeInt(content.size());
+            out.write(content.toByteArray());
+            return this;
+        }
+
+        CopyWriter nul() throws IOException {
+            out.writeInt(-1);
+            return this;
+        }
+
+        byte[] toBytes() throws IOException {
+            out.writeShort(-1);
+            return bytes.toByteArray();
+        }
+
+        BinaryCopyReader reader() throws IOException {
+            return new BinaryCopyReader(new ByteArrayInputStream(toBytes()));
+        }
+    }
+
+    @Test
+    public void testReadTypes() throws IOException {
+        BinaryCopyReader reader = new CopyWriter()
+                .row(6).int8(1234567890123L).int4(-30).float8(0.25).text("Zürich")
+                        .hstore("name", "Straße", "name:en", "Street", "old_name", null)
+                        .nul()
+                .reader();
+
+        assertTrue(reader.nextRow());
+        assertEquals(1234567890123L, reader.getLong());
+        assertEquals(-30, reader.getInt());
+        assertFalse(reader.wasNull());
+        assertEquals(0.25, reader.getDouble());
+        assertEquals("Zürich", reader.getString());
+
+        Map<String, String> names = reader.getHstore();
+        assertEquals(3, names.size());
+        assertEquals("Straße", names.get("name"));
+        assertEquals("Street", names.get("name:en"));
+        assertTrue(names.containsKey("old_name"));
+        assertNull(names.get("old_name"));
+        // Entries keep the order of the hstore, like the maps of HstoreDataAdapter.
+        assertEquals(Arrays.asList("name", "name:en", "old_name"), new ArrayList<>(names.keySet()));
+
+        assertEquals(0, reader.getDouble());
+        assertTrue(reader.wasNull());
+
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void testNullValues() throws IOException {
+        BinaryCopyReader reader = new CopyWriter()
+                .row(4).nul().nul().nul().nul()
+                .reader();
+
+        assertTrue(reader.nextRow());
+        assertEquals(0, reader.getLong());
+        assertTrue(reader.wasNull());
+        assertNull(reader.getString());
+        assertTrue(reader.getHstore().isEmpty());
+        assertNull(reader.getBytes());
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void testUnreadFieldsAreSkipped() throws IOException {
+        BinaryCopyReader reader = new CopyWriter()
+                .row(3).int8(1).text("skipped").hstore("name", "skipped")
+                .row(3).int8(2).text("second").hstore()
+                .reader();
+
+        assertTrue(reader.nextRow());
+        assertEquals(1, reader.getLong());
+        assertTrue(reader.nextRow());
+        assertEquals(2, reader.getLong());
+        assertEquals("second", reader.getString());
+        assertTrue(reader.getHstore().isEmpty());
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void testWrongFieldTypeIsRejected() throws IOException {
+        BinaryCopyReader reader = new CopyWriter()
+                .row(1).int4(1)
+                .reader();
+
+        assertTrue(reader.nextRow());
+        assertThrows(IOException.class, reader::getLong);
+    }
+
+    @Test
+    public void testValuesAcrossBufferBoundaries() throws IOException {
+        final String large = "x".repeat(100000) + "ü";
+        CopyWriter writer = new CopyWriter();
+        for (int i = 0; i < 5000; ++i) {
+            writer.row(3).int8(i).text("row " + i).float8(i / 4.0);
+        }
+        writer.row(2).text(large).text(large);
+
+        // A stream that only hands out a few bytes at a time.
+        BinaryCopyReader reader = new BinaryCopyReader(new FilterInputStream(new ByteArrayInputStream(writer.toBytes())) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        });
+
+        for (int i = 0; i < 5000; ++i) {
+            assertTrue(reader.nextRow());
+            assertEquals(i, reader.getLong());
+            assertEquals("row " + i, reader.getString());
+            assertEquals(i / 4.0, reader.getDouble());
+        }
+        assertTrue(reader.nextRow());
+        assertEquals(large, reader.getString());
+        assertEquals(large, new String(reader.getBytes(), StandardCharsets.UTF_8));
+        assertFalse(reader.nextRow());
+    }
+
+    @Test
+    public void testTruncatedStreamIsRejected() throws IOException {
+        byte[] data = new CopyWriter().row(2).int8(1).text("cut off").toBytes();
+        BinaryCopyReader reader = new BinaryCopyReader(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 6)));
+
+        assertTrue(reader.nextRow());
+        assertEquals(1, reader.getLong());
+        assertThrows(IOException.class, reader::getString);
+    }
+
+    @Test
+    public void testTextFormatIsRejected() {
+        assertThrows(IOException.class,
+                () -> new BinaryCopyReader(new ByteArrayInputStream("1\tfoo\n".getBytes(StandardCharsets.UTF_8))));
+    }
+}
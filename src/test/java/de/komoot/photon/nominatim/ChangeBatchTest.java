@@ -0,0 +1,76 @@
+package de.komoot.photon.nominatim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeBatchTest {
+
+    @Test
+    public void testParsePayload() {
+        ChangeBatch batch = new ChangeBatch(100, 1000);
+        batch.add("placex:12", 0);
+        batch.add("osmline:7", 0);
+        batch.add("placex:12", 0);
+        batch.add("placex:foo", 0);
+        batch.add("other:3", 0);
+        batch.add("3", 0);
+        batch.add(null, 0);
+
+        assertEquals(new HashSet<>(Collections.singletonList(12L)), batch.getPlaceIds());
+        assertEquals(new HashSet<>(Collections.singletonList(7L)), batch.getInterpolationIds());
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void testReadyWhenFull() {
+        ChangeBatch batch = new ChangeBatch(3, 1000);
+        batch.add("placex:1", 0);
+        batch.add("placex:2", 0);
+        assertFalse(batch.isReady(10));
+        batch.add("osmline:1", 0);
+        assertTrue(batch.isReady(10));
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertFalse(batch.isReady(10));
+    }
+
+    @Test
+    public void testReadyWhenOldestIsDue() {
+        ChangeBatch batch = new ChangeBatch(100, 1000);
+        assertEquals(ChangeBatch.IDLE_WAIT_MILLIS, batch.millisUntilDue(5000));
+
+        batch.add("placex:1", 5000);
+        batch.add("placex:2", 5800);
+        assertEquals(400, batch.millisUntilDue(5600));
+        assertFalse(batch.isReady(5999));
+        assertTrue(batch.isReady(6000));
+        assertEquals(1, batch.millisUntilDue(7000));
+        assertEquals(Arrays.asList(1L, 2L), Arrays.asList(batch.getPlaceIds().toArray()));
+    }
+
+    @Test
+    public void testPostponedBatchWaits() {
+        ChangeBatch batch = new ChangeBatch(2, 1000);
+        batch.add("placex:1", 0);
+        batch.add("placex:2", 0);
+        assertTrue(batch.isReady(10));
+
+        batch.postpone(5000);
+        batch.add("placex:3", 20);
+        assertFalse(batch.isReady(4999));
+        assertEquals(4990, batch.millisUntilDue(10));
+        assertTrue(batch.isReady(5000));
+        assertEquals(3, batch.size());
+
+        batch.clear();
+        batch.add("placex:4", 6000);
+        batch.add("placex:5", 6000);
+        assertTrue(batch.isReady(6000));
+    }
+}
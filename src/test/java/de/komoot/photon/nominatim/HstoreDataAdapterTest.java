@@ -0,0 +1,122 @@
+package de.komoot.photon.nominatim;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HstoreDataAdapterTest {
+    private final HstoreDataAdapter adapter = new HstoreDataAdapter(
+            new String[]{"en", "de"}, new String[]{"website"}, false, false);
+
+    private Map<String, String> getMap(String columnName, String hstore) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString(columnName)).thenReturn(hstore);
+
+        return adapter.getMap(rs, columnName);
+    }
+
+    @Test
+    public void testParseHstore() {
+        Map<String, String> map = HstoreDataAdapter.parseHstore(
+                "\"name\"=>\"Foo \\\"Bar\\\"\", \"a=>b\"=>\"x, y\",\"back\\\\slash\"=>NULL", key -> true);
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("name", "Foo \"Bar\"");
+        expected.put("a=>b", "x, y");
+        expected.put("back\\slash", null);
+
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    @Test
+    public void testParseEmptyHstore() {
+        assertTrue(HstoreDataAdapter.parseHstore("", key -> true).isEmpty());
+    }
+
+    @Test
+    public void testInvalidHstore() {
+        assertThrows(IllegalArgumentException.class, () -> HstoreDataAdapter.parseHstore("\"name\"=>\"Foo", key -> true));
+        assertThrows(IllegalArgumentException.class, () -> HstoreDataAdapter.parseHstore("\"name\" \"Foo\"", key -> true));
+        assertThrows(SQLException.class, () -> getMap("name", "name=>Foo"));
+    }
+
+    @Test
+    public void testNamesAreFiltered() throws SQLException {
+        Map<String, String> names = getMap("name",
+                "\"name\"=>\"Foo\", \"name:fr\"=>\"Fou\", \"name:de\"=>\"Fuh\", \"_place_name:en\"=>\"Phoo\", \"old_name\"=>\"Bar\", \"source\"=>\"survey\"");
+
+        assertEquals(4, names.size());
+        assertEquals("Foo", names.get("name"));
+        assertEquals("Fuh", names.get("name:de"));
+        assertEquals("Phoo", names.get("_place_name:en"));
+        assertEquals("Bar", names.get("old_name"));
+        assertFalse(names.containsKey("name:fr"));
+    }
+
+    @Test
+    public void testForeignNamesAreKeptWhenNoOtherName() throws SQLException {
+        Map<String, String> names = getMap("name", "\"name:fr\"=>\"Fou\"");
+
+        assertEquals(1, names.size());
+        assertEquals("Fou", names.get("name:fr"));
+    }
+
+    @Test
+    public void testAddressAndExtraTagsAreFiltered() throws SQLException {
+        Map<String, String> address = getMap("address", "\"city\"=>\"Town\", \"housenumber\"=>\"3\", \"door\"=>\"4\"");
+        assertEquals(2, address.size());
+        assertEquals("Town", address.get("city"));
+        assertEquals("3", address.get("housenumber"));
+
+        Map<String, String> tags = getMap("extratags", "\"website\"=>\"http://foo\", \"linked_place\"=>\"city\", \"wikidata\"=>\"Q1\"");
+        assertEquals(2, tags.size());
+        assertEquals("http://foo", tags.get("website"));
+        assertEquals("city", tags.get("linked_place"));
+    }
+
+    @Test
+    public void testCopiedMapsAreFilteredLikeParsedOnes() throws SQLException {
+        Map<String, String> names = new LinkedHashMap<>();
+        names.put("name", "Foo");
+        names.put("name:fr", "Fou");
+        names.put("source", "survey");
+        assertEquals(getMap("name", "\"name\"=>\"Foo\", \"name:fr\"=>\"Fou\", \"source\"=>\"survey\""),
+                adapter.filterMap(names, "name"));
+
+        Map<String, String> foreign = adapter.filterMap(Collections.singletonMap("name:fr", "Fou"), "name");
+        assertEquals(Collections.singletonMap("name:fr", "Fou"), foreign);
+        assertTrue(foreign instanceof ArrayMap);
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("wikidata", "Q1");
+        tags.put("website", "http://foo");
+        assertEquals(Collections.singletonMap("website", "http://foo"), adapter.filterMap(tags, "extratags"));
+        assertSame(ArrayMap.EMPTY, adapter.filterMap(Collections.singletonMap("door", "4"), "address"));
+    }
+
+    @Test
+    public void testNullColumn() throws SQLException {
+        assertTrue(getMap("name", null).isEmpty());
+    }
+
+    @Test
+    public void testAllExtraTagsAndNames() throws SQLException {
+        HstoreDataAdapter allAdapter = new HstoreDataAdapter(new String[]{"en"}, new String[]{}, true, true);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("name")).thenReturn("\"name\"=>\"Foo\", \"name:fr\"=>\"Fou\"");
+        when(rs.getString("extratags")).thenReturn("\"wikidata\"=>\"Q1\"");
+
+        assertEquals(2, allAdapter.getMap(rs, "name").size());
+        assertEquals("Q1", allAdapter.getMap(rs, "extratags").get("wikidata"));
+    }
+}
@@ -0,0 +1,433 @@
+package de.komoot.photon.nominatim;
+
+import de.komoot.photon.PhotonDocSerializer;
+import de.komoot.photon.ReflectionTestUtil;
+import de.komoot.photon.nominatim.testdb.CountingImporter;
+import de.komoot.photon.nominatim.testdb.H2DataAdapter;
+import de.komoot.photon.nominatim.testdb.SyntheticDataset;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the import path from the database to the importer without
+ * PostgreSQL or Elasticsearch.
+ * <p>
+ * A synthetic dataset is loaded into an in-memory H2 database and then
+ * imported several times into an importer that only counts (and optionally
+ * serializes) the documents. For every run, the documents per second, the
+ * allocation rate and the peak heap use are reported.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=de.komoot.photon.nominatim.ImportBenchmark \
+ *     -Dexec.args="-streets 50000 -readers 2 -converters 2 -runs 3 -serialize"
+ * </pre>
+ * Each street comes with about 20 houses, so 50000 streets result in about
+ * one million placex rows. The database lives in the heap, so give the JVM
+ * enough memory (MAVEN_OPTS=-Xmx8g for a few million rows).
+ * <p>
+ * With <code>-decode</code>, only the mapping of placex rows to results is measured
+ * instead, once for rows from JDBC and once for the same rows in the binary
+ * COPY format. The JDBC rows come from an H2 table with the hstore columns in
+ * PostgreSQL's text format, so that both paths parse what PostgreSQL would send.
+ * The time H2 needs to only step through the rows is reported separately.
+ */
+public class ImportBenchmark {
+    private static final long SAMPLE_INTERVAL_MILLIS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int streets = 10000;
+        int housesPerStreet = 20;
+        int readers = 1;
+        int converters = 1;
+        int runs = 3;
+        boolean serialize = false;
+        boolean decode = false;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-streets": streets = Integer.parseInt(args[++i]); break;
+                case "-houses": housesPerStreet = Integer.parseInt(args[++i]); break;
+                case "-readers": readers = Integer.parseInt(args[++i]); break;
+                case "-converters": converters = Integer.parseInt(args[++i]); break;
+                case "-runs": runs = Integer.parseInt(args[++i]); break;
+                case "-serialize": serialize = true; break;
+                case "-decode": decode = true; break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]
+                            + " (expected -streets, -houses, -readers, -converters, -runs, -serialize, -decode)");
+            }
+        }
+
+        EmbeddedDatabase db = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScript("/test-schema.sql")
+                .build();
+        try {
+            JdbcTemplate jdbc = new JdbcTemplate(db);
+            jdbc.execute("CREATE INDEX idx_placex_place_id ON placex (place_id)");
+            jdbc.execute("CREATE INDEX idx_addressline_place_id ON place_addressline (place_id)");
+
+            long start = System.currentTimeMillis();
+            SyntheticDataset dataset = new SyntheticDataset(streets).housesPerStreet(housesPerStreet).generate(jdbc);
+            System.out.println(String.format("generated %d placex rows, %d interpolations, %d address lines in %.1fs",
+                    dataset.getPlacexCount(), dataset.getInterpolationCount(), dataset.getAddresslineCount(),
+                    (System.currentTimeMillis() - start) / 1000.0));
+
+            System.gc();
+            System.out.println(String.format("heap used by the dataset: %d MB", heapUsed() >> 20));
+
+            if (decode) {
+                DecodeBenchmark benchmark = new DecodeBenchmark(jdbc);
+                for (int run = 1; run <= runs; ++run) {
+                    benchmark.run(run);
+                }
+            } else {
+                for (int run = 1; run <= runs; ++run) {
+                    runImport(jdbc, dataset, run, readers, converters, serialize);
+                }
+            }
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static void runImport(JdbcTemplate jdbc, SyntheticDataset dataset, int run, int readers, int converters,
+                                  boolean serialize) throws InterruptedException {
+        final String[] languages = {"en", "de", "fr", "it"};
+        NominatimConnector connector = new NominatimConnector(null, 0, null, null, null, new H2DataAdapter());
+        ReflectionTestUtil.setFieldValue(connector, "template", jdbc);
+        CountingImporter importer = new CountingImporter(
+                serialize ? new PhotonDocSerializer(languages, new String[0], false, false) : null);
+        connector.setImporter(importer);
+        connector.setReaderThreads(readers);
+        connector.setConverterThreads(converters);
+
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        AllocationSampler sampler = new AllocationSampler();
+        sampler.start();
+        final long start = System.nanoTime();
+        connector.readEntireDatabase();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.finish();
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        if (importer.getDocuments() != dataset.getExpectedDocuments()) {
+            System.out.println(String.format("WARNING: expected %d documents, got %d",
+                    dataset.getExpectedDocuments(), importer.getDocuments()));
+        }
+
+        System.out.println(String.format("run %d: %d docs in %.1fs, %.0f docs/s, allocated %.1f MB/s (%.1f KB/doc), peak heap %d MB%s",
+                run, importer.getDocuments(), seconds, importer.getDocuments() / seconds,
+                sampler.getAllocatedBytes() / seconds / (1 << 20),
+                sampler.getAllocatedBytes() / 1024.0 / Math.max(1, importer.getDocuments()),
+                peakHeap >> 20,
+                serialize ? String.format(", %d MB json", importer.getBytes() >> 20) : ""));
+    }
+
+    /**
+     * Compares the mapping of placex rows read with JDBC and with COPY.
+     */
+    private static class DecodeBenchmark {
+        private static final String[] COLUMNS = {
+                "place_id", "osm_type", "osm_id", "class", "type", "name", "postcode", "address", "extratags",
+                "parent_place_id", "linked_place_id", "rank_address", "rank_search", "importance", "country_code",
+                "bbox_minx", "bbox_miny", "bbox_maxx", "bbox_maxy", "centroid_x", "centroid_y"};
+
+        private final JdbcTemplate jdbc;
+        private final NominatimConnector connector;
+        private final RowMapper<?> placeRowMapper;
+        private final Method mapCopiedPlace;
+        private final byte[] copyData;
+        private final long rows;
+
+        DecodeBenchmark(JdbcTemplate jdbc) throws Exception {
+            this.jdbc = jdbc;
+            // The adapter of a real import, without asking the database for the interpolation format.
+            HstoreDataAdapter adapter = new HstoreDataAdapter(new String[]{"en", "de", "fr", "it"}, new String[0], false, false) {
+                @Override
+                public boolean hasColumn(JdbcTemplate template, String table, String column) {
+                    return false;
+                }
+            };
+            connector = new NominatimConnector(null, 0, null, null, null, adapter);
+            ReflectionTestUtil.setFieldValue(connector, "template", jdbc);
+            placeRowMapper = ReflectionTestUtil.getFieldValue(connector, "placeRowMapper");
+            mapCopiedPlace = NominatimConnector.class.getDeclaredMethod("mapCopiedPlace", BinaryCopyReader.class);
+            mapCopiedPlace.setAccessible(true);
+
+            jdbc.execute("CREATE TABLE decode_placex (place_id BIGINT, osm_type TEXT, osm_id BIGINT, class TEXT, type TEXT,"
+                    + " name TEXT, postcode TEXT, address TEXT, extratags TEXT, parent_place_id BIGINT, linked_place_id BIGINT,"
+                    + " rank_address INT, rank_search INT, importance DOUBLE PRECISION, country_code TEXT,"
+                    + " bbox_minx DOUBLE PRECISION, bbox_miny DOUBLE PRECISION, bbox_maxx DOUBLE PRECISION, bbox_maxy DOUBLE PRECISION,"
+                    + " centroid_x DOUBLE PRECISION, centroid_y DOUBLE PRECISION)");
+
+            final H2DataAdapter h2 = new H2DataAdapter();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream copy = new DataOutputStream(bytes);
+            copy.write("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1));
+            copy.writeInt(0);
+            copy.writeInt(0);
+
+            final List<Object[]> tableRows = new ArrayList<>();
+            jdbc.query("SELECT place_id, osm_type, osm_id, class, type, name, postcode, address, extratags,"
+                    + " parent_place_id, linked_place_id, rank_address, rank_search, importance, country_code,"
+                    + " ST_X(centroid) AS centroid_x, ST_Y(centroid) AS centroid_y FROM placex ORDER BY place_id", rs -> {
+                final double x = rs.getDouble("centroid_x");
+                final double y = rs.getDouble("centroid_y");
+                // Give every place a small bbox, most real places have one.
+                final Object[] row = {rs.getLong("place_id"), rs.getString("osm_type"), rs.getLong("osm_id"),
+                        rs.getString("class"), rs.getString("type"), h2.getMap(rs, "name"), rs.getString("postcode"),
+                        h2.getMap(rs, "address"), h2.getMap(rs, "extratags"), rs.getObject("parent_place_id"),
+                        rs.getObject("linked_place_id"), rs.getInt("rank_address"), rs.getInt("rank_search"),
+                        rs.getObject("importance"), rs.getString("country_code"),
+                        x - 0.0001, y - 0.0001, x + 0.0001, y + 0.0001, x, y};
+                try {
+                    writeCopyRow(copy, row);
+                } catch (IOException e) {
+                    throw new SQLException(e);
+                }
+                for (int i : new int[]{5, 7, 8}) {
+                    row[i] = toHstoreText((Map<String, String>) row[i]);
+                }
+                tableRows.add(row);
+                if (tableRows.size() >= 10000) {
+                    insert(tableRows);
+                }
+            });
+            insert(tableRows);
+            copy.writeShort(-1);
+            copyData = bytes.toByteArray();
+            rows = jdbc.queryForObject("SELECT count(*) FROM decode_placex", Long.class);
+
+            System.out.println(String.format("decoding %d placex rows, %d MB of COPY data", rows, copyData.length >> 20));
+        }
+
+        void run(int run) throws Exception {
+            final AtomicLong checksum = new AtomicLong();
+
+            long start = System.nanoTime();
+            jdbc.query("SELECT * FROM decode_placex", rs -> {
+                checksum.incrementAndGet();
+            });
+            final double scanSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            jdbc.query("SELECT * FROM decode_placex", rs -> {
+                if (placeRowMapper.mapRow(rs, 0) != null) {
+                    checksum.incrementAndGet();
+                }
+            });
+            final double jdbcSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            BinaryCopyReader reader = new BinaryCopyReader(new ByteArrayInputStream(copyData));
+            while (reader.nextRow()) {
+                if (mapCopiedPlace.invoke(connector, reader) != null) {
+                    checksum.incrementAndGet();
+                }
+            }
+            final double copySeconds = (System.nanoTime() - start) / 1e9;
+
+            if (checksum.get() != 3 * rows) {
+                System.out.println(String.format("WARNING: expected %d rows per path, got %d in total", rows, checksum.get()));
+            }
+            System.out.println(String.format("run %d: H2 scan %.0f ns/row, JDBC %.0f ns/row (%.0f without the scan), COPY %.0f ns/row",
+                    run, scanSeconds * 1e9 / rows, jdbcSeconds * 1e9 / rows, (jdbcSeconds - scanSeconds) * 1e9 / rows,
+                    copySeconds * 1e9 / rows));
+        }
+
+        private void insert(List<Object[]> tableRows) {
+            jdbc.batchUpdate("INSERT INTO decode_placex (" + String.join(", ", COLUMNS) + ") VALUES ("
+                    + String.join(", ", Collections.nCopies(COLUMNS.length, "?")) + ")", tableRows);
+            tableRows.clear();
+        }
+
+        /**
+         * Write the row in the column order of NominatimConnector.COPY_COLS_PLACEX.
+         */
+        private static void writeCopyRow(DataOutputStream out, Object[] row) throws IOException {
+            out.writeShort(21);
+            writeInt8(out, row[0]);
+            writeText(out, row[1]);
+            writeInt8(out, row[2]);
+            writeText(out, row[3]);
+            writeText(out, row[4]);
+            writeHstore(out, (Map<String, String>) row[5]);
+            writeText(out, row[6]);
+            writeHstore(out, (Map<String, String>) row[7]);
+            writeHstore(out, (Map<String, String>) row[8]);
+            for (int i = 15; i < 19; ++i) {
+                writeFloat8(out, row[i]);
+            }
+            writeInt8(out, row[9]);
+            writeInt8(out, row[10]);
+            out.writeInt(4);
+            out.writeInt((Integer) row[11]);
+            out.writeInt(4);
+            out.writeInt((Integer) row[12]);
+            writeFloat8(out, row[13]);
+            writeText(out, row[14]);
+            writeFloat8(out, row[19]);
+            writeFloat8(out, row[20]);
+        }
+
+        private static void writeInt8(DataOutputStream out, Object value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(8);
+                out.writeLong(((Number) value).longValue());
+            }
+        }
+
+        private static void writeFloat8(DataOutputStream out, Object value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(8);
+                out.writeDouble(((Number) value).doubleValue());
+            }
+        }
+
+        private static void writeText(DataOutputStream out, Object value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] utf8 = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+        }
+
+        private static void writeHstore(DataOutputStream out, Map<String, String> map) throws IOException {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            DataOutputStream hstore = new DataOutputStream(content);
+            hstore.writeInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeText(hstore, entry.getKey());
+                writeText(hstore, entry.getValue());
+            }
+            out.writeInt(content.size());
+            content.writeTo(out);
+        }
+
+        private static String toHstoreText(Map<String, String> map) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append('"').append(escape(entry.getKey())).append("\"=>");
+                if (entry.getValue() == null) {
+                    sb.append("NULL");
+                } else {
+                    sb.append('"').append(escape(entry.getValue())).append('"');
+                }
+            }
+            return sb.toString();
+        }
+
+        private static String escape(String str) {
+            return str.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Sums up the bytes allocated by all threads during an import.
+     *
+     * The import threads end with the import, so their allocation counters
+     * are sampled regularly. Allocations of a thread after the last sample
+     * before it ended are missed.
+     */
+    private static class AllocationSampler extends Thread {
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final Map<Long, Long> baseline = new HashMap<>();
+        private final Map<Long, Long> latest = new HashMap<>();
+        private volatile boolean running = true;
+
+        AllocationSampler() {
+            super("benchmark-allocation-sampler");
+            setDaemon(true);
+            sample(baseline);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                synchronized (latest) {
+                    sample(latest);
+                }
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        void finish() throws InterruptedException {
+            running = false;
+            join();
+            sample(latest);
+        }
+
+        long getAllocatedBytes() {
+            long total = 0;
+            synchronized (latest) {
+                for (Map.Entry<Long, Long> entry : latest.entrySet()) {
+                    total += entry.getValue() - baseline.getOrDefault(entry.getKey(), 0L);
+                }
+            }
+            return total;
+        }
+
+        private void sample(Map<Long, Long> into) {
+            long[] ids = threads.getAllThreadIds();
+            long[] allocated = threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; ++i) {
+                if (allocated[i] >= 0) {
+                    into.put(ids[i], allocated[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.komoot.photon.nominatim;
+
+import de.komoot.photon.Importer;
+import de.komoot.photon.PhotonDoc;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImportThreadTest {
+
+    private static class CountingImporter implements Importer {
+        final AtomicLong added = new AtomicLong();
+        final AtomicLong flushed = new AtomicLong(-1);
+        final AtomicInteger flushCalls = new AtomicInteger();
+
+        @Override
+        public void add(PhotonDoc doc) {
+            added.incrementAndGet();
+        }
+
+        @Override
+        public void addSerialized(String id, byte[] json) {
+            fail("Unexpected serialized document.");
+        }
+
+        @Override
+        public void flush() {
+            flushCalls.incrementAndGet();
+            flushed.set(added.get());
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+
+    private static List<NominatimResult> makeResults(int num) {
+        List<NominatimResult> results = new ArrayList<>();
+        for (int i = 0; i < num; ++i) {
+            results.add(new NominatimResult(new PhotonDoc(i, "N", i, "amenity", "cafe")));
+        }
+        return results;
+    }
+
+    @Test
+    public void testSyncWaitsForEarlierDocuments() throws InterruptedException {
+        CountingImporter importer = new CountingImporter();
+        ImportThread importThread = new ImportThread(importer, 3, 2000);
+
+        importThread.addDocuments(makeResults(5000));
+
+        CountDownLatch synced = new CountDownLatch(1);
+        AtomicLong addedAtSync = new AtomicLong();
+        assertTrue(importThread.sync(() -> {
+            addedAtSync.set(importer.flushed.get());
+            synced.countDown();
+        }));
+
+        importThread.addDocuments(makeResults(100));
+
+        assertTrue(synced.await(10, TimeUnit.SECONDS));
+        importThread.finish();
+
+        assertEquals(1, importer.flushCalls.get());
+        assertTrue(addedAtSync.get() >= 5000);
+        assertEquals(5100, importer.added.get());
+    }
+}
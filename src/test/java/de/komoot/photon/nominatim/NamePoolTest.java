@@ -0,0 +1,71 @@
+package de.komoot.photon.nominatim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NamePoolTest {
+    private static Map<String, String> names(String name) {
+        Map<String, String> names = new HashMap<>();
+        names.put("name", name);
+        names.put("name:en", name + " (en)");
+        return names;
+    }
+
+    @Test
+    public void testEqualMapsAreShared() {
+        NamePool pool = new NamePool(10);
+
+        Map<String, String> first = pool.intern(names("Town"));
+        Map<String, String> second = pool.intern(names("Town"));
+
+        assertSame(first, second);
+        assertEquals(names("Town"), first);
+        assertNotSame(first, pool.intern(names("Village")));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testInternedMapsAreImmutable() {
+        NamePool pool = new NamePool(10);
+        Map<String, String> original = names("Town");
+        Map<String, String> interned = pool.intern(original);
+
+        assertThrows(UnsupportedOperationException.class, () -> interned.put("name", "City"));
+
+        original.put("name", "City");
+        assertEquals("Town", interned.get("name"));
+    }
+
+    @Test
+    public void testEmptyAndNullMaps() {
+        NamePool pool = new NamePool(10);
+
+        assertNull(pool.intern(null));
+        assertSame(Collections.emptyMap(), pool.intern(new HashMap<>()));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        NamePool pool = new NamePool(2);
+        pool.intern(names("One"));
+        pool.intern(names("Two"));
+        pool.intern(names("Three"));
+
+        assertTrue(pool.size() <= 2);
+        assertEquals(names("One"), pool.intern(names("One")));
+    }
+
+    @Test
+    public void testDisabledPool() {
+        NamePool pool = new NamePool(0);
+
+        assertEquals(names("Town"), pool.intern(names("Town")));
+        assertEquals(0, pool.size());
+    }
+}
@@ -2,15 +2,24 @@ package de.komoot.photon.nominatim;
 
 import com.vividsolutions.jts.io.ParseException;
 import de.komoot.photon.AssertUtil;
+import de.komoot.photon.ImportCheckpoint;
 import de.komoot.photon.PhotonDoc;
 import de.komoot.photon.ReflectionTestUtil;
+import de.komoot.photon.SectorRange;
 import de.komoot.photon.nominatim.model.AddressType;
 import de.komoot.photon.nominatim.testdb.CollectingImporter;
 import de.komoot.photon.nominatim.testdb.H2DataAdapter;
+import de.komoot.photon.nominatim.testdb.MemoryCheckpointStore;
 import de.komoot.photon.nominatim.testdb.OsmlineTestRow;
 import de.komoot.photon.nominatim.testdb.PlacexTestRow;
+import de.komoot.photon.nominatim.testdb.SyntheticDataset;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
@@ -276,4 +285,199 @@ public class NominatimConnectorDBTest {
 
         assertNull(importer.get(place).getCountryCode());
     }
-}
\ No newline at end of file
+
+    /**
+     * A parallel import reads every sector range, including rows without a sector, exactly once.
+     */
+    @Test
+    public void testParallelImport() throws ParseException {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(100).add(jdbc);
+        street.addAddresslines(jdbc,
+                new PlacexTestRow("place", "city").name("Grand Junction").rankAddress(16).sector(5000).add(jdbc));
+
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "1;2").parent(street).sector(100).add(jdbc);
+        PlacexTestRow cafe = new PlacexTestRow("amenity", "cafe").name("Spot").sector(2711).add(jdbc);
+        PlacexTestRow nosector = new PlacexTestRow("amenity", "bar").name("Nowhere").add(jdbc);
+        new OsmlineTestRow().number(1, 5, "all").parent(street).sector(3000).add(jdbc);
+
+        connector.setReaderThreads(3);
+        connector.readEntireDatabase();
+
+        assertEquals(9, importer.size());
+        importer.assertFinishCalled(1);
+        importer.assertContains(street);
+        importer.assertContains(cafe);
+        importer.assertContains(nosector);
+        importer.assertContains(house, 1);
+        importer.assertContains(house, 2);
+
+        AssertUtil.assertAddressName("Main St", importer.get(house.getPlaceId()), AddressType.STREET);
+        AssertUtil.assertAddressName("Grand Junction", importer.get(house.getPlaceId()), AddressType.CITY);
+    }
+
+    @Test
+    public void testImportWithCheckpoints() throws ParseException {
+        PlacexTestRow cafe = new PlacexTestRow("amenity", "cafe").name("Spot").sector(100).add(jdbc);
+        PlacexTestRow bar = new PlacexTestRow("amenity", "bar").name("Nowhere").add(jdbc);
+        new OsmlineTestRow().number(1, 3, "all").sector(200).add(jdbc);
+
+        MemoryCheckpointStore store = new MemoryCheckpointStore();
+        connector.setCheckpointStore(store, false);
+        ReflectionTestUtil.setFieldValue(connector, "checkpointIntervalMillis", 0L);
+        connector.readEntireDatabase();
+
+        assertEquals(3, importer.size());
+        importer.assertFinishCalled(1);
+        importer.assertContains(cafe);
+        importer.assertContains(bar);
+
+        // Checkpoint is removed after a successful import.
+        assertNull(store.load());
+
+        // The first save is the empty checkpoint, the last one has all tasks completed.
+        List<Set<String>> saves = store.getSaves();
+        assertTrue(saves.size() >= 2);
+        assertTrue(saves.get(0).isEmpty());
+        assertTrue(saves.get(saves.size() - 1).contains(
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_OSMLINE, SectorRange.nullSector())));
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws ParseException {
+        new PlacexTestRow("amenity", "cafe").name("Done").sector(50).add(jdbc);
+        new OsmlineTestRow().number(1, 3, "all").sector(60).add(jdbc);
+        PlacexTestRow pending = new PlacexTestRow("amenity", "bar").name("Pending").sector(150).add(jdbc);
+        PlacexTestRow halfDone = new PlacexTestRow("amenity", "pub").name("Half").add(jdbc);
+
+        ImportCheckpoint checkpoint = new ImportCheckpoint()
+                .setSectorRanges(Arrays.asList(
+                        SectorRange.between(0, 99),
+                        SectorRange.between(100, 199),
+                        SectorRange.nullSector()));
+        checkpoint.markCompleted(Arrays.asList(
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_PLACEX, SectorRange.between(0, 99)),
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_OSMLINE, SectorRange.between(0, 99)),
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_OSMLINE, SectorRange.nullSector())));
+
+        connector.setCheckpointStore(new MemoryCheckpointStore(checkpoint), true);
+        connector.readEntireDatabase();
+
+        assertEquals(2, importer.size());
+        importer.assertContains(pending);
+        importer.assertContains(halfDone);
+    }
+
+    @Test
+    public void testCheckpointForOtherCountriesIsIgnored() {
+        new PlacexTestRow("amenity", "cafe").name("Spot").country("de").sector(50).add(jdbc);
+
+        ImportCheckpoint checkpoint = new ImportCheckpoint()
+                .setCountryCodes("'fr'")
+                .setSectorRanges(Arrays.asList(SectorRange.between(0, 99)));
+        checkpoint.markCompleted(Arrays.asList(
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_PLACEX, SectorRange.between(0, 99)),
+                ImportCheckpoint.taskName(ImportCheckpoint.PHASE_OSMLINE, SectorRange.between(0, 99))));
+
+        connector.setCheckpointStore(new MemoryCheckpointStore(checkpoint), true);
+        connector.readEntireDatabase("de");
+
+        assertEquals(1, importer.size());
+    }
+
+    /**
+     * Addresses looked up together for places with different parents end up at the right place.
+     */
+    @Test
+    public void testAddressesOfMixedParents() {
+        PlacexTestRow street1 = PlacexTestRow.make_street("First St").add(jdbc);
+        street1.addAddresslines(jdbc,
+                new PlacexTestRow("place", "city").name("Springfield").rankAddress(16).add(jdbc));
+        PlacexTestRow street2 = PlacexTestRow.make_street("Second St").add(jdbc);
+        street2.addAddresslines(jdbc,
+                new PlacexTestRow("place", "city").name("Shelbyville").rankAddress(16).add(jdbc));
+
+        PlacexTestRow house1 = new PlacexTestRow("building", "yes").addr("housenumber", "1").parent(street1).add(jdbc);
+        PlacexTestRow house2 = new PlacexTestRow("building", "yes").addr("housenumber", "2").parent(street2).add(jdbc);
+        PlacexTestRow house3 = new PlacexTestRow("building", "yes").addr("housenumber", "3").parent(street1).add(jdbc);
+
+        connector.readEntireDatabase();
+
+        assertEquals(7, importer.size());
+
+        AssertUtil.assertAddressName("First St", importer.get(house1), AddressType.STREET);
+        AssertUtil.assertAddressName("Springfield", importer.get(house1), AddressType.CITY);
+        AssertUtil.assertAddressName("Second St", importer.get(house2), AddressType.STREET);
+        AssertUtil.assertAddressName("Shelbyville", importer.get(house2), AddressType.CITY);
+        AssertUtil.assertAddressName("First St", importer.get(house3), AddressType.STREET);
+        AssertUtil.assertAddressName("Springfield", importer.get(house3), AddressType.CITY);
+        AssertUtil.assertAddressName("Springfield", importer.get(street1), AddressType.CITY);
+        AssertUtil.assertAddressName("Shelbyville", importer.get(street2), AddressType.CITY);
+    }
+
+    /**
+     * The address of a parent is looked up only once for all its house numbers,
+     * and single lookups reuse it as well.
+     */
+    @Test
+    public void testParentAddressIsCached() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").add(jdbc);
+        street.addAddresslines(jdbc,
+                new PlacexTestRow("place", "city").name("Grand Junction").rankAddress(16).add(jdbc));
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "1").parent(street).add(jdbc);
+        new PlacexTestRow("building", "yes").addr("housenumber", "2").parent(street).add(jdbc);
+        new PlacexTestRow("building", "yes").addr("housenumber", "3").parent(street).add(jdbc);
+
+        connector.readEntireDatabase();
+
+        AddressCache cache = connector.getAddressCache();
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getHits());
+
+        List<PhotonDoc> docs = connector.getByPlaceId(house.getPlaceId());
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        AssertUtil.assertAddressName("Grand Junction", docs.get(0), AddressType.CITY);
+    }
+
+    /**
+     * With several converter threads and a small queue, every document still arrives exactly once.
+     */
+    @Test
+    public void testMultipleConverterThreads() throws ParseException {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").add(jdbc);
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "1;2;3;4;5;6;7;8").parent(street).add(jdbc);
+
+        connector.setConverterThreads(4);
+        connector.setImportQueueSize(2);
+        connector.readEntireDatabase();
+
+        assertEquals(9, importer.size());
+        importer.assertFinishCalled(1);
+        importer.assertContains(street);
+        for (int i = 1; i <= 8; ++i) {
+            importer.assertContains(house, i);
+        }
+    }
+
+    /**
+     * The synthetic benchmark dataset imports into the documents it promises, with one or more readers.
+     */
+    @Test
+    public void testSyntheticDataset() {
+        SyntheticDataset dataset = new SyntheticDataset(30).streetsPerCity(10).housesPerStreet(5).generate(jdbc);
+
+        assertEquals(1 + 3 * 5 + 30 * 7, dataset.getPlacexCount());
+        assertEquals(8, dataset.getInterpolationCount());
+
+        connector.readEntireDatabase();
+        assertEquals(dataset.getExpectedDocuments(), importer.size());
+
+        CollectingImporter parallelImporter = new CollectingImporter();
+        connector.setImporter(parallelImporter);
+        connector.setReaderThreads(3);
+        connector.setConverterThreads(2);
+        connector.readEntireDatabase();
+        assertEquals(dataset.getExpectedDocuments(), parallelImporter.size());
+    }
+}
@@ -171,4 +171,42 @@ public class NominatimResultTest {
         assertDocWithHousenumbers(Arrays.asList("2", "101", "102", "103", "104", "105"), res.getDocsWithHousenumber());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testInterpolationPositions() throws ParseException {
+        NominatimResult res = new NominatimResult(simpleDoc);
+
+        WKTReader reader = new WKTReader();
+        res.addHouseNumbersFromInterpolation(10, 14, 2,
+                reader.read("LINESTRING(0.0 0.0 ,0.0 0.1)"));
+
+        assertEquals(2, res.maxDocCount());
+
+        Map<String, Double> positions = new HashMap<>();
+        int count = res.forEachDocWithHousenumber(doc -> positions.put(doc.getHouseNumber(), doc.getCentroid().getCoordinate().y));
+
+        assertEquals(2, count);
+        assertEquals(0.025, positions.get("11"), 0.00001);
+        assertEquals(0.075, positions.get("13"), 0.00001);
+    }
+
+    @Test
+    public void testDuplicateHousenumbersAreAddedOnce() throws ParseException {
+        NominatimResult res = new NominatimResult(simpleDoc);
+
+        WKTReader reader = new WKTReader();
+        res.addHouseNumbersFromInterpolation(1, 10, "all",
+                reader.read("LINESTRING(0.0 0.0 ,0.0 0.1)"));
+        res.addHouseNumbersFromInterpolation(4, 8, "all",
+                reader.read("LINESTRING(1.0 0.0 ,1.0 0.1)"));
+        res.addHousenumbersFromString("2");
+
+        assertDocWithHousenumbers(Arrays.asList("2", "3", "4", "5", "6", "7", "8", "9"), res.getDocsWithHousenumber());
+
+        for (PhotonDoc doc : res.getDocsWithHousenumber()) {
+            if ("6".equals(doc.getHouseNumber())) {
+                assertEquals(1.0, doc.getCentroid().getCoordinate().x, 0.00001);
+            }
+        }
+    }
+
+}
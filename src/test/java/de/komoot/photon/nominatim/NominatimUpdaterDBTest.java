@@ -0,0 +1,405 @@
+package de.komoot.photon.nominatim;
+
+import de.komoot.photon.AssertUtil;
+import de.komoot.photon.PhotonDoc;
+import de.komoot.photon.ReflectionTestUtil;
+import de.komoot.photon.nominatim.model.AddressType;
+import de.komoot.photon.nominatim.testdb.CollectingUpdater;
+import de.komoot.photon.nominatim.testdb.H2DataAdapter;
+import de.komoot.photon.nominatim.testdb.OsmlineTestRow;
+import de.komoot.photon.nominatim.testdb.PlacexTestRow;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NominatimUpdaterDBTest {
+    private EmbeddedDatabase db;
+    private NominatimUpdater nominatimUpdater;
+    private CollectingUpdater updater;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    public void setup() {
+        db = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScript("/test-schema.sql")
+                .build();
+
+        nominatimUpdater = new NominatimUpdater(null, 0, null, null, null, new H2DataAdapter());
+        updater = new CollectingUpdater();
+        nominatimUpdater.setUpdater(updater);
+
+        jdbc = new JdbcTemplate(db);
+        ReflectionTestUtil.setFieldValue(nominatimUpdater, "template", jdbc);
+        NominatimConnector exporter = ReflectionTestUtil.getFieldValue(nominatimUpdater, "exporter");
+        ReflectionTestUtil.setFieldValue(exporter, "template", jdbc);
+
+        jdbc.update("INSERT INTO import_status (indexed) VALUES (false)");
+    }
+
+    private void setStatus(String table, long placeId, int status) {
+        jdbc.update("UPDATE " + table + " SET indexed_status = ? WHERE place_id = ?", status, placeId);
+    }
+
+    private void setAllIndexed() {
+        jdbc.update("UPDATE placex SET indexed_status = 0");
+        jdbc.update("UPDATE location_property_osmline SET indexed_status = 0");
+    }
+
+    private int getStatus(String table, long placeId) {
+        return jdbc.queryForObject("SELECT indexed_status FROM " + table + " WHERE place_id = ?", Integer.class, placeId);
+    }
+
+    @Test
+    public void testCreateUpdateAndDelete() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        street.addAddresslines(jdbc,
+                new PlacexTestRow("place", "city").name("Grand Junction").rankAddress(16).sector(5).add(jdbc));
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "1;2").parent(street).sector(10).add(jdbc);
+        PlacexTestRow cafe = new PlacexTestRow("amenity", "cafe").name("Spot").sector(10).add(jdbc);
+        PlacexTestRow gone = new PlacexTestRow("amenity", "bar").name("Gone").sector(10).add(jdbc);
+        PlacexTestRow unchanged = new PlacexTestRow("amenity", "pub").name("Old").sector(10).add(jdbc);
+
+        setStatus("placex", street.getPlaceId(), 1);
+        setStatus("placex", house.getPlaceId(), 2);
+        setStatus("placex", cafe.getPlaceId(), 1);
+        setStatus("placex", gone.getPlaceId(), 100);
+        setStatus("placex", unchanged.getPlaceId(), 0);
+
+        assertTrue(nominatimUpdater.update());
+        assertEquals(4, nominatimUpdater.getIndexedDocuments());
+
+        updater.assertCreated(street.getPlaceId(), 1);
+        updater.assertCreated(house.getPlaceId(), 2);
+        updater.assertCreated(cafe.getPlaceId(), 1);
+        updater.assertCreated(gone.getPlaceId(), 0);
+        updater.assertCreated(unchanged.getPlaceId(), 0);
+        // Updates are deleted first, because the number of house numbers may have changed.
+        assertEquals(Arrays.asList(house.getPlaceId(), gone.getPlaceId()), updater.getDeleted());
+
+        for (PhotonDoc doc : updater.getCreated()) {
+            if (doc.getPlaceId() == house.getPlaceId()) {
+                AssertUtil.assertAddressName("Main St", doc, AddressType.STREET);
+                AssertUtil.assertAddressName("Grand Junction", doc, AddressType.CITY);
+            }
+        }
+
+        for (PlacexTestRow row : Arrays.asList(street, house, cafe, gone, unchanged)) {
+            assertEquals(0, getStatus("placex", row.getPlaceId()));
+        }
+        assertTrue(jdbc.queryForObject("SELECT indexed FROM import_status", Boolean.class));
+        updater.assertFinishCalled(1);
+    }
+
+    @Test
+    public void testUpdatedPlaceThatIsNoLongerUseful() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        jdbc.update("UPDATE placex SET name = NULL WHERE place_id = ?", street.getPlaceId());
+        setStatus("placex", street.getPlaceId(), 2);
+
+        nominatimUpdater.update();
+
+        updater.assertCreated(street.getPlaceId(), 0);
+        assertEquals(Arrays.asList(street.getPlaceId()), updater.getDeleted());
+    }
+
+    @Test
+    public void testUpdatedPlaceIsReplaced() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        setStatus("placex", street.getPlaceId(), 2);
+
+        nominatimUpdater.update();
+
+        // All old documents of the place go, including house numbers it no longer has.
+        updater.assertCreated(street.getPlaceId(), 1);
+        assertEquals(Arrays.asList(street.getPlaceId()), updater.getDeleted());
+    }
+
+    @Test
+    public void testChangeDuringFlushIsKept() {
+        PlacexTestRow cafe = new PlacexTestRow("amenity", "cafe").name("Spot").sector(10).add(jdbc);
+        PlacexTestRow bar = new PlacexTestRow("amenity", "bar").name("Corner").sector(10).add(jdbc);
+        OsmlineTestRow line = new OsmlineTestRow().number(1, 5, "all").sector(10).add(jdbc);
+        setStatus("placex", cafe.getPlaceId(), 1);
+        setStatus("placex", bar.getPlaceId(), 2);
+        setStatus("location_property_osmline", line.getPlaceId(), 1);
+
+        // Nominatim changes the places again after they have been read,
+        // first flush is for the placex batch, the second for the interpolations.
+        updater.setOnFlush(() -> {
+            if (updater.getFlushCalled() == 1) {
+                setStatus("placex", cafe.getPlaceId(), 100);
+            } else {
+                setStatus("location_property_osmline", line.getPlaceId(), 100);
+            }
+        });
+        assertTrue(nominatimUpdater.update());
+
+        assertEquals(100, getStatus("placex", cafe.getPlaceId()));
+        assertEquals(0, getStatus("placex", bar.getPlaceId()));
+        assertEquals(100, getStatus("location_property_osmline", line.getPlaceId()));
+    }
+
+    @Test
+    public void testUpdatePlaceIds() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "3").parent(street).sector(10).add(jdbc);
+        PlacexTestRow gone = new PlacexTestRow("amenity", "bar").name("Gone").sector(10).add(jdbc);
+        PlacexTestRow other = new PlacexTestRow("amenity", "cafe").name("Other").sector(10).add(jdbc);
+        PlacexTestRow done = new PlacexTestRow("amenity", "pub").name("Done").sector(10).add(jdbc);
+        OsmlineTestRow line = new OsmlineTestRow().number(1, 5, "all").parent(street).sector(10).add(jdbc);
+        setStatus("placex", street.getPlaceId(), 2);
+        setStatus("placex", house.getPlaceId(), 1);
+        setStatus("placex", gone.getPlaceId(), 100);
+        setStatus("placex", other.getPlaceId(), 1);
+        setStatus("placex", done.getPlaceId(), 0);
+        setStatus("location_property_osmline", line.getPlaceId(), 1);
+
+        assertEquals(NominatimUpdater.ChangeResult.COMPLETE, nominatimUpdater.updatePlaceIds(
+                Arrays.asList(house.getPlaceId(), gone.getPlaceId(), street.getPlaceId(), done.getPlaceId()),
+                Arrays.asList(line.getPlaceId())));
+
+        // The street comes first because of its lower rank.
+        List<PhotonDoc> created = updater.getCreated();
+        assertEquals(street.getPlaceId(), created.get(0).getPlaceId());
+        updater.assertCreated(house.getPlaceId(), 1);
+        updater.assertCreated(line.getPlaceId(), 3);
+        updater.assertCreated(done.getPlaceId(), 0);
+        // Only the given places are updated.
+        updater.assertCreated(other.getPlaceId(), 0);
+        assertEquals(1, getStatus("placex", other.getPlaceId()));
+
+        assertEquals(0, getStatus("placex", street.getPlaceId()));
+        assertEquals(0, getStatus("placex", house.getPlaceId()));
+        assertEquals(0, getStatus("placex", gone.getPlaceId()));
+        assertEquals(0, getStatus("location_property_osmline", line.getPlaceId()));
+        assertTrue(updater.getDeleted().contains(gone.getPlaceId()));
+    }
+
+    @Test
+    public void testUpdatePlaceIdsKeepsUpdateStatistics() {
+        PlacexTestRow cafe = new PlacexTestRow("amenity", "cafe").name("Spot").sector(10).add(jdbc);
+        PlacexTestRow pub = new PlacexTestRow("amenity", "pub").name("Old").sector(10).add(jdbc);
+        PlacexTestRow bar = new PlacexTestRow("amenity", "bar").name("Corner").sector(10).add(jdbc);
+        setStatus("placex", cafe.getPlaceId(), 1);
+        setStatus("placex", pub.getPlaceId(), 1);
+        setStatus("placex", bar.getPlaceId(), 0);
+
+        assertTrue(nominatimUpdater.update());
+        assertEquals(2, nominatimUpdater.getIndexedDocuments());
+
+        // Pushed changes are not part of the progress of the full update.
+        setStatus("placex", bar.getPlaceId(), 1);
+        assertEquals(NominatimUpdater.ChangeResult.COMPLETE,
+                nominatimUpdater.updatePlaceIds(Arrays.asList(bar.getPlaceId()), Collections.emptyList()));
+        updater.assertCreated(bar.getPlaceId(), 1);
+        assertEquals(2, nominatimUpdater.getIndexedDocuments());
+    }
+
+    @Test
+    public void testUpdatePlaceIdsDoesNotWaitForRunningUpdate() throws Exception {
+        PlacexTestRow cafe = new PlacexTestRow("amenity", "cafe").name("Spot").sector(10).add(jdbc);
+        PlacexTestRow bar = new PlacexTestRow("amenity", "bar").name("Corner").sector(10).add(jdbc);
+        setStatus("placex", cafe.getPlaceId(), 1);
+        setStatus("placex", bar.getPlaceId(), 0);
+
+        // Changes pushed from another thread while the full update runs.
+        final List<NominatimUpdater.ChangeResult> results = new ArrayList<>();
+        updater.setOnFlush(() -> {
+            Thread pusher = new Thread(() -> results.add(
+                    nominatimUpdater.updatePlaceIds(Arrays.asList(bar.getPlaceId()), Collections.emptyList())));
+            pusher.start();
+            try {
+                pusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        setStatus("placex", bar.getPlaceId(), 1);
+        assertTrue(nominatimUpdater.update());
+
+        assertFalse(results.isEmpty());
+        assertTrue(results.stream().allMatch(r -> r == NominatimUpdater.ChangeResult.BUSY));
+    }
+
+    @Test
+    public void testRenamedParentUpdatesDependents() {
+        PlacexTestRow city = new PlacexTestRow("place", "city").name("Grand Junction").rankAddress(16).rankSearch(16).sector(5).add(jdbc);
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        street.addAddresslines(jdbc, city);
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "3").parent(street).sector(10).add(jdbc);
+        OsmlineTestRow line = new OsmlineTestRow().number(1, 5, "all").parent(street).sector(10).add(jdbc);
+        PlacexTestRow elsewhere = PlacexTestRow.make_street("Side St").sector(11).add(jdbc);
+
+        setAllIndexed();
+        jdbc.update("UPDATE placex SET name = '{\"name\": \"New Junction\"}' FORMAT JSON WHERE place_id = ?", city.getPlaceId());
+        setStatus("placex", city.getPlaceId(), 2);
+
+        assertTrue(nominatimUpdater.update());
+
+        updater.assertCreated(city.getPlaceId(), 1);
+        updater.assertCreated(street.getPlaceId(), 1);
+        updater.assertCreated(house.getPlaceId(), 1);
+        updater.assertCreated(line.getPlaceId(), 3);
+        updater.assertCreated(elsewhere.getPlaceId(), 0);
+        for (PhotonDoc doc : updater.getCreated()) {
+            if (doc.getPlaceId() != city.getPlaceId()) {
+                AssertUtil.assertAddressName("New Junction", doc, AddressType.CITY);
+            }
+        }
+        assertEquals(Arrays.asList(city.getPlaceId()), updater.getDeleted());
+    }
+
+    @Test
+    public void testDependentsAreLimited() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        List<PlacexTestRow> houses = new ArrayList<>();
+        for (int i = 1; i <= 5; ++i) {
+            houses.add(new PlacexTestRow("building", "yes").addr("housenumber", Integer.toString(i)).parent(street).sector(10).add(jdbc));
+        }
+        setAllIndexed();
+        setStatus("placex", street.getPlaceId(), 2);
+
+        // Too many dependents: they are left to the next update.
+        nominatimUpdater.setCascadeLimit(3);
+        assertTrue(nominatimUpdater.update());
+        assertEquals(1, updater.getCreated().size());
+        for (PlacexTestRow house : houses) {
+            assertEquals(2, getStatus("placex", house.getPlaceId()));
+        }
+
+        assertTrue(nominatimUpdater.update());
+        assertEquals(6, updater.getCreated().size());
+        for (PlacexTestRow house : houses) {
+            assertEquals(0, getStatus("placex", house.getPlaceId()));
+        }
+
+        updater = new CollectingUpdater();
+        nominatimUpdater.setUpdater(updater);
+        nominatimUpdater.setCascadeLimit(0);
+        setStatus("placex", street.getPlaceId(), 2);
+        assertTrue(nominatimUpdater.update());
+        assertEquals(1, updater.getCreated().size());
+    }
+
+    @Test
+    public void testFailedDependentsAreRetried() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "3").parent(street).sector(10).add(jdbc);
+        setAllIndexed();
+        setStatus("placex", street.getPlaceId(), 2);
+
+        // Only the batch with the dependent places fails.
+        updater.setOnFlush(() -> updater.setFailing(updater.getFlushCalled() > 1));
+        assertFalse(nominatimUpdater.update());
+        assertEquals(0, getStatus("placex", street.getPlaceId()));
+        assertEquals(2, getStatus("placex", house.getPlaceId()));
+
+        updater.setOnFlush(null);
+        updater.setFailing(false);
+        assertTrue(nominatimUpdater.update());
+        assertEquals(0, getStatus("placex", house.getPlaceId()));
+        updater.assertCreated(house.getPlaceId(), 2);
+    }
+
+    @Test
+    public void testInterpolations() {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").sector(10).add(jdbc);
+        OsmlineTestRow line = new OsmlineTestRow().number(1, 5, "all").parent(street).sector(10).add(jdbc);
+        OsmlineTestRow gone = new OsmlineTestRow().number(1, 9, "odd").parent(street).sector(10).add(jdbc);
+        setStatus("location_property_osmline", line.getPlaceId(), 2);
+        setStatus("location_property_osmline", gone.getPlaceId(), 100);
+
+        nominatimUpdater.update();
+
+        updater.assertCreated(line.getPlaceId(), 3);
+        updater.assertCreated(gone.getPlaceId(), 0);
+        assertEquals(Arrays.asList(line.getPlaceId(), gone.getPlaceId()), updater.getDeleted());
+        assertEquals(0, getStatus("location_property_osmline", line.getPlaceId()));
+        assertEquals(0, getStatus("location_property_osmline", gone.getPlaceId()));
+    }
+
+    /**
+     * With several threads, all sectors are processed, but a rank only starts once the previous one is done.
+     */
+    @Test
+    public void testParallelSectors() {
+        List<PlacexTestRow> streets = new ArrayList<>();
+        List<PlacexTestRow> houses = new ArrayList<>();
+        for (int sector = 1; sector <= 20; ++sector) {
+            PlacexTestRow street = PlacexTestRow.make_street("Street " + sector).sector(sector).add(jdbc);
+            streets.add(street);
+            houses.add(new PlacexTestRow("building", "yes").addr("housenumber", "1").parent(street).sector(sector).add(jdbc));
+        }
+        jdbc.update("UPDATE placex SET indexed_status = 1");
+
+        nominatimUpdater.setUpdateThreads(4);
+        nominatimUpdater.update();
+
+        List<PhotonDoc> created = updater.getCreated();
+        assertEquals(40, created.size());
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(26, created.get(i).getRankAddress());
+            assertEquals(30, created.get(20 + i).getRankAddress());
+            updater.assertCreated(streets.get(i).getPlaceId(), 1);
+            updater.assertCreated(houses.get(i).getPlaceId(), 1);
+        }
+        for (PhotonDoc doc : created.subList(20, 40)) {
+            assertNotNull(doc.getAddressParts().get(AddressType.STREET));
+        }
+        assertEquals(0, jdbc.queryForObject("SELECT count(*) FROM placex WHERE indexed_status > 0", Integer.class));
+    }
+
+    /**
+     * The country names are shared by the update threads and must be complete for every document.
+     */
+    @Test
+    public void testParallelSectorsSetCountry() {
+        for (int sector = 1; sector <= 40; ++sector) {
+            new PlacexTestRow("amenity", "cafe").name("Cafe " + sector).country("de").sector(sector).add(jdbc);
+        }
+        jdbc.update("UPDATE placex SET indexed_status = 1");
+
+        nominatimUpdater.setUpdateThreads(8);
+        assertTrue(nominatimUpdater.update());
+
+        List<PhotonDoc> created = updater.getCreated();
+        assertEquals(40, created.size());
+        for (PhotonDoc doc : created) {
+            assertEquals("Deutschland", doc.getAddressParts().get(AddressType.COUNTRY).get("name"));
+        }
+    }
+
+    /**
+     * Places stay marked for indexing when the index does not accept the changes.
+     */
+    @Test
+    public void testFailedBatchIsRetried() {
+        PlacexTestRow cafe = new PlacexTestRow("amenity", "cafe").name("Spot").sector(10).add(jdbc);
+        setStatus("placex", cafe.getPlaceId(), 1);
+
+        updater.setFailing(true);
+        nominatimUpdater.update();
+
+        assertEquals(1, getStatus("placex", cafe.getPlaceId()));
+        assertFalse(jdbc.queryForObject("SELECT indexed FROM import_status", Boolean.class));
+
+        updater.setFailing(false);
+        nominatimUpdater.update();
+
+        updater.assertCreated(cafe.getPlaceId(), 2);
+        assertEquals(0, getStatus("placex", cafe.getPlaceId()));
+        assertTrue(jdbc.queryForObject("SELECT indexed FROM import_status", Boolean.class));
+    }
+}
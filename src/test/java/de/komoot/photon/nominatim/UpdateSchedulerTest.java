@@ -0,0 +1,116 @@
+package de.komoot.photon.nominatim;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class UpdateSchedulerTest {
+    private NominatimUpdater updater;
+    private UpdateScheduler scheduler;
+    private CountDownLatch started;
+    private CountDownLatch release;
+    private AtomicBoolean lastCancel;
+
+    @BeforeEach
+    public void setup() {
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        updater = Mockito.mock(NominatimUpdater.class);
+        when(updater.update(any())).thenAnswer(invocation -> {
+            lastCancel = invocation.getArgument(0);
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        });
+        scheduler = new UpdateScheduler(updater);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        for (int i = 0; i < 100 && scheduler.getState() != UpdateScheduler.State.IDLE; ++i) {
+            Thread.sleep(50);
+        }
+        assertEquals(UpdateScheduler.State.IDLE, scheduler.getState());
+    }
+
+    @Test
+    public void testTriggersAreCoalesced() throws InterruptedException {
+        scheduler.trigger();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(UpdateScheduler.State.RUNNING, scheduler.getState());
+
+        // Triggers during a running update result in exactly one more update.
+        scheduler.trigger();
+        scheduler.trigger();
+        JSONObject status = scheduler.trigger();
+        assertTrue(status.getBoolean("queued"));
+        assertTrue(status.has("progress"));
+
+        release.countDown();
+        waitForIdle();
+
+        verify(updater, times(2)).update(any());
+        status = scheduler.getStatus();
+        assertFalse(status.getBoolean("queued"));
+        assertEquals("complete", status.getJSONObject("last_update").getString("result"));
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        scheduler.trigger();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        scheduler.trigger();
+
+        JSONObject status = scheduler.cancel();
+        assertEquals("cancelling", status.getString("state"));
+        assertFalse(status.getBoolean("queued"));
+        assertTrue(lastCancel.get());
+
+        release.countDown();
+        waitForIdle();
+
+        // The queued update has been dropped.
+        verify(updater, times(1)).update(any());
+        assertEquals("cancelled", scheduler.getStatus().getJSONObject("last_update").getString("result"));
+    }
+
+    @Test
+    public void testCancelDoesNotCarryOverToNextUpdate() throws InterruptedException {
+        // Cancelling while idle must not affect the next update.
+        scheduler.cancel();
+        scheduler.trigger();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertFalse(lastCancel.get());
+        assertEquals(UpdateScheduler.State.RUNNING, scheduler.getState());
+
+        release.countDown();
+        waitForIdle();
+        assertEquals("complete", scheduler.getStatus().getJSONObject("last_update").getString("result"));
+    }
+
+    @Test
+    public void testFailedUpdateKeepsSchedulerAlive() throws InterruptedException {
+        when(updater.update(any())).thenThrow(new IllegalStateException("database gone")).thenReturn(false);
+
+        scheduler.trigger();
+        waitForIdle();
+        assertEquals("failed", scheduler.getStatus().getJSONObject("last_update").getString("result"));
+
+        scheduler.trigger();
+        waitForIdle();
+        assertEquals("incomplete", scheduler.getStatus().getJSONObject("last_update").getString("result"));
+    }
+}
@@ -17,10 +17,19 @@ public class CollectingImporter implements Importer {
 
 
     @Override
-    public void add(PhotonDoc doc) {
+    public synchronized void add(PhotonDoc doc) {
         docs.add(doc);
     }
 
+    @Override
+    public void addSerialized(String id, byte[] json) {
+        fail("Nominatim import must not produce serialized documents.");
+    }
+
+    @Override
+    public void flush() {
+    }
+
     @Override
     public void finish() {
         ++finishCalled;
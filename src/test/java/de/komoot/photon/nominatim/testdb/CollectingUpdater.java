@@ -0,0 +1,85 @@
+package de.komoot.photon.nominatim.testdb;
+
+import de.komoot.photon.PhotonDoc;
+import de.komoot.photon.Updater;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Updater that records the changes it receives.
+ */
+public class CollectingUpdater implements Updater {
+    private final List<PhotonDoc> created = new ArrayList<>();
+    private final List<Long> deleted = new ArrayList<>();
+    private boolean failing = false;
+    private Runnable onFlush = null;
+    private int flushCalled = 0;
+    private int finishCalled = 0;
+
+    @Override
+    public synchronized void create(PhotonDoc doc) {
+        created.add(doc);
+    }
+
+    @Override
+    public synchronized void delete(Long id) {
+        deleted.add(id);
+    }
+
+    @Override
+    public synchronized boolean flush() {
+        ++flushCalled;
+        if (onFlush != null) {
+            onFlush.run();
+        }
+        return !failing;
+    }
+
+    @Override
+    public void finish() {
+        ++finishCalled;
+    }
+
+    /**
+     * Make flushes report that the changes could not be written.
+     */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * Run the given action on every flush, e.g. to change the database while an update is running.
+     */
+    public void setOnFlush(Runnable onFlush) {
+        this.onFlush = onFlush;
+    }
+
+    public List<PhotonDoc> getCreated() {
+        return created;
+    }
+
+    public List<Long> getDeleted() {
+        return deleted;
+    }
+
+    public int getFlushCalled() {
+        return flushCalled;
+    }
+
+    public void assertFinishCalled(int num) {
+        assertEquals(num, finishCalled);
+    }
+
+    public void assertCreated(long placeId, int num) {
+        int found = 0;
+        for (PhotonDoc doc : created) {
+            if (doc.getPlaceId() == placeId) {
+                ++found;
+            }
+        }
+        assertEquals(num, found);
+    }
+}
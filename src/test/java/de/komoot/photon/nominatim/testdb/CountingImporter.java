@@ -0,0 +1,54 @@
+package de.komoot.photon.nominatim.testdb;
+
+import de.komoot.photon.Importer;
+import de.komoot.photon.PhotonDoc;
+import de.komoot.photon.PhotonDocSerializer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Importer that only counts the documents it receives. Optionally serializes
+ * them first, so that the conversion cost is included in measurements.
+ */
+public class CountingImporter implements Importer {
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final PhotonDocSerializer serializer;
+
+    /**
+     * @param serializer Serializer to convert the documents with, or null to only count them.
+     */
+    public CountingImporter(PhotonDocSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    public void add(PhotonDoc doc) {
+        if (serializer != null) {
+            bytes.add(serializer.serialize(doc).length);
+        }
+        documents.increment();
+    }
+
+    @Override
+    public void addSerialized(String id, byte[] json) {
+        bytes.add(json.length);
+        documents.increment();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+}
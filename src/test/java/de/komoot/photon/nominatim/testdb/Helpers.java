@@ -1,6 +1,8 @@
 package de.komoot.photon.nominatim.testdb;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
 import org.springframework.lang.Nullable;
 
 import java.sql.ResultSet;
@@ -20,6 +22,44 @@ public class Helpers {
         return geom.getEnvelope();
     }
 
+    public static Double x(String wkt) throws ParseException {
+        Geometry geom = parse(wkt);
+        return geom == null ? null : geom.getCoordinate().x;
+    }
+
+    public static Double y(String wkt) throws ParseException {
+        Geometry geom = parse(wkt);
+        return geom == null ? null : geom.getCoordinate().y;
+    }
+
+    public static Double xMin(String wkt) throws ParseException {
+        Geometry geom = parse(wkt);
+        return geom == null ? null : geom.getEnvelopeInternal().getMinX();
+    }
+
+    public static Double yMin(String wkt) throws ParseException {
+        Geometry geom = parse(wkt);
+        return geom == null ? null : geom.getEnvelopeInternal().getMinY();
+    }
+
+    public static Double xMax(String wkt) throws ParseException {
+        Geometry geom = parse(wkt);
+        return geom == null ? null : geom.getEnvelopeInternal().getMaxX();
+    }
+
+    public static Double yMax(String wkt) throws ParseException {
+        Geometry geom = parse(wkt);
+        return geom == null ? null : geom.getEnvelopeInternal().getMaxY();
+    }
+
+    private static Geometry parse(String wkt) throws ParseException {
+        if (wkt == null) {
+            return null;
+        }
+        // Strip the SRID prefix of extended WKT.
+        return new WKTReader().read(wkt.substring(wkt.indexOf(';') + 1));
+    }
+
     @Nullable
     public static <T extends Geometry> T extractGeometry(ResultSet rs, String columnName) throws SQLException {
         return (T) rs.getObject(columnName);
@@ -0,0 +1,43 @@
+package de.komoot.photon.nominatim.testdb;
+
+import de.komoot.photon.CheckpointStore;
+import de.komoot.photon.ImportCheckpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checkpoint store that keeps the checkpoint in memory and remembers
+ * the completed tasks of every save.
+ */
+public class MemoryCheckpointStore implements CheckpointStore {
+    private ImportCheckpoint checkpoint = null;
+    private final List<Set<String>> saves = new ArrayList<>();
+
+    public MemoryCheckpointStore() {}
+
+    public MemoryCheckpointStore(ImportCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    @Override
+    public synchronized ImportCheckpoint load() {
+        return checkpoint;
+    }
+
+    @Override
+    public synchronized void save(ImportCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        saves.add(checkpoint.getCompleted());
+    }
+
+    @Override
+    public synchronized void clear() {
+        checkpoint = null;
+    }
+
+    public synchronized List<Set<String>> getSaves() {
+        return saves;
+    }
+}
@@ -15,6 +15,7 @@ public class OsmlineTestRow {
     private String interpolationtype;
     private String countryCode = "de";
     private String lineGeo;
+    private Integer geometrySector = null;
 
     public OsmlineTestRow() {
         placeId = place_id_sequence++;
@@ -38,11 +39,17 @@ public class OsmlineTestRow {
         return this;
     }
 
+    public OsmlineTestRow sector(int sector) {
+        geometrySector = sector;
+        return this;
+    }
+
     public OsmlineTestRow add(JdbcTemplate jdbc) {
         jdbc.update("INSERT INTO location_property_osmline (place_id, parent_place_id, osm_id,"
-                        + " startnumber, endnumber, interpolationtype, linegeo, country_code)"
-                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
-                placeId, parentPlaceId, osmId, startnumber, endnumber, interpolationtype, lineGeo, countryCode);
+                        + " startnumber, endnumber, interpolationtype, linegeo, country_code, geometry_sector)"
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                placeId, parentPlaceId, osmId, startnumber, endnumber, interpolationtype, lineGeo, countryCode,
+                geometrySector);
 
         return this;
     }
@@ -28,6 +28,7 @@ public class PlacexTestRow {
     private String centroid;
     private String countryCode = "us";
     private Double importance = null;
+    private Integer geometrySector = null;
 
     public PlacexTestRow(String key, String value) {
         placeId = place_id_sequence++;
@@ -97,6 +98,11 @@ public class PlacexTestRow {
         return this;
     }
 
+    public PlacexTestRow sector(int sector) {
+        this.geometrySector = sector;
+        return this;
+    }
+
     public PlacexTestRow rankSearch(int rank) {
         this.rankSearch = rank;
         return this;
@@ -114,10 +120,10 @@ public class PlacexTestRow {
 
     public PlacexTestRow add(JdbcTemplate jdbc) {
         jdbc.update("INSERT INTO placex (place_id, parent_place_id, osm_type, osm_id, class, type, rank_search, rank_address,"
-                        + " centroid, name, country_code, importance, address)"
-                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ? FORMAT JSON, ?, ?, ? FORMAT JSON)",
+                        + " centroid, name, country_code, importance, address, geometry_sector)"
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ? FORMAT JSON, ?, ?, ? FORMAT JSON, ?)",
                 placeId, parentPlaceId, osmType, osmId, key, value, rankSearch, rankAddress, centroid,
-                asJson(names), countryCode, importance, asJson(address));
+                asJson(names), countryCode, importance, asJson(address), geometrySector);
 
         return this;
     }
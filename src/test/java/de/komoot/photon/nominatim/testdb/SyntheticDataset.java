@@ -0,0 +1,228 @@
+package de.komoot.photon.nominatim.testdb;
+
+import org.json.JSONObject;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fills the H2 test database with a synthetic, but realistically structured
+ * Nominatim dataset for import benchmarks.
+ * <p>
+ * The dataset has an address hierarchy of states, cities, suburbs and streets.
+ * Every street has a number of houses with house numbers and a named POI, and
+ * some streets have an interpolation line. House numbers and interpolations
+ * never overlap, so every row ends up in a predictable number of documents.
+ * The content is derived from a fixed seed and is the same for every run.
+ */
+public class SyntheticDataset {
+    private static final String[] NAME_PARTS = {
+            "Oak", "Mill", "Church", "Station", "Park", "Lake", "River", "Hill", "Castle", "Market",
+            "Linden", "Birken", "Rosen", "Garten", "Schul", "Berg", "Wald", "Feld", "Brunnen", "Kirch"};
+    private static final String[] STREET_SUFFIXES = {"Street", "Road", "Lane", "straße", "weg", "gasse", "Avenue", "Allee"};
+    private static final String[] POI_TYPES = {"cafe", "restaurant", "pharmacy", "school", "bank", "bakery"};
+    private static final String[] LANGUAGES = {"en", "de", "fr", "it"};
+    private static final int INSERT_BATCH_SIZE = 10000;
+    private static final int INTERPOLATION_START = 200;
+    private static final int INTERPOLATION_END = 220;
+
+    private final int numStreets;
+    private int housesPerStreet = 20;
+    private int interpolationEvery = 4;
+    private int streetsPerCity = 200;
+    private int citiesPerState = 50;
+
+    private final Random random = new Random(42);
+    private final List<Object[]> placexRows = new ArrayList<>();
+    private final List<Object[]> addresslineRows = new ArrayList<>();
+    private final List<Object[]> osmlineRows = new ArrayList<>();
+    private long nextPlaceId = 1;
+    private long placexCount = 0;
+    private long interpolationCount = 0;
+    private long addresslineCount = 0;
+
+    /**
+     * @param numStreets Number of streets to create. All other numbers scale with it.
+     */
+    public SyntheticDataset(int numStreets) {
+        this.numStreets = numStreets;
+    }
+
+    public SyntheticDataset housesPerStreet(int housesPerStreet) {
+        this.housesPerStreet = housesPerStreet;
+        return this;
+    }
+
+    /**
+     * Add an interpolation line to every n-th street. 0 disables interpolations.
+     */
+    public SyntheticDataset interpolationEvery(int interpolationEvery) {
+        this.interpolationEvery = interpolationEvery;
+        return this;
+    }
+
+    public SyntheticDataset streetsPerCity(int streetsPerCity) {
+        this.streetsPerCity = streetsPerCity;
+        return this;
+    }
+
+    /**
+     * Insert the dataset into the database. The database must have been set up with test-schema.sql.
+     */
+    public SyntheticDataset generate(JdbcTemplate jdbc) {
+        final int numCities = Math.max(1, (numStreets + streetsPerCity - 1) / streetsPerCity);
+        final int numStates = Math.max(1, (numCities + citiesPerState - 1) / citiesPerState);
+
+        List<Long> states = new ArrayList<>();
+        for (int i = 0; i < numStates; ++i) {
+            states.add(place(jdbc, null, "boundary", "administrative", 8, 8, names(placeName() + " State"),
+                    null, 10.0 + i, 50.0, i * 10));
+        }
+
+        int street = 0;
+        for (int c = 0; c < numCities && street < numStreets; ++c) {
+            final long state = states.get(c / citiesPerState);
+            final double cityX = 10.0 + (c % 100) * 0.1;
+            final double cityY = 50.0 + (c / 100) * 0.1;
+            final int sector = (c * 97) % 100000;
+            final long city = place(jdbc, null, "place", "city", 16, 16, names(placeName()), null, cityX, cityY, sector);
+            addresslines(jdbc, city, state, 8);
+
+            final long[] suburbs = new long[4];
+            for (int s = 0; s < suburbs.length; ++s) {
+                suburbs[s] = place(jdbc, null, "place", "suburb", 20, 20, names(placeName() + " " + (s + 1)), null,
+                        cityX + s * 0.01, cityY, sector);
+                addresslines(jdbc, suburbs[s], city, 16, state, 8);
+            }
+
+            for (int i = 0; i < streetsPerCity && street < numStreets; ++i, ++street) {
+                final long suburb = suburbs[i % suburbs.length];
+                final double x = cityX + (i % 20) * 0.001;
+                final double y = cityY + (i / 20) * 0.001;
+                final long streetId = place(jdbc, null, "highway", "residential", 26, 26,
+                        names(placeName() + STREET_SUFFIXES[random.nextInt(STREET_SUFFIXES.length)]), null, x, y, sector);
+                addresslines(jdbc, streetId, suburb, 20, city, 16, state, 8);
+
+                for (int h = 1; h <= housesPerStreet; ++h) {
+                    Map<String, String> address = new HashMap<>();
+                    address.put("housenumber", h % 10 == 0 ? h + "a" : Integer.toString(h));
+                    address.put("postcode", String.format("%05d", 10000 + c));
+                    place(jdbc, streetId, "building", "yes", 30, 30, null, address, x + h * 0.00001, y, sector);
+                }
+
+                Map<String, String> poiAddress = new HashMap<>();
+                poiAddress.put("housenumber", Integer.toString(housesPerStreet + 1));
+                place(jdbc, streetId, "amenity", POI_TYPES[street % POI_TYPES.length], 30, 30,
+                        names(placeName() + " " + POI_TYPES[street % POI_TYPES.length]), poiAddress, x, y + 0.00001, sector);
+
+                if (interpolationEvery > 0 && street % interpolationEvery == 0) {
+                    osmlineRows.add(new Object[]{nextPlaceId++, streetId, (long) street, INTERPOLATION_START,
+                            INTERPOLATION_END, "all",
+                            String.format(Locale.ROOT, "LINESTRING(%f %f, %f %f)", x, y, x + 0.0005, y + 0.0005), "de", sector});
+                    ++interpolationCount;
+                }
+            }
+
+            flush(jdbc, false);
+        }
+
+        flush(jdbc, true);
+
+        return this;
+    }
+
+    /**
+     * Number of rows in placex.
+     */
+    public long getPlacexCount() {
+        return placexCount;
+    }
+
+    /**
+     * Number of rows in location_property_osmline.
+     */
+    public long getInterpolationCount() {
+        return interpolationCount;
+    }
+
+    public long getAddresslineCount() {
+        return addresslineCount;
+    }
+
+    /**
+     * Number of documents a full import of the dataset produces.
+     */
+    public long getExpectedDocuments() {
+        return placexCount + interpolationCount * (INTERPOLATION_END - INTERPOLATION_START - 1);
+    }
+
+    private long place(JdbcTemplate jdbc, Long parentId, String key, String value, int rankAddress, int rankSearch,
+                       Map<String, String> names, Map<String, String> address, double x, double y, int sector) {
+        final long placeId = nextPlaceId++;
+        placexRows.add(new Object[]{placeId, parentId, "N", placeId, key, value, rankSearch, rankAddress,
+                String.format(Locale.ROOT, "POINT(%f %f)", x, y), asJson(names), "de", 0.5 / rankSearch, asJson(address), sector});
+        ++placexCount;
+
+        if (placexRows.size() >= INSERT_BATCH_SIZE) {
+            flush(jdbc, false);
+        }
+
+        return placeId;
+    }
+
+    /**
+     * Add address lines for the given place. Takes pairs of address place id and its rank.
+     */
+    private void addresslines(JdbcTemplate jdbc, long placeId, long... addressAndRank) {
+        for (int i = 0; i < addressAndRank.length; i += 2) {
+            addresslineRows.add(new Object[]{placeId, addressAndRank[i], (int) addressAndRank[i + 1]});
+            ++addresslineCount;
+        }
+    }
+
+    private void flush(JdbcTemplate jdbc, boolean all) {
+        if (!placexRows.isEmpty()) {
+            jdbc.batchUpdate("INSERT INTO placex (place_id, parent_place_id, osm_type, osm_id, class, type, rank_search, rank_address,"
+                            + " centroid, name, country_code, importance, address, geometry_sector)"
+                            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ? FORMAT JSON, ?, ?, ? FORMAT JSON, ?)",
+                    placexRows);
+            placexRows.clear();
+        }
+
+        if (all || addresslineRows.size() >= INSERT_BATCH_SIZE) {
+            jdbc.batchUpdate("INSERT INTO place_addressline (place_id, address_place_id, cached_rank_address, isaddress)"
+                    + " VALUES (?, ?, ?, true)", addresslineRows);
+            addresslineRows.clear();
+        }
+
+        if (all || osmlineRows.size() >= INSERT_BATCH_SIZE) {
+            jdbc.batchUpdate("INSERT INTO location_property_osmline (place_id, parent_place_id, osm_id,"
+                    + " startnumber, endnumber, interpolationtype, linegeo, country_code, geometry_sector)"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", osmlineRows);
+            osmlineRows.clear();
+        }
+    }
+
+    private String placeName() {
+        return NAME_PARTS[random.nextInt(NAME_PARTS.length)] + NAME_PARTS[random.nextInt(NAME_PARTS.length)].toLowerCase();
+    }
+
+    private Map<String, String> names(String name) {
+        Map<String, String> names = new HashMap<>();
+        names.put("name", name);
+        // Larger places tend to have translations.
+        if (random.nextInt(4) == 0) {
+            names.put("name:" + LANGUAGES[random.nextInt(LANGUAGES.length)], name + " (" + random.nextInt(100) + ")");
+        }
+        return names;
+    }
+
+    private static String asJson(Map<String, String> map) {
+        return map == null ? "{}" : new JSONObject(map).toString();
+    }
+}
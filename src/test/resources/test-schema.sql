@@ -52,7 +52,20 @@ CREATE TABLE location_property_osmline (
 );
 
 
+CREATE TABLE import_status (
+  lastimportdate TIMESTAMP,
+  sequence_id INTEGER,
+  indexed BOOLEAN
+);
+
+
 CREATE ALIAS ST_Envelope FOR "de.komoot.photon.nominatim.testdb.Helpers.envelope";
+CREATE ALIAS ST_X FOR "de.komoot.photon.nominatim.testdb.Helpers.x";
+CREATE ALIAS ST_Y FOR "de.komoot.photon.nominatim.testdb.Helpers.y";
+CREATE ALIAS ST_XMin FOR "de.komoot.photon.nominatim.testdb.Helpers.xMin";
+CREATE ALIAS ST_YMin FOR "de.komoot.photon.nominatim.testdb.Helpers.yMin";
+CREATE ALIAS ST_XMax FOR "de.komoot.photon.nominatim.testdb.Helpers.xMax";
+CREATE ALIAS ST_YMax FOR "de.komoot.photon.nominatim.testdb.Helpers.yMax";
 
 CREATE TABLE country_name (
     country_code character varying(2),